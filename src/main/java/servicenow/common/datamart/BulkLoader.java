@@ -0,0 +1,464 @@
+package servicenow.common.datamart;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+
+import org.slf4j.Logger;
+
+import servicenow.common.datamart.FieldBinder;
+import servicenow.common.datamart.SqlFieldDefinition;
+import servicenow.common.datamart.SqlGenerator;
+import servicenow.common.soap.DateTime;
+import servicenow.common.soap.Record;
+
+/**
+ * This is a "private" class used by {@link DatabaseTableWriter}
+ * to insert records using the native bulk load path of the JDBC driver.
+ * <p/>
+ * The engine is selected by the <b>engine</b> attribute of the
+ * <b>bulkload</b> template for the dialect:
+ * <ul>
+ * <li><b>copy</b> - PostgreSQL <code>COPY FROM STDIN</code> using the CopyManager</li>
+ * <li><b>loaddata</b> - MySQL <code>LOAD DATA LOCAL INFILE</code> from an in-memory stream</li>
+ * <li><b>bulkcopy</b> - SQL Server <code>SQLServerBulkCopy</code></li>
+ * </ul>
+ * Values are converted by the same {@link FieldBinder} objects which are used
+ * for inserts, so truncation and type conversion are identical.
+ * <p/>
+ * The drivers are optional dependencies, so their classes are
+ * accessed using reflection.
+ */
+abstract class BulkLoader {
+
+	final Connection dbc;
+	final List<SqlFieldDefinition> columns;
+	final FieldBinder[] binders;
+	final TimeZone timezone;
+	final String template;
+	final Logger logger;
+
+	private BulkLoader(Connection dbc, List<SqlFieldDefinition> columns,
+			FieldBinder[] binders, TimeZone timezone, String template, Logger logger) {
+		this.dbc = dbc;
+		this.columns = columns;
+		this.binders = binders;
+		this.timezone = timezone;
+		this.template = template;
+		this.logger = logger;
+	}
+
+	/**
+	 * Create the bulk loader for a table,
+	 * or return null if the dialect has no bulkload template
+	 * or the driver does not support the engine.
+	 */
+	static BulkLoader create(Connection dbc, SqlGenerator generator, String sqlTableName,
+			List<SqlFieldDefinition> columns, FieldBinder[] binders,
+			TimeZone timezone, Logger logger) {
+		if (!generator.hasTemplate("bulkload")) {
+			logger.warn("no bulkload template for dialect " + generator.getDialect());
+			return null;
+		}
+		StringBuilder fieldnames = new StringBuilder();
+		for (int i = 0; i < columns.size(); ++i) {
+			if (i > 0) fieldnames.append(",\n");
+			fieldnames.append(generator.sqlQuote(columns.get(i).getName()));
+		}
+		Map<String,String> map = new HashMap<String,String>();
+		map.put("fieldnames", fieldnames.toString());
+		String template = generator.getTemplate("bulkload", sqlTableName, map);
+		String engine = generator.getTemplateAttribute("bulkload", "engine");
+		try {
+			if ("copy".equals(engine))
+				return new CopyLoader(dbc, columns, binders, timezone, template, logger);
+			if ("loaddata".equals(engine))
+				return new LoadDataLoader(dbc, columns, binders, timezone, template, logger);
+			if ("bulkcopy".equals(engine))
+				return new BulkCopyLoader(dbc, columns, binders, timezone, template, logger);
+			logger.warn("bulkload engine not recognized: " + engine);
+		}
+		catch (Exception e) {
+			logger.warn("bulkload engine " + engine + " not supported by driver: " + e);
+		}
+		return null;
+	}
+
+	/**
+	 * Insert a list of records.
+	 * @return The number of rows inserted
+	 */
+	abstract int load(List<Record> recs) throws SQLException;
+
+	/**
+	 * Release any resources held by the loader.
+	 */
+	void close() {
+	}
+
+	/**
+	 * Rethrow the exception from a driver method which was invoked by reflection.
+	 */
+	static SQLException driverException(InvocationTargetException e) {
+		Throwable cause = e.getCause();
+		if (cause instanceof SQLException) return (SQLException) cause;
+		if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+		if (cause instanceof Error) throw (Error) cause;
+		return new SQLException(cause);
+	}
+
+	/**
+	 * Formats records as tab delimited text for COPY and LOAD DATA.
+	 * <p/>
+	 * Nulls are written as <code>\N</code>. Backslash, tab, newline
+	 * and carriage return are escaped with a backslash.
+	 * Timestamps and dates are written in the time zone of the database
+	 * so that they match the values bound by {@link FieldBinder}.
+	 */
+	static class TextFormat {
+		private final boolean gmt;
+		private final DateFormat timestampFormat;
+		private final DateFormat dateFormat;
+
+		TextFormat(TimeZone timezone) {
+			this.gmt = timezone.getRawOffset() == 0 && !timezone.useDaylightTime();
+			this.timestampFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+			this.timestampFormat.setTimeZone(timezone);
+			this.dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+			this.dateFormat.setTimeZone(timezone);
+		}
+
+		String formatTimestamp(long millis) {
+			if (gmt) return new DateTime(millis).toString();
+			return timestampFormat.format(new java.util.Date(millis));
+		}
+
+		String formatDate(long millis) {
+			if (gmt) return new DateTime(millis).toString().substring(0, DateTime.DATE_ONLY);
+			return dateFormat.format(new java.util.Date(millis));
+		}
+
+		void appendValue(StringBuilder buf, Object value) {
+			if (value == null) {
+				buf.append("\\N");
+			}
+			else if (value instanceof String) {
+				String str = (String) value;
+				for (int i = 0; i < str.length(); ++i) {
+					char c = str.charAt(i);
+					switch (c) {
+					case '\\' : buf.append("\\\\"); break;
+					case '\t' : buf.append("\\t"); break;
+					case '\n' : buf.append("\\n"); break;
+					case '\r' : buf.append("\\r"); break;
+					default : buf.append(c);
+					}
+				}
+			}
+			else if (value instanceof java.sql.Timestamp) {
+				buf.append(formatTimestamp(((java.sql.Timestamp) value).getTime()));
+			}
+			else if (value instanceof java.sql.Date) {
+				buf.append(formatDate(((java.sql.Date) value).getTime()));
+			}
+			else if (value instanceof Boolean) {
+				buf.append(((Boolean) value).booleanValue() ? "1" : "0");
+			}
+			else {
+				buf.append(value.toString());
+			}
+		}
+
+		void appendRecord(StringBuilder buf, FieldBinder[] binders, Record rec) {
+			for (int i = 0; i < binders.length; ++i) {
+				if (i > 0) buf.append('\t');
+				appendValue(buf, binders[i].getValue(rec));
+			}
+			buf.append('\n');
+		}
+
+		byte[] format(FieldBinder[] binders, List<Record> recs) {
+			StringBuilder buf = new StringBuilder(recs.size() * 100);
+			for (Record rec : recs) appendRecord(buf, binders, rec);
+			try {
+				return buf.toString().getBytes("UTF-8");
+			}
+			catch (UnsupportedEncodingException e) {
+				throw new AssertionError(e);
+			}
+		}
+	}
+
+	/**
+	 * PostgreSQL <code>COPY ... FROM STDIN</code>
+	 * using <code>org.postgresql.copy.CopyManager</code>.
+	 */
+	static class CopyLoader extends BulkLoader {
+		final TextFormat text;
+		final Object copyManager;
+		final Method copyIn;
+
+		CopyLoader(Connection dbc, List<SqlFieldDefinition> columns, FieldBinder[] binders,
+				TimeZone timezone, String template, Logger logger) throws Exception {
+			super(dbc, columns, binders, timezone, template, logger);
+			this.text = new TextFormat(timezone);
+			Class<?> pgClass = Class.forName("org.postgresql.PGConnection");
+			Object pgConnection = pgClass.isInstance(dbc) ? dbc : dbc.unwrap(pgClass);
+			this.copyManager = pgClass.getMethod("getCopyAPI").invoke(pgConnection);
+			Class<?> copyClass = Class.forName("org.postgresql.copy.CopyManager");
+			this.copyIn = copyClass.getMethod("copyIn", String.class, InputStream.class);
+		}
+
+		int load(List<Record> recs) throws SQLException {
+			byte[] data = text.format(binders, recs);
+			Object rows;
+			try {
+				rows = copyIn.invoke(copyManager, template, new ByteArrayInputStream(data));
+			}
+			catch (InvocationTargetException e) {
+				throw driverException(e);
+			}
+			catch (IllegalAccessException e) {
+				throw new SQLException(e);
+			}
+			logger.debug("COPY rows=" + rows + " bytes=" + data.length);
+			return ((Number) rows).intValue();
+		}
+	}
+
+	/**
+	 * MySQL <code>LOAD DATA LOCAL INFILE</code> reading from an in-memory stream
+	 * which is passed to <code>setLocalInfileInputStream</code>.
+	 * The connection must allow local infile.
+	 */
+	static class LoadDataLoader extends BulkLoader {
+		static final String[] STATEMENT_CLASSES = {
+			"com.mysql.jdbc.Statement",
+			"com.mysql.cj.jdbc.JdbcStatement" };
+		final TextFormat text;
+		final Statement stmt;
+		final Method setStream;
+
+		LoadDataLoader(Connection dbc, List<SqlFieldDefinition> columns, FieldBinder[] binders,
+				TimeZone timezone, String template, Logger logger) throws Exception {
+			super(dbc, columns, binders, timezone, template, logger);
+			this.text = new TextFormat(timezone);
+			Statement stmt = dbc.createStatement();
+			Method setStream = null;
+			for (String name : STATEMENT_CLASSES) {
+				Class<?> stmtClass;
+				try {
+					stmtClass = Class.forName(name);
+				}
+				catch (ClassNotFoundException e) {
+					continue;
+				}
+				if (stmtClass.isInstance(stmt)) {
+					setStream = stmtClass.getMethod("setLocalInfileInputStream", InputStream.class);
+					break;
+				}
+			}
+			if (setStream == null) {
+				stmt.close();
+				throw new ClassNotFoundException("setLocalInfileInputStream");
+			}
+			this.stmt = stmt;
+			this.setStream = setStream;
+		}
+
+		int load(List<Record> recs) throws SQLException {
+			byte[] data = text.format(binders, recs);
+			int rows;
+			try {
+				setStream.invoke(stmt, new ByteArrayInputStream(data));
+				rows = stmt.executeUpdate(template);
+				setStream.invoke(stmt, (InputStream) null);
+			}
+			catch (InvocationTargetException e) {
+				throw driverException(e);
+			}
+			catch (IllegalAccessException e) {
+				throw new SQLException(e);
+			}
+			logger.debug("LOAD DATA rows=" + rows + " bytes=" + data.length);
+			return rows;
+		}
+
+		void close() {
+			try {
+				stmt.close();
+			}
+			catch (SQLException e) {
+				logger.warn("failed to close database statement", e);
+			}
+		}
+	}
+
+	/**
+	 * SQL Server bulk copy using <code>SQLServerBulkCopy</code>.
+	 * <p/>
+	 * The records are passed to <code>writeToServer</code> through a proxy
+	 * for the bulk record interface of the driver (<code>ISQLServerBulkRecord</code>
+	 * or <code>ISQLServerBulkData</code> depending on the version).
+	 * The copy runs in the transaction of the connection.
+	 */
+	static class BulkCopyLoader extends BulkLoader {
+		final TextFormat text;
+		final Constructor<?> newBulkCopy;
+		final Method setDestination;
+		final Method addColumnMapping;
+		final Method writeToServer;
+		final Method closeBulkCopy;
+		final Class<?> recordInterface;
+
+		BulkCopyLoader(Connection dbc, List<SqlFieldDefinition> columns, FieldBinder[] binders,
+				TimeZone timezone, String template, Logger logger) throws Exception {
+			super(dbc, columns, binders, timezone, template, logger);
+			this.text = new TextFormat(timezone);
+			Class<?> bulkClass = Class.forName("com.microsoft.sqlserver.jdbc.SQLServerBulkCopy");
+			this.newBulkCopy = bulkClass.getConstructor(Connection.class);
+			this.setDestination = bulkClass.getMethod("setDestinationTableName", String.class);
+			this.addColumnMapping = bulkClass.getMethod("addColumnMapping", int.class, String.class);
+			this.closeBulkCopy = bulkClass.getMethod("close");
+			Method writeMethod = null;
+			for (Method m : bulkClass.getMethods()) {
+				if (!m.getName().equals("writeToServer")) continue;
+				Class<?>[] params = m.getParameterTypes();
+				if (params.length == 1 && params[0].isInterface() &&
+						!ResultSet.class.isAssignableFrom(params[0])) {
+					writeMethod = m;
+					break;
+				}
+			}
+			if (writeMethod == null)
+				throw new NoSuchMethodException("writeToServer");
+			this.writeToServer = writeMethod;
+			this.recordInterface = writeMethod.getParameterTypes()[0];
+		}
+
+		int load(List<Record> recs) throws SQLException {
+			Object source = Proxy.newProxyInstance(
+				recordInterface.getClassLoader(),
+				new Class<?>[] { recordInterface },
+				new RecordSource(recs));
+			try {
+				Object bulkCopy = newBulkCopy.newInstance(dbc);
+				try {
+					setDestination.invoke(bulkCopy, template);
+					for (int i = 0; i < columns.size(); ++i)
+						addColumnMapping.invoke(bulkCopy, i + 1, columns.get(i).getName());
+					writeToServer.invoke(bulkCopy, source);
+				}
+				finally {
+					closeBulkCopy.invoke(bulkCopy);
+				}
+			}
+			catch (InvocationTargetException e) {
+				throw driverException(e);
+			}
+			catch (InstantiationException e) {
+				throw new SQLException(e);
+			}
+			catch (IllegalAccessException e) {
+				throw new SQLException(e);
+			}
+			logger.debug("BULK COPY rows=" + recs.size());
+			return recs.size();
+		}
+
+		/**
+		 * Values for a column of the bulk copy.
+		 * Timestamps and dates are passed as local times
+		 * which have the same fields as the time in the database time zone.
+		 */
+		Object bulkValue(Object value) {
+			if (value instanceof java.sql.Timestamp)
+				return java.sql.Timestamp.valueOf(
+					text.formatTimestamp(((java.sql.Timestamp) value).getTime()));
+			if (value instanceof java.sql.Date)
+				return java.sql.Date.valueOf(
+					text.formatDate(((java.sql.Date) value).getTime()));
+			return value;
+		}
+
+		static int precision(int type, int size) {
+			switch (type) {
+			case Types.TIMESTAMP : return 23;
+			case Types.DATE : return 10;
+			case Types.BIT : return 1;
+			case Types.TINYINT : return 3;
+			case Types.SMALLINT : return 5;
+			case Types.INTEGER : return 10;
+			case Types.DOUBLE : return 15;
+			default : return size > 0 ? size : 4000;
+			}
+		}
+
+		/**
+		 * Implements the bulk record interface of the driver.
+		 */
+		class RecordSource implements InvocationHandler {
+			final List<Record> recs;
+			int next = 0;
+			Object[] row = null;
+
+			RecordSource(List<Record> recs) {
+				this.recs = recs;
+			}
+
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				String name = method.getName();
+				if (name.equals("next")) {
+					if (next >= recs.size()) return Boolean.FALSE;
+					Record rec = recs.get(next++);
+					row = new Object[binders.length];
+					for (int i = 0; i < binders.length; ++i)
+						row[i] = bulkValue(binders[i].getValue(rec));
+					return Boolean.TRUE;
+				}
+				if (name.equals("getRowData")) return row;
+				if (name.equals("getColumnOrdinals")) {
+					Set<Integer> ordinals = new LinkedHashSet<Integer>();
+					for (int i = 1; i <= binders.length; ++i) ordinals.add(i);
+					return ordinals;
+				}
+				if (args != null && args.length == 1 && args[0] instanceof Integer) {
+					int col = ((Integer) args[0]).intValue() - 1;
+					int type = binders[col].valueType();
+					if (name.equals("getColumnName")) return columns.get(col).getName();
+					if (name.equals("getColumnType")) return type;
+					if (name.equals("getPrecision"))
+						return precision(type, columns.get(col).getSize());
+					if (name.equals("getScale")) return type == Types.TIMESTAMP ? 3 : 0;
+				}
+				if (name.equals("toString")) return "RecordSource rows=" + recs.size();
+				if (name.equals("hashCode")) return System.identityHashCode(proxy);
+				if (name.equals("equals")) return proxy == args[0];
+				// e.g. isAutoIncrement
+				Class<?> result = method.getReturnType();
+				if (result == boolean.class) return Boolean.FALSE;
+				if (result == int.class) return 0;
+				return null;
+			}
+		}
+	}
+
+}
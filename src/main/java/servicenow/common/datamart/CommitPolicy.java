@@ -0,0 +1,108 @@
+package servicenow.common.datamart;
+
+import org.apache.commons.configuration.Configuration;
+
+import servicenow.common.datamart.Metrics;
+
+/**
+ * This is a "private" class used by {@link DatabaseTableWriter}
+ * to decide when records which have been written should be committed.
+ * <p/>
+ * A commit is due when the uncommitted records reach
+ * <b>commit_rows</b> rows, <b>commit_mb</b> megabytes (estimated from
+ * the length of the field values) or <b>commit_seconds</b> seconds
+ * since the first uncommitted write, whichever comes first.
+ * The limits are checked after each chunk. If no limit is set then
+ * every chunk is committed.
+ * <p/>
+ * The counts for the uncommitted records are held in a separate
+ * {@link Metrics} object which is added to the metrics of the job
+ * only when the records are committed, so that the metrics which are
+ * posted (and used to resume a load) never include records which
+ * could still be rolled back.
+ */
+class CommitPolicy {
+
+	final int maxRows;
+	final long maxBytes;
+	final long maxMillis;
+	private final Metrics pending = new Metrics();
+	private int rows = 0;
+	private long bytes = 0;
+	private long firstWrite = 0;
+
+	CommitPolicy(int maxRows, int maxMegabytes, int maxSeconds) {
+		this.maxRows = maxRows;
+		this.maxBytes = 1024L * 1024L * maxMegabytes;
+		this.maxMillis = 1000L * maxSeconds;
+	}
+
+	CommitPolicy(Configuration config) {
+		this(config.getInt("commit_rows", 0),
+			config.getInt("commit_mb", 0),
+			config.getInt("commit_seconds", 0));
+	}
+
+	/**
+	 * Return true if the number of bytes written is used.
+	 */
+	boolean measuresBytes() {
+		return maxBytes > 0;
+	}
+
+	/**
+	 * The metrics to be updated by writes which have not been committed.
+	 */
+	Metrics pending() {
+		return pending;
+	}
+
+	/**
+	 * Record that rows have been written but not committed.
+	 */
+	void written(int count, long size) {
+		if (rows == 0 && bytes == 0) firstWrite = System.currentTimeMillis();
+		rows += count;
+		bytes += size;
+	}
+
+	boolean isDue() {
+		if (maxRows <= 0 && maxBytes <= 0 && maxMillis <= 0) return true;
+		if (maxRows > 0 && rows >= maxRows) return true;
+		if (maxBytes > 0 && bytes >= maxBytes) return true;
+		if (maxMillis > 0 && System.currentTimeMillis() - firstWrite >= maxMillis)
+			return true;
+		return false;
+	}
+
+	boolean hasPending() {
+		return rows > 0;
+	}
+
+	/**
+	 * Called after a commit. Adds the pending counts to the metrics.
+	 * @return The number of rows committed
+	 */
+	int committed(Metrics metrics) {
+		int result = rows;
+		metrics.addMetrics(pending);
+		metrics.incrementPublished(result);
+		clear();
+		return result;
+	}
+
+	/**
+	 * Called after a rollback. Discards the pending counts.
+	 */
+	void clear() {
+		pending.clear();
+		rows = 0;
+		bytes = 0;
+	}
+
+	public String toString() {
+		return "commit_rows=" + maxRows + " commit_mb=" + (maxBytes / (1024L * 1024L)) +
+			" commit_seconds=" + (maxMillis / 1000L);
+	}
+
+}
@@ -0,0 +1,283 @@
+package servicenow.common.datamart;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+
+import servicenow.common.datamart.DatabaseTableWriter;
+import servicenow.common.datamart.DatabaseWriter;
+import servicenow.common.datamart.DatamartConfiguration;
+import servicenow.common.datamart.LoggerFactory;
+import servicenow.common.datamart.ResourceException;
+import servicenow.common.datamart.ResourceManager;
+
+/**
+ * This is a "private" class used by {@link ResourceManager}
+ * to share JDBC connections among the suites which are run by the daemon.
+ * <p/>
+ * A {@link DatabaseWriter} borrows a connection when it is opened
+ * and returns it when it is closed.
+ * The pool is enabled by setting <b>pool_size</b> to the maximum number
+ * of connections. Other properties are
+ * <ul>
+ * <li><b>pool_wait_seconds</b> - how long to wait when all connections
+ * are in use (default 60)</li>
+ * <li><b>pool_idle_seconds</b> - idle connections are closed after this
+ * time (default 600)</li>
+ * <li><b>pool_lifetime_seconds</b> - connections are closed after this
+ * time, even if they are in regular use (default 1800)</li>
+ * <li><b>pool_validate_seconds</b> - timeout for the validation
+ * of a connection when it is borrowed (default 5)</li>
+ * </ul>
+ * Idle and expired connections are closed when a connection is borrowed
+ * or returned; there is no background thread.
+ * Uncommitted work is rolled back when a connection is returned.
+ */
+class ConnectionPool {
+
+	/**
+	 * A connection which has been borrowed from the pool.
+	 */
+	static class Lease {
+		final Connection connection;
+		final long created;
+		long returned;
+		/**
+		 * Set by {@link DatabaseWriter} after the initialization
+		 * statements for the dialect have been run.
+		 */
+		boolean initialized = false;
+		/**
+		 * Table writers which have been prepared on this connection.
+		 * See {@link DatabaseWriter#getTableWriter}.
+		 */
+		final Map<String,DatabaseTableWriter> tableWriters = 
+			new HashMap<String,DatabaseTableWriter>();
+		/**
+		 * The value of {@link ConnectionPool#generation} 
+		 * when the table writers were last checked.
+		 */
+		long generation = 0;
+
+		Lease(Connection connection) {
+			this.connection = connection;
+			this.created = System.currentTimeMillis();
+		}
+	}
+
+	static final Logger logger = LoggerFactory.getLogger(ConnectionPool.class);
+
+	final DatamartConfiguration config;
+	final int maxSize;
+	final long waitMillis;
+	final long idleMillis;
+	final long lifetimeMillis;
+	final int validateSeconds;
+
+	/**
+	 * Incremented whenever a table is created, dropped or swapped 
+	 * or an SQL job is run on any connection in the pool,
+	 * so that the table writers cached with the other connections 
+	 * are discarded.
+	 */
+	final AtomicLong generation = new AtomicLong(0);
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition available = lock.newCondition();
+	private final Deque<Lease> idle = new ArrayDeque<Lease>();
+	private int size = 0;
+	private boolean closed = false;
+
+	ConnectionPool(DatamartConfiguration config) {
+		this.config = config;
+		this.maxSize = config.getInt("pool_size", 0);
+		if (maxSize < 1) throw new IllegalArgumentException("pool_size=" + maxSize);
+		this.waitMillis = 1000L * config.getInt("pool_wait_seconds", 60);
+		this.idleMillis = 1000L * config.getInt("pool_idle_seconds", 600);
+		this.lifetimeMillis = 1000L * config.getInt("pool_lifetime_seconds", 1800);
+		this.validateSeconds = config.getInt("pool_validate_seconds", 5);
+		logger.info("pool_size=" + maxSize);
+	}
+
+	/**
+	 * Borrow a connection, opening a new one if none is idle.
+	 * If all connections are in use then wait for one to be returned.
+	 *
+	 * @throws ResourceException if no connection is returned
+	 * within <b>pool_wait_seconds</b> or the thread is interrupted
+	 */
+	Lease borrow() throws ResourceException {
+		long deadline = System.currentTimeMillis() + waitMillis;
+		lock.lock();
+		try {
+			while (true) {
+				if (closed) throw new IllegalStateException("pool closed");
+				evict();
+				Lease lease = idle.pollFirst();
+				if (lease != null) {
+					// validate outside the lock
+					lock.unlock();
+					boolean valid;
+					try {
+						valid = isValid(lease);
+					}
+					finally {
+						lock.lock();
+					}
+					if (valid) {
+						logger.debug("borrow size=" + size + " idle=" + idle.size());
+						return lease;
+					}
+					discard(lease);
+					continue;
+				}
+				if (size < maxSize) {
+					// reserve a place and open the connection outside the lock
+					size += 1;
+					lock.unlock();
+					Connection connection = null;
+					try {
+						connection = ResourceManager.getNewConnection(config);
+					}
+					finally {
+						lock.lock();
+						if (connection == null) {
+							size -= 1;
+							available.signal();
+						}
+					}
+					logger.debug("borrow new connection size=" + size);
+					return new Lease(connection);
+				}
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0)
+					throw new ResourceException(
+						"no connection available after " + (waitMillis / 1000) +
+						" seconds (pool_size=" + maxSize + ")");
+				try {
+					available.await(remaining, TimeUnit.MILLISECONDS);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new ResourceException("interrupted waiting for connection", e);
+				}
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Return a connection to the pool.
+	 * Uncommitted work is rolled back.
+	 */
+	void release(Lease lease) {
+		boolean usable;
+		try {
+			usable = !lease.connection.isClosed();
+			if (usable && !lease.connection.getAutoCommit()) 
+				lease.connection.rollback();
+		}
+		catch (SQLException e) {
+			logger.warn("discarding connection: " + e.getMessage());
+			usable = false;
+		}
+		lock.lock();
+		try {
+			lease.returned = System.currentTimeMillis();
+			if (usable && !closed && !isExpired(lease, lease.returned))
+				idle.addFirst(lease);
+			else
+				discard(lease);
+			evict();
+			available.signal();
+			logger.debug("release size=" + size + " idle=" + idle.size());
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Close the idle connections.
+	 * Connections which are in use are closed when they are returned.
+	 */
+	void close() {
+		lock.lock();
+		try {
+			closed = true;
+			while (!idle.isEmpty()) discard(idle.pollFirst());
+			available.signalAll();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	private boolean isExpired(Lease lease, long now) {
+		return lifetimeMillis > 0 && now - lease.created >= lifetimeMillis;
+	}
+
+	/**
+	 * Close connections which have been idle too long or have expired.
+	 * The least recently used connections are at the end of the queue.
+	 */
+	private void evict() {
+		long now = System.currentTimeMillis();
+		Iterator<Lease> iter = idle.descendingIterator();
+		while (iter.hasNext()) {
+			Lease lease = iter.next();
+			if ((idleMillis > 0 && now - lease.returned >= idleMillis) ||
+					isExpired(lease, now)) {
+				iter.remove();
+				discard(lease);
+			}
+		}
+	}
+
+	/**
+	 * Close a connection and remove it from the count.
+	 * The caller must hold the lock.
+	 */
+	private void discard(Lease lease) {
+		size -= 1;
+		lease.tableWriters.clear();
+		try {
+			lease.connection.close();
+		}
+		catch (SQLException e) {
+			logger.warn("failed to close database connection", e);
+		}
+		available.signal();
+	}
+
+	private boolean isValid(Lease lease) {
+		try {
+			return lease.connection.isValid(validateSeconds);
+		}
+		catch (SQLException e) {
+			return false;
+		}
+		catch (AbstractMethodError e) {
+			// driver is older than JDBC 4
+			try {
+				return !lease.connection.isClosed();
+			}
+			catch (SQLException e2) {
+				return false;
+			}
+		}
+	}
+
+}
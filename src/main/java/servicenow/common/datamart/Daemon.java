@@ -22,9 +22,12 @@ import org.slf4j.Logger;
 import servicenow.common.datamart.Daemon;
 import servicenow.common.datamart.DatamartConfiguration;
 import servicenow.common.datamart.LoggerFactory;
+import servicenow.common.datamart.ResourceManager;
 import servicenow.common.datamart.Scanner;
 import servicenow.common.datamart.ShutdownHook;
 import servicenow.common.datamart.SuiteModel;
+import servicenow.common.soap.DaemonThreadFactory;
+import servicenow.common.soap.PooledTransport;
 
 public class Daemon implements org.apache.commons.daemon.Daemon {
 	
@@ -110,7 +113,11 @@ public class Daemon implements org.apache.commons.daemon.Daemon {
 		assert threadCount > 0;
 		assert intervalSeconds > 0;
 				
-		workerPool = Executors.newFixedThreadPool(threadCount);
+		// With virtual threads every suite can have its own thread
+		if (ResourceManager.configureThreads(config))
+			workerPool = Executors.newCachedThreadPool(new DaemonThreadFactory("suite"));
+		else
+			workerPool = Executors.newFixedThreadPool(threadCount);
         this.timer = new Timer("scanner", true);
         scanner = new Scanner(config, workerPool);
         
@@ -142,6 +149,8 @@ public class Daemon implements org.apache.commons.daemon.Daemon {
 		catch (InterruptedException e) {
 			terminated = false;
 		}
+		ResourceManager.closeConnectionPools();
+		PooledTransport.closeAll();
 		if (terminated) {
 			logger.info("Shutdown Successful");
 		}
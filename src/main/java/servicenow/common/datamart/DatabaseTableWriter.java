@@ -1,12 +1,14 @@
 package servicenow.common.datamart;
 
 import java.util.*;
-import java.util.regex.*;
 
 import org.slf4j.Logger;
 
+import servicenow.common.datamart.BulkLoader;
+import servicenow.common.datamart.CommitPolicy;
 import servicenow.common.datamart.DatabaseWriter;
 import servicenow.common.datamart.DatamartConfiguration;
+import servicenow.common.datamart.FieldBinder;
 import servicenow.common.datamart.LoadMethod;
 import servicenow.common.datamart.LoggerFactory;
 import servicenow.common.datamart.Metrics;
@@ -15,13 +17,13 @@ import servicenow.common.datamart.SqlGenerator;
 import servicenow.common.datamart.SuiteExecException;
 import servicenow.common.datamart.SuiteInitException;
 import servicenow.common.soap.DateTime;
-import servicenow.common.soap.InvalidDateTimeException;
 import servicenow.common.soap.InvalidFieldNameException;
 import servicenow.common.soap.Key;
 import servicenow.common.soap.KeyList;
 import servicenow.common.soap.Record;
-import servicenow.common.soap.RecordList;
+import servicenow.common.soap.RecordProcessor;
 import servicenow.common.soap.Table;
+import servicenow.common.soap.TableReader;
 import servicenow.common.soap.TableWSDL;
 
 import java.io.IOException;
@@ -30,7 +32,6 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.Statement;
 import java.sql.SQLException;
-import java.sql.Types;
 import java.text.ParseException;
 
 import org.jdom2.JDOMException;
@@ -43,8 +44,8 @@ import org.jdom2.JDOMException;
  */
 public class DatabaseTableWriter {
 	
-	private final DatabaseWriter database;
-	private final Table table;
+	private DatabaseWriter database;
+	private Table table;
 	private final String sqlTableName;
 	private final Calendar dbCalendar;
 	private final java.sql.Connection dbc;
@@ -53,20 +54,25 @@ public class DatabaseTableWriter {
 	private final String sqlSchemaName;
 	private final TableWSDL tableWSDL;
 	final ArrayList<SqlFieldDefinition> columns;
+	private final FieldBinder[] binders;
+	private final BulkLoader bulkLoader;
+	private final KeyListStatements keyLists;
+	private CommitPolicy commitPolicy;
 	private boolean warnOnTruncate;
+	private boolean upsertWarned = false;
 	
 	private final java.sql.PreparedStatement stmtInsert;
 	private final java.sql.PreparedStatement stmtUpdate;	
+	private final java.sql.PreparedStatement stmtUpsert;
 	private java.sql.PreparedStatement stmtReadTimestamp = null;
 	private java.sql.PreparedStatement stmtDeleteRecord = null;
     private final String sqlInsert;
     private final String sqlUpdate;
+    private final String sqlUpsert;
     private final String sqlReadTimestamp;
     private final String sqlDeleteRecord;
     final Logger logger;
 
-    private final Pattern dateTimePattern = 
-    	Pattern.compile("\\d\\d\\d\\d-\\d\\d-\\d\\d \\d\\d:\\d\\d:\\d\\d");
     // private final Calendar gmtCalendar = 
     // 	Calendar.getInstance(TimeZone.getTimeZone("GMT"));
     // private Calendar dbCalendar;
@@ -109,23 +115,41 @@ public class DatabaseTableWriter {
 				"Unable to retrieve metadata for " + generator.sqlTableName(sqlTableName));
 		sqlInsert = generateInsert();
 		sqlUpdate = generateUpdate();
+		sqlUpsert = generateUpsert();
 		sqlReadTimestamp = generator.getTemplate("timestamp", sqlTableName);
 		sqlDeleteRecord = generator.getTemplate("delete", sqlTableName);
 		logger.debug("Prepare " + sqlInsert);
 		stmtInsert = dbc.prepareStatement(sqlInsert);
 		logger.debug("Prepare " + sqlUpdate);
 		stmtUpdate = dbc.prepareStatement(sqlUpdate);
+		if (sqlUpsert != null) {
+			logger.debug("Prepare " + sqlUpsert);
+			stmtUpsert = dbc.prepareStatement(sqlUpsert);
+		}
+		else {
+			stmtUpsert = null;
+		}
 		DatamartConfiguration config = 
 			DatamartConfiguration.getDatamartConfiguration();
 		warnOnTruncate = config.getBoolean("warn_on_truncate",  true);
+		binders = createBinders();
+		bulkLoader = database.bulkLoad() ?
+			BulkLoader.create(dbc, generator, sqlTableName, columns, binders, 
+				dbCalendar.getTimeZone(), logger) : null;
+		keyLists = new KeyListStatements(dbc, generator, sqlTableName, dbCalendar, logger);
+		commitPolicy = database.newCommitPolicy(table);
+		logger.debug(commitPolicy.toString());
 	}
 
 	void close() {
 		try {
 			stmtInsert.close();
 			stmtUpdate.close();
+			if (stmtUpsert != null) stmtUpsert.close();
 			if (stmtReadTimestamp != null) stmtReadTimestamp.close();
-			if (stmtDeleteRecord != null) stmtDeleteRecord.close();			
+			if (stmtDeleteRecord != null) stmtDeleteRecord.close();
+			keyLists.close();
+			if (bulkLoader != null) bulkLoader.close();
 		}
 		catch (SQLException e) {
 			logger.warn("failed to close database statement", e);			
@@ -137,6 +161,23 @@ public class DatabaseTableWriter {
 		super.finalize();
 	}
 	
+	/**
+	 * Prepare a cached writer for another job on the same connection.
+	 * The metadata and statements are kept, but the writer is attached to
+	 * the new {@link DatabaseWriter} and ServiceNow table,
+	 * and the commit policy is read again so that no uncommitted 
+	 * counts are carried over.
+	 */
+	void reuse(DatabaseWriter database, Table table) {
+		if (database.getConnection() != dbc) 
+			throw new IllegalStateException("different connection");
+		this.database = database;
+		this.table = table;
+		this.commitPolicy = database.newCommitPolicy(table);
+	}
+	
+	Table getTable() { return this.table; }
+	
 	// public Metrics getMetrics() { return this.metrics; }
 	public SqlGenerator sqlGenerator() { return database.sqlGenerator(); }
 		
@@ -148,7 +189,7 @@ public class DatabaseTableWriter {
 	 * @throws SQLException
 	 * @throws LoaderException 
 	 */
-	synchronized ArrayList<SqlFieldDefinition> fetchMetaData() 
+	ArrayList<SqlFieldDefinition> fetchMetaData() 
 			throws SQLException, SuiteInitException {
 		if (!tableExists()) return null;
 		logger.debug("Begin Load Schema");		
@@ -222,170 +263,22 @@ public class DatabaseTableWriter {
 	}
 
 	/**
-	 * Get a value from a Glide Record and bind it to a variable in prepared statement.
-	 * 
-	 * @param stmt Prepared Statement to which variables are bound.
-	 * @param bindCol Index (starting with 1) of the variable within the statement.
-	 * @param rec Glide Record which serves as a source of the data.
-	 * @param glideCol Index (starting with 0) of the variable in the columns array.
-	 * @throws SQLException
-	 * @throws IOException
-	 * @throws JDOMException
+	 * Create a binder for each column.
+	 * The binders are in the same order as the columns.
 	 */
-	private void bindField(PreparedStatement stmt, int bindCol, Record rec, int glideCol) 
-			throws SQLException, IOException, JDOMException {
-		SqlFieldDefinition d = columns.get(glideCol);
-		String glidename = d.getGlideName();
-		String value = rec.getField(glidename, false);
-		int sqltype = d.sqltype;
-		// If value is null then bind to null and exit
-		if (value == null) {
-			stmt.setNull(bindCol, sqltype);
-			return;
-		}		
-		// If the value appears to be a date (dddd-dd-dd dd:dd:dd)
-		// and the target data type is numeric
-		// then it must be a duration
-		// so try to convert it to a number of seconds
-		if ((sqltype == Types.NUMERIC || sqltype == Types.DECIMAL || 
-				sqltype == Types.INTEGER || sqltype == Types.DOUBLE) && 
-				value.length() == 19) {
-			if (dateTimePattern.matcher(value).matches()) {
-				try {
-					DateTime timestamp = new DateTime(value, DateTime.DATE_TIME);
-					long seconds = timestamp.toDate().getTime() / 1000L;
-					if (logger.isTraceEnabled())
-						logger.trace(glidename + " " + value + "=" + seconds);
-					if (seconds < 0L) {
-						logger.warn(rec.getKey() + " duration underflow: " +
-							glidename + "=" + value);
-						value = null;
-					}
-					else if (seconds > 999999999L) {
-						logger.warn(rec.getKey() + " duration overflow: " +
-							glidename + "=" + value);
-						value = null;
-					}
-					else {
-						value = Long.toString(seconds);
-					}
-				} catch (InvalidDateTimeException e) {
-					logger.warn(rec.getKey() + " duration error: " +
-							glidename + "=" + value);
-					value = null;
-				}
-				if (value == null) {
-					stmt.setNull(bindCol, sqltype);
-					return;					
-				}
-			}
-		}
-		assert value != null;
-		// If the SQL type is VARCHAR, then check for an over-size value
-		// and truncate if necessary
-		if (sqltype == Types.VARCHAR || sqltype == Types.CHAR) {
-			int oldSize = value.length();
-			int maxSize = d.getSize();
-			if (value.length() > maxSize) {
-				value = value.substring(0,  maxSize);
-			}
-			if (generator.getDialect().equals("oracle2")) {
-				// This is a workaround for an apparent bug in the Oracle JDBC 
-				// driver which occasionally generates an ORA-01461 error when 
-				// inserting from a text field containing multi-byte characters
-				// into a VARCHAR2 column.
-				// Keep chopping more characters off the end of the string until
-				// the number of BYTES is less than the field size.
-				while (value.getBytes("UTF8").length > maxSize)
-					value = value.substring(0, value.length() - 1);					
-			}
-			if (value.length() != oldSize) {
-				String message = rec.getKey() + " truncated: " + glidename +
-					" from " + oldSize + " to " + value.length();
-				if (warnOnTruncate)
-					logger.warn(message);
-				else
-					logger.debug(message);
-			}
-		}
-		if (logger.isTraceEnabled()) {
-			int len = (value == null ? 0 : value.length());
-			logger.trace("bind (" + bindCol + "/" + sqltype + ") " + 
-			  glidename + "=" + value + " [" + len + "]");
-		}
-		assert value != null;
-		switch (sqltype) {
-		case Types.DATE :
-			DateTime dt;
-			try {
-				dt = new DateTime(value);
-				java.sql.Date sqldate = new java.sql.Date(dt.getMillisec());
-				stmt.setDate(bindCol, sqldate, dbCalendar);
-			}
-			catch (InvalidDateTimeException e) {
-				logger.warn(rec.getKey() + " date error: " +
-						glidename + "=" + value);
-				stmt.setDate(bindCol,  null);			
-			}
-			break;
-		case Types.TIMESTAMP :
-			// If the SQL type is TIMESTAMP, then try to bind the field to a java.sql.Timesetamp.
-			// Note that in Oracle the DATE fields have a java.sql type of TIMESTAMP.
-			DateTime ts;
-			try { 
-				ts = new DateTime(value);
-				java.sql.Timestamp sqlts = new java.sql.Timestamp(ts.getMillisec());
-				stmt.setTimestamp(bindCol, sqlts, dbCalendar);
-			}
-			catch (InvalidDateTimeException e) {
-				logger.warn(rec.getKey() + " timestamp error: " +
-						glidename + "=" + value);
-				stmt.setTimestamp(bindCol, null);				
-			}
-			break;
-		case Types.BOOLEAN :
-		case Types.BIT :
-			if (value.equals("1") || value.equalsIgnoreCase("true"))
-				stmt.setBoolean(bindCol, true);
-			else if (value.equals("0") || value.equalsIgnoreCase("false"))
-				stmt.setBoolean(bindCol,  false);
-			else {
-				logger.warn(rec.getKey() + "boolean error: " +
-						glidename + "=" + value);
-				stmt.setNull(bindCol, sqltype);
-			}
-			break;
-		case Types.TINYINT :
-			stmt.setByte(bindCol, Byte.parseByte(value));
-			break;
-		case Types.SMALLINT :
-			stmt.setShort(bindCol, Short.parseShort(value));
-			break;
-		case Types.INTEGER :
-			// This is a workaround for the fact that ServiceNow includes decimal portions
-			// in integer fields, which can cause JDBC to choke.
-			int p = value.indexOf('.');
-			if (p > -1) {
-				String message = rec.getKey() + " decimal truncated: " +
-						glidename + "=" + value;
-				if (warnOnTruncate)
-					logger.warn(message);
-				else
-					logger.debug(message);
-				value = value.substring(0,  p);
-			}
-			if (value == "") value = "0";
-			stmt.setInt(bindCol, Integer.parseInt(value));
-			break;
-		case Types.DOUBLE :
-		case Types.FLOAT :
-		case Types.NUMERIC :
-		case Types.DECIMAL :
-			stmt.setDouble(bindCol, Double.parseDouble(value));
-			break;
-		default :
-			stmt.setString(bindCol, value);
+	private FieldBinder[] createBinders() {
+		FieldBinder[] result = new FieldBinder[columns.size()];
+		String dialect = generator.getDialect();
+		for (int i = 0; i < result.length; ++i) {
+			SqlFieldDefinition d = columns.get(i);
+			String xsdType = tableWSDL.getReadColumnType(d.getGlideName());
+			result[i] = FieldBinder.create(
+				d, xsdType, dialect, dbCalendar, logger, warnOnTruncate);
+			if (logger.isDebugEnabled())
+				logger.debug(d.getName() + " xsd=" + xsdType + 
+					" binder=" + result[i].getClass().getSimpleName());
 		}
+		return result;
 	}
 
 	/**
@@ -440,6 +333,17 @@ public class DatabaseTableWriter {
 		return sqlGenerator().getTemplate("update", sqlTableName, map);
 	}
 	
+	/**
+	 * Generate a statement which inserts a record or updates it if it exists,
+	 * or return null if the dialect has no upsert template.
+	 * The columns are bound in the same order as for an insert.
+	 */
+	String generateUpsert() throws SQLException {
+		List<String> names = new ArrayList<String>(columns.size());
+		for (SqlFieldDefinition column : columns) names.add(column.getName());
+		return sqlGenerator().getUpsert(sqlTableName, names);
+	}
+	
 	/**
 	 * Insert a record into the SQL database using a Glide Record as the source.
 	 * @param rec Data to be inserted.
@@ -448,8 +352,8 @@ public class DatabaseTableWriter {
 			throws SQLException, IOException, JDOMException {
 		String sys_id = rec.getKey().toString();
 		logger.debug("INSERT " + sys_id);
-		for (int i = 0; i < columns.size(); ++i) {
-			bindField(stmtInsert, i + 1, rec, i);
+		for (int i = 0; i < binders.length; ++i) {
+			binders[i].bindField(stmtInsert, i + 1, rec);
 		}
 		try {
 			stmtInsert.executeUpdate();
@@ -460,14 +364,14 @@ public class DatabaseTableWriter {
 		}
 	}
 
-	int insertBatch(RecordList recs) 
+	int insertBatch(List<Record> recs) 
 			throws SQLException, IOException, JDOMException {
 		stmtInsert.clearBatch();
 		for (Record rec : recs) {
 			String sys_id = rec.getKey().toString();
 			logger.debug("INSERT " + sys_id);
-			for (int i = 0; i < columns.size(); ++i) {
-				bindField(stmtInsert, i + 1, rec, i);
+			for (int i = 0; i < binders.length; ++i) {
+				binders[i].bindField(stmtInsert, i + 1, rec);
 			}
 			try {
 				stmtInsert.addBatch();
@@ -481,31 +385,185 @@ public class DatabaseTableWriter {
 		try {
 			 results = stmtInsert.executeBatch();
 		} catch (BatchUpdateException e) {
-			results = e.getUpdateCounts();
-			StringBuffer msg = new StringBuffer("BatchUpdateException\n");
-			// Display the sys_id of all records (successful and unsuccessful)
-			for (int i = 0; i < recs.size(); ++i) {
-				msg.append(i + ": " + recs.get(i).getKey());
-				if (i < results.length)
-					msg.append(" result=" + results[i]);
-				msg.append("\n");
+			logBatchException(recs, e.getUpdateCounts(), e);
+			throw e;
+		}
+		return results.length;
+	}
+	
+	
+	/**
+	 * Insert a list of records using the native bulk load path
+	 * of the driver (see {@link BulkLoader}).
+	 */
+	int bulkLoad(List<Record> recs) throws SQLException {
+		int count;
+		try {
+			count = bulkLoader.load(recs);
+		}
+		catch (SQLException e) {
+			logger.error("bulk load failed size=" + recs.size() + 
+				" first=" + recs.get(0).getKey(), e);
+			throw e;
+		}
+		if (count != recs.size())
+			throw new AssertionError(
+				"bulk load size=" + recs.size() + " rows=" + count);
+		logger.debug("bulkLoad size=" + recs.size());
+		return count;
+	}
+	
+	/**
+	 * Update a list of records using a single batch,
+	 * then insert the records which were not found using a second batch.
+	 * <p/>
+	 * If the driver does not report the number of rows updated 
+	 * for a record (SUCCESS_NO_INFO) then that record is updated again 
+	 * by itself, and inserted if the update does not find it.
+	 */
+	void updateInsertBatch(List<Record> recs, Metrics metrics) 
+			throws SQLException, IOException, JDOMException {
+		int n = binders.length;
+		stmtUpdate.clearBatch();
+		for (Record rec : recs) {
+			// Skip column 0 which is the sys_id
+			for (int i = 1; i < n; ++i) {
+				binders[i].bindField(stmtUpdate, i, rec);
 			}
-			// Display the XML of the record that failed
-			// find the index of the record that failed
-			int badi = -1;
-			for (int b = 0; badi < 0 && b < results.length; ++b)
-				if (results[b] != 1) badi = b;
-			if (badi >= 0 && badi < recs.size()) {
-				Record badrec = recs.get(badi);
-				msg.append("Contents of record #" + badi + ":\n");
-				msg.append(badrec.getXML(true) + "\n");
+			// Bind sys_id to the last position
+			stmtUpdate.setString(n, rec.getKey().toString());
+			stmtUpdate.addBatch();
+		}
+		int[] results;
+		try {
+			results = stmtUpdate.executeBatch();
+		}
+		catch (BatchUpdateException e) {
+			logBatchException(recs, e.getUpdateCounts(), e);
+			throw e;
+		}
+		if (results.length != recs.size())
+			throw new AssertionError(
+				"update batch size=" + recs.size() + " results=" + results.length);
+		ArrayList<Record> misses = new ArrayList<Record>();
+		int updates = 0;
+		int unknown = 0;
+		for (int r = 0; r < results.length; ++r) {
+			Record rec = recs.get(r);
+			int count = results[r];
+			if (count == Statement.SUCCESS_NO_INFO) {
+				unknown += 1;
+				if (update(rec)) {
+					updates += 1;
+				}
+				else {
+					misses.add(rec);
+				}
 			}
-			logger.error(msg.toString(), e);
+			else if (count == 1) {
+				updates += 1;
+			}
+			else if (count == 0) {
+				misses.add(rec);
+			}
+			else {
+				throw new AssertionError(
+					"update count=" + count + " for " + rec.getKey());
+			}
+		}
+		metrics.incrementUpdates(updates);
+		if (misses.size() > 0) {
+			int inserts = insertBatch(misses);
+			metrics.incrementInserts(inserts);
+		}
+		logger.debug("updateInsertBatch size=" + recs.size() + 
+			" updates=" + updates + " inserts=" + misses.size() +
+			(unknown > 0 ? " no_info=" + unknown : ""));
+	}
+	
+	/**
+	 * Insert or update a record using the upsert template.
+	 */
+	void upsert(Record rec) 
+			throws SQLException, IOException, JDOMException {
+		logger.debug("UPSERT " + rec.getKey());
+		for (int i = 0; i < binders.length; ++i) {
+			binders[i].bindField(stmtUpsert, i + 1, rec);
+		}
+		try {
+			stmtUpsert.executeUpdate();
+		} catch (SQLException e) {
+			logFields(rec, "UPSERT");
+			logger.error(rec.getXML(true) + "\n" + sqlUpsert, e);
 			throw e;
 		}
+	}
+	
+	/**
+	 * Insert or update a list of records using a single batch.
+	 * <p/>
+	 * Most databases do not report whether an upsert inserted or updated
+	 * a row, so every record is counted as an update.
+	 */
+	int upsertBatch(List<Record> recs) 
+			throws SQLException, IOException, JDOMException {
+		stmtUpsert.clearBatch();
+		for (Record rec : recs) {
+			for (int i = 0; i < binders.length; ++i) {
+				binders[i].bindField(stmtUpsert, i + 1, rec);
+			}
+			stmtUpsert.addBatch();
+		}
+		int [] results;
+		try {
+			results = stmtUpsert.executeBatch();
+		} catch (BatchUpdateException e) {
+			logBatchException(recs, e.getUpdateCounts(), e);
+			throw e;
+		}
+		logger.debug("upsertBatch size=" + recs.size());
 		return results.length;
 	}
 	
+	/**
+	 * Return true if the dialect has an upsert template.
+	 */
+	boolean canUpsert() {
+		return stmtUpsert != null;
+	}
+	
+	/**
+	 * This procedure is called only if a batch fails.
+	 * It displays the sys_id of every record in the batch 
+	 * and the contents of the record that failed.
+	 */
+	private void logBatchException(List<Record> recs, int[] results, 
+			BatchUpdateException e) {
+		if (results == null) results = new int[0];
+		StringBuffer msg = new StringBuffer("BatchUpdateException\n");
+		// Display the sys_id of all records (successful and unsuccessful)
+		for (int i = 0; i < recs.size(); ++i) {
+			msg.append(i + ": " + recs.get(i).getKey());
+			if (i < results.length)
+				msg.append(" result=" + results[i]);
+			msg.append("\n");
+		}
+		// Display the XML of the record that failed
+		// find the index of the record that failed
+		// (drivers which stop at the first failure return fewer results)
+		int badi = results.length;
+		for (int b = 0; b < results.length; ++b)
+			if (results[b] == Statement.EXECUTE_FAILED) {
+				badi = b;
+				break;
+			}
+		if (badi >= 0 && badi < recs.size()) {
+			Record badrec = recs.get(badi);
+			msg.append("Contents of record #" + badi + ":\n");
+			msg.append(badrec.getXML(true) + "\n");
+		}
+		logger.error(msg.toString(), e);
+	}
 	
 	/**
 	 * Update a SQL table using a Record as input.
@@ -522,7 +580,7 @@ public class DatabaseTableWriter {
 		try {
 			// Skip column 0 which is the sys_id
 			for (int i = 1; i < n; ++i) {
-				bindField(stmtUpdate, i, rec, i);
+				binders[i].bindField(stmtUpdate, i, rec);
 			}
 			// Bind sys_id to the last position
 			stmtUpdate.setString(n, key.toString());
@@ -570,36 +628,53 @@ public class DatabaseTableWriter {
 		stmtReadTimestamp.setString(1, key.toString());
 		ResultSet rset = stmtReadTimestamp.executeQuery();
 		if (rset.next()) {
-			java.util.Date ts = rset.getDate(1);
-			result = new DateTime(ts);
+			java.sql.Timestamp ts = rset.getTimestamp(1, dbCalendar);
+			if (ts != null) result = new DateTime(ts.getTime());
 		}
 		rset.close();
 		return result;
 	}
 	
-	/*  This procedure is not used
-	 * 
-	@Deprecated
-	Map<RecordKey,DateTime> getTimestamps(RecordKeyList keys) throws SQLException {
-		StringBuilder keylist = new StringBuilder();
-		for (int i = 0; i < keys.size(); ++i) {
-			if (i > 0) keylist.append(",");
-			keylist.append("'" + keys.get(i).toString() + "'");
-		}
-		Map<String,String> myvars = new HashMap<String,String>();
-		myvars.put("keylist", keylist.toString());
-		String sql = generator.getTemplate("timestamps", sqlTableName, myvars);
-		Statement stmt = connection.createStatement();
-		ResultSet rset = stmt.executeQuery(sql);
-		HashMap<RecordKey, DateTime> result = new HashMap<RecordKey, DateTime>();
-		while (rset.next()) {
-			RecordKey key = new RecordKey(rset.getString(1));
-			DateTime updated = new DateTime(rset.getTimestamp(2));
-			result.put(key, updated);
+	/**
+	 * Compare the timestamps of a list of records with the SQL table
+	 * using one query per {@link SqlGenerator#maxInList()} records.
+	 * New records are inserted; changed records are updated.
+	 */
+	void compareTimestampsBatch(List<Record> recs, Metrics metrics) 
+			throws SQLException, IOException, JDOMException {
+		List<Key> keys = new ArrayList<Key>(recs.size());
+		for (Record rec : recs) keys.add(rec.getKey());
+		Map<Key,DateTime> stored = keyLists.getTimestamps(keys);
+		ArrayList<Record> inserts = new ArrayList<Record>();
+		ArrayList<Record> updates = new ArrayList<Record>();
+		int unchanged = 0;
+		for (Record rec : recs) {
+			Key key = rec.getKey();
+			if (!stored.containsKey(key)) {
+				inserts.add(rec);
+				continue;
+			}
+			DateTime tsDB = stored.get(key);
+			DateTime tsRec = rec.getUpdatedTimestamp();
+			if (tsDB == null || tsRec.compareTo(tsDB) > 0)
+				updates.add(rec);
+			else
+				unchanged += 1;
 		}
-		return result;
+		metrics.incrementUnchanged(unchanged);
+		if (updates.size() > 0) {
+			// a record deleted since the query will be inserted
+			updateInsertBatch(updates, metrics);
+		}
+		if (inserts.size() > 0) {
+			int count = insertBatch(inserts);
+			metrics.incrementInserts(count);
+		}
+		logger.debug("compareTimestampsBatch size=" + recs.size() + 
+			" inserts=" + inserts.size() + " updates=" + updates.size() + 
+			" unchanged=" + unchanged);
 	}
-	*/
+	
 	
 	private void processRecord(Record rec, LoadMethod method, Metrics metrics) 
 			throws IOException, JDOMException, SQLException {
@@ -623,6 +698,11 @@ public class DatabaseTableWriter {
 				action = "insert";
 			}
 			break;
+		case UPSERT :
+			this.upsert(rec);
+			metrics.incrementUpdates();
+			action = "upsert";
+			break;
 		case COMPARE_TIMESTAMPS : 
 			DateTime tsDB = getTimestamp(key);
 			if (tsDB == null) {
@@ -648,21 +728,161 @@ public class DatabaseTableWriter {
 			logger.trace(key + " " + tsRec + " " + action);		
 	}
 	
-	int processRecordSet(RecordList data, LoadMethod method, Metrics metrics) 
+	/**
+	 * Write a list of records and commit if the {@link CommitPolicy} is due.
+	 * The metrics are updated only when the records are committed.
+	 * 
+	 * @return The number of records committed, 
+	 * which is zero if there was no commit
+	 */
+	int processRecordSet(List<Record> data, LoadMethod method, Metrics metrics) 
+			throws SuiteExecException {
+		int count = writeRecordSet(data, method, commitPolicy.pending());
+		commitPolicy.written(count, 
+			commitPolicy.measuresBytes() ? estimateBytes(data) : 0);
+		return commitPolicy.isDue() ? flush(metrics) : 0;
+	}
+	
+	/**
+	 * Return true if records are written one at a time by this load method,
+	 * so that they can be written as they are received from the instance
+	 * by {@link #processChunk}.
+	 * Batch inserts, batch updates and bulk loads need the whole chunk.
+	 */
+	boolean canStream(LoadMethod method) {
+		method = writeMethod(method);
+		switch (method) {
+		case INSERT_ONLY :
+			return bulkLoader == null && !database.batchInserts();
+		case COMPARE_TIMESTAMPS :
+			return !(database.batchUpdates() && generator.hasTemplate("timestamps"));
+		default :
+			return !database.batchUpdates();
+		}
+	}
+
+	/**
+	 * Read the next chunk from a reader and write each record as soon as 
+	 * it has been parsed from the response, so that the chunk is never held
+	 * in memory. Commit if the {@link CommitPolicy} is due.
+	 * This must only be used if {@link #canStream} is true.
+	 * 
+	 * @return The number of records committed, 
+	 * which is zero if there was no commit
+	 */
+	int processChunk(TableReader reader, LoadMethod method, Metrics metrics) 
+			throws IOException, InterruptedException, SuiteExecException {
+		final LoadMethod writeMethod = writeMethod(method);
+		final Metrics pending = commitPolicy.pending();
+		final boolean measuresBytes = commitPolicy.measuresBytes();
+		final long[] bytes = {0};
+		int count;
+		try {
+			count = reader.nextChunk(new RecordProcessor() {
+				public void processRecord(Record rec) throws IOException {
+					try {
+						DatabaseTableWriter.this.processRecord(rec, writeMethod, pending);
+					}
+					catch (SQLException e) {
+						throw new WriteException(e);
+					}
+					catch (JDOMException e) {
+						throw new WriteException(e);
+					}
+					if (measuresBytes) bytes[0] += estimateBytes(rec);
+				}
+			});
+		}
+		catch (WriteException e) {
+			throw new SuiteExecException(e.getCause());
+		}
+		commitPolicy.written(count, bytes[0]);
+		return commitPolicy.isDue() ? flush(metrics) : 0;
+	}
+
+	/**
+	 * Carries a database error out of a {@link RecordProcessor},
+	 * which may only throw IOException.
+	 */
+	@SuppressWarnings("serial")
+	private static class WriteException extends IOException {
+		WriteException(Exception cause) {
+			super(cause);
+		}
+	}
+
+	/**
+	 * Commit any records which have been written but not committed
+	 * and update the metrics.
+	 * 
+	 * @return The number of records committed
+	 */
+	int flush(Metrics metrics) throws SuiteExecException {
+		try {
+			database.commit();
+		}
+		catch (SQLException e) {
+			throw new SuiteExecException(e);
+		}
+		return commitPolicy.committed(metrics);
+	}
+	
+	/**
+	 * Estimate the number of bytes in a list of records
+	 * from the length of the field values.
+	 */
+	long estimateBytes(List<Record> data) {
+		long result = 0;
+		for (Record rec : data) result += estimateBytes(rec);
+		return result;
+	}
+
+	long estimateBytes(Record rec) {
+		long result = 0;
+		for (SqlFieldDefinition d : columns) {
+			String value = rec.getField(d.getGlideName(), false);
+			if (value != null) result += value.length();
+		}
+		return result;
+	}
+	
+	/**
+	 * Write a list of records without committing.
+	 * The caller must commit and then update the published count.
+	 * @return The number of records processed
+	 */
+	int writeRecordSet(List<Record> data, LoadMethod method, Metrics metrics) 
 			throws SuiteExecException {
 		int count = 0;
+		method = writeMethod(method);
 		try {
-			if (method.equals(LoadMethod.INSERT_ONLY) && database.batchInserts()) {
+			if (method.equals(LoadMethod.INSERT_ONLY) && bulkLoader != null) {
+				count = bulkLoad(data);
+				metrics.incrementInserts(count);
+			}
+			else if (method.equals(LoadMethod.INSERT_ONLY) && database.batchInserts()) {
 				count = insertBatch(data);
 				metrics.incrementInserts(count);
 			}
+			else if (method.equals(LoadMethod.UPDATE_INSERT) && database.batchUpdates()) {
+				updateInsertBatch(data, metrics);
+				count = data.size();
+			}
+			else if (method.equals(LoadMethod.COMPARE_TIMESTAMPS) && 
+					database.batchUpdates() && generator.hasTemplate("timestamps")) {
+				compareTimestampsBatch(data, metrics);
+				count = data.size();
+			}
+			else if (method.equals(LoadMethod.UPSERT) && database.batchUpdates()) {
+				count = upsertBatch(data);
+				metrics.incrementUpdates(count);
+			}
 			else {
 				for (Record rec : data) {
 					processRecord(rec, method, metrics);
 					++count;
 				}
 			}
-			database.commit();
 		}
 		catch (SQLException e) {
 			throw new SuiteExecException(e);
@@ -673,26 +893,53 @@ public class DatabaseTableWriter {
 		catch (JDOMException e) { 
 			throw new SuiteExecException(e); 
 		}
-		metrics.incrementPublished(count);
 		return count;
 	}
 	
+	/**
+	 * Return the load method which is used to write the records,
+	 * which is UPDATE_INSERT for UPSERT if the dialect has no upsert template.
+	 */
+	private LoadMethod writeMethod(LoadMethod method) {
+		if (method.equals(LoadMethod.UPSERT) && !canUpsert()) {
+			if (!upsertWarned) {
+				logger.warn("no upsert template for dialect " + 
+					generator.getDialect() + "; using update-insert");
+				upsertWarned = true;
+			}
+			return LoadMethod.UPDATE_INSERT;
+		}
+		return method;
+	}
+	
+	/**
+	 * Delete a list of records and commit if the {@link CommitPolicy} is due.
+	 * 
+	 * @return The number of records deleted and committed,
+	 * which is zero if there was no commit
+	 */
 	int deleteRecords(KeyList keys, Metrics metrics) throws SuiteExecException {
+		Metrics pending = commitPolicy.pending();
 		int count = 0;
 		try {
-			for (Key key : keys) {
-				if (deleteRecord(key)) {
-					metrics.incrementDeletes();
-					count += 1;
+			if (generator.hasTemplate("deletes")) {
+				count = keyLists.deleteBatch(keys, pending);
+			}
+			else {
+				for (Key key : keys) {
+					if (deleteRecord(key)) {
+						pending.incrementDeletes();
+						count += 1;
+					}
 				}
 			}
-			database.commit();
 		}
 		catch (SQLException e) {
 			throw new SuiteExecException(e);
 		}
-		metrics.incrementPublished(count);
-		return count;
+		// a sys_id is 32 bytes
+		commitPolicy.written(count, 32L * keys.size());
+		return commitPolicy.isDue() ? flush(metrics) : 0;
 	}
 	
 	void commit() throws SQLException {
@@ -3,9 +3,12 @@ package servicenow.common.datamart;
 import java.util.*;
 import java.io.*;
 import java.sql.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 
+import servicenow.common.datamart.CommitPolicy;
+import servicenow.common.datamart.ConnectionPool;
 import servicenow.common.datamart.DatabaseTableWriter;
 import servicenow.common.datamart.DatabaseWriter;
 import servicenow.common.datamart.DatamartConfiguration;
@@ -15,24 +18,51 @@ import servicenow.common.datamart.ResourceManager;
 import servicenow.common.datamart.SqlGenerator;
 import servicenow.common.datamart.SuiteInitException;
 import servicenow.common.soap.Table;
+import servicenow.common.soap.TableConfiguration;
 
 /**
  * Contains the JDBC connection for an SQL database. 
  *
  * Initialization statements from sqltemplates.xml are 
  * executed immediately upon opening the connection.
+ * <p/>
+ * If <b>pool_size</b> is set then the connection is borrowed from a
+ * {@link ConnectionPool} and returned to the pool when the writer is closed.
+ * The initialization statements are not executed again when
+ * a connection is reused.
+ * <p/>
+ * Each {@link DatabaseTableWriter} is cached with its connection,
+ * so that a suite which runs again on the same connection
+ * does not read the metadata or prepare the statements again.
+ * The cached writers for a table are discarded when the table is
+ * created, dropped or swapped, and all cached writers are discarded
+ * when an SQL job is run or the connection is rolled back
+ * (which happens when a job fails).
+ * Since the change may have been made on another connection, 
+ * each of these operations also increments a generation number
+ * (one for each pool, and one for all connections which are not pooled),
+ * and the cached writers of a connection are discarded before they are
+ * used if the generation number has changed.
  */
 public class DatabaseWriter {
 
 	private final DatamartConfiguration config;
 	private SqlGenerator generator;
 	private Connection dbc;
+	private ConnectionPool pool;
+	private ConnectionPool.Lease lease;
+	private Map<String,DatabaseTableWriter> tableWriters;
+	// generation for connections which are not pooled; see ConnectionPool.generation
+	private static final AtomicLong unpooledGeneration = new AtomicLong(0);
+	private long generation = 0;
 	DatabaseMetaData meta;
 	private String schema;
 	private String timezoneName;
 	private Calendar calendar;
 	private boolean autoCreate;
 	private boolean batchInserts;
+	private Boolean batchUpdates;
+	private boolean bulkLoad;
 
 	static final Logger logger = LoggerFactory.getLogger(DatabaseWriter.class);
 		
@@ -45,7 +75,15 @@ public class DatabaseWriter {
 	void open() throws ResourceException {
 		if (dbc != null) return;
 		try {
-			dbc = ResourceManager.getNewConnection(config);
+			pool = ResourceManager.getConnectionPool(config);
+			if (pool == null) 
+				dbc = ResourceManager.getNewConnection(config);
+			else {
+				lease = pool.borrow();
+				dbc = lease.connection;
+			}
+			tableWriters = (lease == null) ? 
+				new HashMap<String,DatabaseTableWriter>() : lease.tableWriters;
 			meta = dbc.getMetaData();
 			assert dbc != null;
 			String dbProductName = meta.getDatabaseProductName();
@@ -55,6 +93,9 @@ public class DatabaseWriter {
 			timezoneName = config.getString("timezone", "GMT");
 			calendar = Calendar.getInstance(TimeZone.getTimeZone(timezoneName));
 			batchInserts = config.getBoolean("batch_inserts",  false);			
+			// default is determined by the driver
+			batchUpdates = config.getBoolean("batch_updates", null);
+			bulkLoad = config.getBoolean("bulk_load", false);
 			schema = config.getString("schema");
 			if (schema == null) 
 				schema = "";
@@ -77,10 +118,17 @@ public class DatabaseWriter {
 			logger.info("autocreate=" + autoCreate); 
 			logger.info("batch_inserts=" + batchInserts);
 			initialize();
+			logger.info("batch_updates=" + batchUpdates);
+			logger.info("bulk_load=" + bulkLoad);
 		}
 		catch (SQLException e) {
+			close();
 			throw new ResourceException(e);
 		}
+		catch (RuntimeException e) {
+			close();
+			throw e;
+		}
 	}
 	
 	protected void finalize() throws Throwable {
@@ -90,11 +138,19 @@ public class DatabaseWriter {
 	
 	void close() {
 		if (dbc == null) return;
-		logger.info("close database connection");
-		try {
-			dbc.close();
-		} catch (SQLException e) {
-			logger.warn("failed to close database connection", e);
+		if (lease != null) {
+			logger.debug("return database connection to pool");
+			pool.release(lease);
+			lease = null;
+		}
+		else {
+			logger.info("close database connection");
+			clearTableWriters();
+			try {
+				dbc.close();
+			} catch (SQLException e) {
+				logger.warn("failed to close database connection", e);
+			}
 		}
 		dbc = null;
 	}
@@ -106,16 +162,19 @@ public class DatabaseWriter {
 	 * Set the date format to YYYY-MM-DD
 	 */
 	private void initialize() throws SQLException {
-		dbc.setAutoCommit(false);
-		Statement stmt = dbc.createStatement();
-		Iterator<String> iter = generator.getInitializations().listIterator();
-		while (iter.hasNext()) {
-			String sql = iter.next();
-			logger.info(sql);
-			stmt.execute(sql);
+		if (lease == null || !lease.initialized) {
+			dbc.setAutoCommit(false);
+			Statement stmt = dbc.createStatement();
+			Iterator<String> iter = generator.getInitializations().listIterator();
+			while (iter.hasNext()) {
+				String sql = iter.next();
+				logger.info(sql);
+				stmt.execute(sql);
+			}
+			stmt.close();
+			dbc.commit();
+			if (lease != null) lease.initialized = true;
 		}
-		stmt.close();
-		dbc.commit();
 		if (batchInserts) {
 			if (!meta.supportsBatchUpdates()) {
 				logger.warn("batch inserts not supported");
@@ -123,6 +182,13 @@ public class DatabaseWriter {
 			}
 		}
 		logger.debug("batch_inserts=" + batchInserts);
+		if (batchUpdates == null) {
+			batchUpdates = meta.supportsBatchUpdates();
+		}
+		else if (batchUpdates && !meta.supportsBatchUpdates()) {
+			logger.warn("batch updates not supported");
+			batchUpdates = false;
+		}
 	}
 	
 	Connection getConnection() {
@@ -138,7 +204,15 @@ public class DatabaseWriter {
 		if (sqlTableName == null || sqlTableName.length() == 0) 
 			sqlTableName = table.getName();
 		sqlTableName = generator.sqlCase(sqlTableName);
-		DatabaseTableWriter writer;
+		String key = tableWriterKey(sqlTableName, displayValues);
+		checkGeneration();
+		DatabaseTableWriter writer = tableWriters.get(key);
+		if (writer != null && writer.getTable().getName().equals(table.getName())) {
+			logger.debug("reuse table writer " + key);
+			writer.reuse(this, table);
+			return writer;
+		}
+		if (writer != null) invalidateTableWriters(sqlTableName);
 		try {
 			writer = new DatabaseTableWriter(
 				this, table, sqlTableName, displayValues);
@@ -147,15 +221,93 @@ public class DatabaseWriter {
 		} catch (IOException e) {
 			throw new SuiteInitException(e);
 		}
+		tableWriters.put(key, writer);
 		return writer;
 	}
 	
+	private String tableWriterKey(String sqlTableName, boolean displayValues) {
+		return generator.sqlCase(sqlTableName) + (displayValues ? " dv" : "");
+	}
+	
+	/**
+	 * Return true if there is a cached writer for a table,
+	 * which means that the table is known to exist.
+	 */
+	boolean hasTableWriter(String sqlTableName) {
+		checkGeneration();
+		return tableWriters.containsKey(tableWriterKey(sqlTableName, false)) ||
+			tableWriters.containsKey(tableWriterKey(sqlTableName, true));
+	}
+	
+	/**
+	 * Discard the cached writers for a table 
+	 * because the table has been changed.
+	 */
+	void invalidateTableWriters(String sqlTableName) {
+		for (boolean displayValues : new boolean[] {false, true}) {
+			DatabaseTableWriter writer = 
+				tableWriters.remove(tableWriterKey(sqlTableName, displayValues));
+			if (writer != null) {
+				logger.debug("invalidate table writer " + sqlTableName);
+				writer.close();
+			}
+		}
+	}
+	
+	private AtomicLong generationCounter() {
+		return (pool == null) ? unpooledGeneration : pool.generation;
+	}
+
+	/**
+	 * Record that a table may have been changed, so that the writers
+	 * cached with other connections are discarded before they are used.
+	 * Called after the change is made.
+	 */
+	private void nextGeneration() {
+		generationCounter().incrementAndGet();
+	}
+
+	/**
+	 * Discard all cached writers if a table has been changed,
+	 * on this or any other connection, since the last check.
+	 */
+	private void checkGeneration() {
+		long current = generationCounter().get();
+		long seen = (lease == null) ? generation : lease.generation;
+		if (seen == current) return;
+		if (!tableWriters.isEmpty()) {
+			logger.debug("tables changed; discard cached table writers");
+			clearTableWriters();
+		}
+		if (lease == null) generation = current; else lease.generation = current;
+	}
+
+	/**
+	 * Discard all cached writers.
+	 */
+	void clearTableWriters() {
+		for (DatabaseTableWriter writer : tableWriters.values())
+			writer.close();
+		tableWriters.clear();
+	}
+	
+	/**
+	 * Create the commit policy for a table from the properties
+	 * commit_rows, commit_mb and commit_seconds, 
+	 * which may be set for the database or for the table.
+	 */
+	CommitPolicy newCommitPolicy(Table table) {
+		return new CommitPolicy(new TableConfiguration(config, table.getName()));
+	}
+	
 	void commit() throws SQLException {
 		logger.debug("commit");
 		dbc.commit();
 	}
 	
 	void rollback() {
+		// the failure may have been caused by a change to a table
+		clearTableWriters();
 		try {
 			dbc.rollback();
 		} catch (SQLException e) {
@@ -168,6 +320,8 @@ public class DatabaseWriter {
 	Calendar getCalendar() { return this.calendar; }
 	boolean autoCreate() { return this.autoCreate; }
 	boolean batchInserts() { return this.batchInserts; }
+	boolean batchUpdates() { return this.batchUpdates; }
+	boolean bulkLoad() { return this.bulkLoad; }
 
 	String sqlCase(String name) {
 		String result = name;
@@ -193,8 +347,15 @@ public class DatabaseWriter {
 	}
 
 	void executeSQL(String command) throws SQLException {
-		executeStatement(command);
-		commit();		
+		// the command may change any table
+		clearTableWriters();
+		try {
+			executeStatement(command);
+			commit();
+		}
+		finally {
+			nextGeneration();
+		}
 	}
 	
 	/**
@@ -219,28 +380,201 @@ public class DatabaseWriter {
 	void createMissingTargetTable(Table table, String sqlTableName,	boolean displayValues) 
 			throws SQLException, SuiteInitException {
 		if (!autoCreate) return;
+		if (hasTableWriter(sqlTableName)) return;
 		if (tableExists(sqlTableName)) return;
-		Statement stmt = dbc.createStatement();
-		String createSql = generator.getCreateTable(
-			table, sqlTableName, displayValues);
-		logger.info(createSql);
+		createTable(table, sqlTableName, displayValues);
+	}
+
+	/**
+	 * Create a table in the target database using the "create"
+	 * and "grant" templates.
+	 */
+	void createTable(Table table, String sqlTableName, boolean displayValues)
+			throws SQLException, SuiteInitException {
+		createTable(table, sqlTableName, displayValues, null);
+	}
+
+	/**
+	 * Create a table with a primary key constraint named <i>pkName</i>,
+	 * or with the default name if <i>pkName</i> is null.
+	 */
+	void createTable(Table table, String sqlTableName, boolean displayValues, String pkName)
+			throws SQLException, SuiteInitException {
+		invalidateTableWriters(sqlTableName);
 		try {
-			stmt.execute(createSql);
-		} catch (SQLException e) {
-			logger.error(createSql, e);
-			throw e;
-		}
-		String grantSql = sqlGenerator().getTemplate("grant", sqlTableName);
-		if (grantSql.length() > 0) {
-			logger.info(grantSql);
-			try { 
-				stmt.execute(grantSql);		
+			Statement stmt = dbc.createStatement();
+			String createSql = generator.getCreateTable(
+				table, sqlTableName, displayValues, pkName);
+			logger.info(createSql);
+			try {
+				stmt.execute(createSql);
 			} catch (SQLException e) {
-				logger.error(grantSql, e);
+				logger.error(createSql, e);
 				throw e;
 			}
+			String grantSql = sqlGenerator().getTemplate("grant", sqlTableName);
+			if (grantSql.length() > 0) {
+				logger.info(grantSql);
+				try { 
+					stmt.execute(grantSql);		
+				} catch (SQLException e) {
+					logger.error(grantSql, e);
+					throw e;
+				}
+			}
+			stmt.close();
+			commit();
+		}
+		finally {
+			nextGeneration();
+		}
+	}
+
+	/**
+	 * Return the name of the table which is loaded in place of
+	 * a table during a shadow load.
+	 */
+	String shadowTableName(String sqlTableName) {
+		return generator.sqlCase(sqlTableName + "_shadow");
+	}
+
+	/**
+	 * Create an empty shadow table for a shadow load,
+	 * dropping any shadow table left by an earlier load.
+	 * The shadow table has a primary key but no other indexes.
+	 * <p/>
+	 * Constraint names must be unique within a schema in some databases,
+	 * and the primary key keeps its name when the shadow table is renamed.
+	 * So the primary key of the shadow table is named by adding the suffix "_s" 
+	 * to the default name, or without the suffix if the table 
+	 * already has a primary key with that name.
+	 */
+	void createShadowTable(Table table, String sqlTableName, String shadowName, 
+			boolean displayValues) throws SQLException, SuiteInitException {
+		if (tableExists(shadowName)) dropTable(shadowName);
+		createTable(table, shadowName, displayValues, shadowPrimaryKeyName(sqlTableName));
+	}
+
+	/**
+	 * Return the name of the primary key constraint for the shadow table
+	 * of a table. See {@link #createShadowTable}.
+	 */
+	String shadowPrimaryKeyName(String sqlTableName) throws SQLException {
+		String pkName = generator.primaryKeyName(sqlTableName);
+		String altName = pkName + generator.sqlCase("_s");
+		String current = primaryKeyName(sqlTableName);
+		return pkName.equalsIgnoreCase(current) ? altName : pkName;
+	}
+
+	/**
+	 * Return the name of the primary key constraint of a table 
+	 * as reported by the JDBC driver, or null if the table has no primary key.
+	 */
+	String primaryKeyName(String sqlTableName) throws SQLException {
+		String result = null;
+		ResultSet rs = getConnection().getMetaData().getPrimaryKeys(
+			null, getSchema(), sqlCase(sqlTableName));
+		if (rs.next()) result = rs.getString(6);
+		rs.close();
+		return result;
+	}
+
+	void dropTable(String sqlTableName) throws SQLException {
+		invalidateTableWriters(sqlTableName);
+		try {
+			executeStatement(generator.getTemplate("drop", sqlTableName));
+			commit();
+		}
+		finally {
+			nextGeneration();
+		}
+	}
+
+	/**
+	 * Build the secondary indexes of a table on its shadow table,
+	 * exchange the two tables and drop the old table.
+	 * <p/>
+	 * The exchange uses the "swap" template if the dialect has one;
+	 * otherwise the tables are renamed by two "rename" statements 
+	 * in a single transaction.
+	 */
+	void swapShadowTable(String sqlTableName, String shadowName) 
+			throws SQLException {
+		invalidateTableWriters(sqlTableName);
+		invalidateTableWriters(shadowName);
+		copyIndexes(sqlTableName, shadowName);
+		String oldName = generator.sqlCase(sqlTableName + "_old");
+		if (tableExists(oldName)) dropTable(oldName);
+		try {
+			if (generator.hasTemplate("swap")) {
+				Map<String,String> vars = new HashMap<String,String>();
+				vars.put("shadowname", generator.sqlCase(shadowName));
+				vars.put("oldname", oldName);
+				executeStatement(generator.getTemplate("swap", sqlTableName, vars));
+			}
+			else {
+				executeStatement(renameTableSql(sqlTableName, oldName));
+				executeStatement(renameTableSql(shadowName, sqlTableName));
+			}
+			commit();
+		}
+		finally {
+			nextGeneration();
+		}
+		dropTable(oldName);
+	}
+
+	private String renameTableSql(String sqlTableName, String newName) {
+		Map<String,String> vars = new HashMap<String,String>();
+		vars.put("newname", generator.sqlCase(newName));
+		return generator.getTemplate("rename", sqlTableName, vars);
+	}
+
+	/**
+	 * Create indexes on a table which match the secondary indexes
+	 * of another table. An index on sys_id alone (the primary key) is skipped.
+	 * <p/>
+	 * Index names must be unique within a schema in some databases,
+	 * so each new index is named by adding the suffix "_s" to the old name,
+	 * or by removing it if it is already present.
+	 */
+	void copyIndexes(String fromTable, String toTable) throws SQLException {
+		Map<String,List<String>> indexes = new LinkedHashMap<String,List<String>>();
+		Set<String> unique = new HashSet<String>();
+		ResultSet rs = getConnection().getMetaData().getIndexInfo(
+			null, getSchema(), sqlCase(fromTable), false, false);
+		while (rs.next()) {
+			if (rs.getShort(7) == DatabaseMetaData.tableIndexStatistic) continue;
+			String indexName = rs.getString(6);
+			String columnName = rs.getString(9);
+			if (indexName == null || columnName == null) continue;
+			List<String> columns = indexes.get(indexName);
+			if (columns == null) {
+				columns = new ArrayList<String>();
+				indexes.put(indexName, columns);
+			}
+			columns.add(columnName);
+			if (!rs.getBoolean(4)) unique.add(indexName);
+		}
+		rs.close();
+		for (Map.Entry<String,List<String>> entry : indexes.entrySet()) {
+			String indexName = entry.getKey();
+			List<String> columns = entry.getValue();
+			if (columns.size() == 1 && columns.get(0).equalsIgnoreCase("sys_id")) 
+				continue;
+			String newName = indexName.toLowerCase().endsWith("_s") ?
+				indexName.substring(0, indexName.length() - 2) : indexName + generator.sqlCase("_s");
+			StringBuilder fieldnames = new StringBuilder();
+			for (String column : columns) {
+				if (fieldnames.length() > 0) fieldnames.append(",");
+				fieldnames.append(generator.sqlQuote(column));
+			}
+			Map<String,String> vars = new HashMap<String,String>();
+			vars.put("unique", unique.contains(indexName) ? "unique" : "");
+			vars.put("index", generator.sqlQuote(newName));
+			vars.put("fieldnames", fieldnames.toString());
+			executeStatement(generator.getTemplate("index", toTable, vars));
 		}
-		stmt.close();
 		commit();
 	}
 }
@@ -84,6 +84,8 @@ public class EphemeralJob extends JobModel {
     			method = LoadMethod.INSERT_ONLY;
     		else if (buffer.match("compare-timestamps"))
     			this.method = LoadMethod.COMPARE_TIMESTAMPS;
+    		else if (buffer.match("upsert"))
+    			this.method = LoadMethod.UPSERT;
     		else {
     			if (truncate) 
     				this.method = LoadMethod.INSERT_ONLY;
@@ -124,6 +126,8 @@ public class EphemeralJob extends JobModel {
 				sqlTableName = buffer.getToken();
 			if (buffer.match("dv") || buffer.match("display-values"))
 				displayValues = true;
+			if (buffer.match("upsert"))
+				this.method = LoadMethod.UPSERT;
 			if (buffer.match("since")) {
 				DateTime refreshSince = buffer.getDatePlus();
 				if (now.compareTo(refreshSince) < 0)
@@ -156,6 +160,8 @@ public class EphemeralJob extends JobModel {
 		}
 		else 
 			throw new SuiteParseException("Invalid operation: " + command);
+		if (buffer.match("order"))
+			this.order = Integer.valueOf(buffer.getToken());
 		buffer.verifyAtEnd();
 		this.status = Status.QUEUED;
     	// this.controller = new JobController(this);
@@ -165,14 +171,20 @@ public class EphemeralJob extends JobModel {
     /**
      * Set the status to Running, and advance the interval.
      */
-    synchronized void startRunning(DateTime runStart) throws SuiteModelException {
-    	logger.debug("startRunning " + runStart);
-		this.status = Status.RUNNING;
-		if (operation != JobOperation.LOAD) {
-			intervalStart = intervalEnd;
-			intervalEnd = runStart;
-		}
-		logger.debug("startRunning runStart=" + runStart + " start=" + intervalStart + " end=" + intervalEnd);
+    void startRunning(DateTime runStart) throws SuiteModelException {
+    	lock.lock();
+    	try {
+			logger.debug("startRunning " + runStart);
+			this.status = Status.RUNNING;
+			if (operation != JobOperation.LOAD) {
+				intervalStart = intervalEnd;
+				intervalEnd = runStart;
+			}
+			logger.debug("startRunning runStart=" + runStart + " start=" + intervalStart + " end=" + intervalEnd);
+    	}
+    	finally {
+    		lock.unlock();
+    	}
     }
 
     File getOutputFile() {
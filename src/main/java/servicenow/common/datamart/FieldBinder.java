@@ -0,0 +1,395 @@
+package servicenow.common.datamart;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Calendar;
+
+import org.slf4j.Logger;
+
+import servicenow.common.datamart.SqlFieldDefinition;
+import servicenow.common.soap.DateTime;
+import servicenow.common.soap.InvalidDateTimeException;
+import servicenow.common.soap.Key;
+import servicenow.common.soap.Record;
+
+/**
+ * This is a "private" class used by {@link DatabaseTableWriter}
+ * to bind one column of a prepared statement.
+ * <p/>
+ * A binder is created for each column when the table metadata is read.
+ * All decisions which depend only on the column
+ * (SQL type, WSDL type, size and dialect) are made at that time,
+ * so that binding a value is a single virtual call.
+ * <p/>
+ * Binding is done in two steps: {@link #convert(Key, String)} turns the
+ * XML value into a Java value (or null if it cannot be converted) and
+ * {@link #bind(PreparedStatement, int, Object)} passes it to JDBC.
+ */
+abstract class FieldBinder {
+
+	final SqlFieldDefinition defn;
+	final String glidename;
+	final int sqltype;
+	final Logger logger;
+	final boolean warnOnTruncate;
+
+	private FieldBinder(SqlFieldDefinition defn, Logger logger, boolean warnOnTruncate) {
+		this.defn = defn;
+		this.glidename = defn.getGlideName();
+		this.sqltype = defn.getType();
+		this.logger = logger;
+		this.warnOnTruncate = warnOnTruncate;
+	}
+
+	/**
+	 * Create the binder for a column.
+	 *
+	 * @param xsdType Type of the field in the WSDL (e.g. "string" or "integer"),
+	 * which is used to determine if a numeric column may contain a duration.
+	 * @param dialect SQL dialect from the templates.
+	 * @param dbCalendar Calendar used to bind dates and timestamps.
+	 */
+	static FieldBinder create(SqlFieldDefinition defn, String xsdType, String dialect,
+			Calendar dbCalendar, Logger logger, boolean warnOnTruncate) {
+		// A numeric column which is not numeric in the WSDL
+		// is assumed to hold a duration (stored as a datetime)
+		boolean durations = !isNumeric(xsdType);
+		switch (defn.getType()) {
+		case Types.VARCHAR :
+		case Types.CHAR :
+			// This is a workaround for an apparent bug in the Oracle JDBC
+			// driver which occasionally generates an ORA-01461 error when
+			// inserting from a text field containing multi-byte characters
+			// into a VARCHAR2 column.
+			boolean limitBytes = "oracle2".equals(dialect);
+			return new VarcharBinder(defn, limitBytes, logger, warnOnTruncate);
+		case Types.DATE :
+			return new DateBinder(defn, dbCalendar, logger, warnOnTruncate);
+		case Types.TIMESTAMP :
+			// Note that in Oracle the DATE fields have a java.sql type of TIMESTAMP.
+			return new TimestampBinder(defn, dbCalendar, logger, warnOnTruncate);
+		case Types.BOOLEAN :
+		case Types.BIT :
+			return new BooleanBinder(defn, logger, warnOnTruncate);
+		case Types.TINYINT :
+			return new ByteBinder(defn, logger, warnOnTruncate);
+		case Types.SMALLINT :
+			return new ShortBinder(defn, logger, warnOnTruncate);
+		case Types.INTEGER :
+			return new IntegerBinder(defn, durations, logger, warnOnTruncate);
+		case Types.DOUBLE :
+		case Types.NUMERIC :
+		case Types.DECIMAL :
+			return new DoubleBinder(defn, durations, logger, warnOnTruncate);
+		case Types.FLOAT :
+			return new DoubleBinder(defn, false, logger, warnOnTruncate);
+		default :
+			return new StringBinder(defn, logger, warnOnTruncate);
+		}
+	}
+
+	static boolean isNumeric(String xsdType) {
+		if (xsdType == null) return false;
+		return xsdType.equals("integer") || xsdType.equals("int") ||
+			xsdType.equals("long") || xsdType.equals("decimal") ||
+			xsdType.equals("float") || xsdType.equals("double");
+	}
+
+	/**
+	 * Get the value of this column from a record and bind it to a statement.
+	 */
+	final void bindField(PreparedStatement stmt, int bindCol, Record rec)
+			throws SQLException {
+		Object converted = getValue(rec);
+		if (logger.isTraceEnabled())
+			logger.trace("bind (" + bindCol + "/" + sqltype + ") " +
+				glidename + "=" + converted);
+		if (converted == null)
+			stmt.setNull(bindCol, sqltype);
+		else
+			bind(stmt, bindCol, converted);
+	}
+
+	/**
+	 * Get the value of this column from a record and convert it.
+	 * @return The converted value, or null if the column should be null.
+	 */
+	final Object getValue(Record rec) {
+		String value = rec.getField(glidename, false);
+		return (value == null) ? null : convert(rec.getKey(), value);
+	}
+
+	/**
+	 * Convert a non-null value from the XML.
+	 * @return The value to be bound, or null if the column should be null.
+	 */
+	abstract Object convert(Key key, String value);
+
+	/**
+	 * Bind a non-null value returned by {@link #convert(Key, String)}.
+	 */
+	abstract void bind(PreparedStatement stmt, int bindCol, Object value)
+			throws SQLException;
+
+	/**
+	 * The {@link Types} of the values returned by {@link #convert(Key, String)},
+	 * which is not necessarily the type of the column.
+	 */
+	abstract int valueType();
+
+	void warn(String message) {
+		if (warnOnTruncate)
+			logger.warn(message);
+		else
+			logger.debug(message);
+	}
+
+	/**
+	 * Return true if a value has the shape "yyyy-mm-dd hh:mm:ss".
+	 * The digits are checked when the value is parsed.
+	 */
+	static boolean looksLikeDateTime(String value) {
+		return value.length() == DateTime.DATE_TIME &&
+			value.charAt(4) == '-' && value.charAt(10) == ' ';
+	}
+
+	/**
+	 * Convert a duration to a number of seconds, or return null
+	 * if it is not valid or out of range.
+	 */
+	Long durationSeconds(Key key, String value) {
+		long seconds;
+		try {
+			seconds = DateTime.parseMillis(value, DateTime.DATE_TIME) / 1000L;
+		}
+		catch (InvalidDateTimeException e) {
+			logger.warn(key + " duration error: " + glidename + "=" + value);
+			return null;
+		}
+		if (logger.isTraceEnabled())
+			logger.trace(glidename + " " + value + "=" + seconds);
+		if (seconds < 0L) {
+			logger.warn(key + " duration underflow: " + glidename + "=" + value);
+			return null;
+		}
+		if (seconds > 999999999L) {
+			logger.warn(key + " duration overflow: " + glidename + "=" + value);
+			return null;
+		}
+		return Long.valueOf(seconds);
+	}
+
+	/**
+	 * Returns the number of leading characters of a string
+	 * which fit in the specified number of UTF-8 bytes.
+	 * A surrogate pair is never divided.
+	 */
+	static int utf8Prefix(String value, int maxBytes) {
+		int bytes = 0;
+		int len = value.length();
+		int i = 0;
+		while (i < len) {
+			char c = value.charAt(i);
+			int chars = 1;
+			int size;
+			if (c < 0x80) size = 1;
+			else if (c < 0x800) size = 2;
+			else if (Character.isHighSurrogate(c) && i + 1 < len &&
+					Character.isLowSurrogate(value.charAt(i + 1))) {
+				size = 4;
+				chars = 2;
+			}
+			else size = 3;
+			if (bytes + size > maxBytes) break;
+			bytes += size;
+			i += chars;
+		}
+		return i;
+	}
+
+	static class StringBinder extends FieldBinder {
+		StringBinder(SqlFieldDefinition defn, Logger logger, boolean warn) {
+			super(defn, logger, warn);
+		}
+		Object convert(Key key, String value) {
+			return value;
+		}
+		void bind(PreparedStatement stmt, int bindCol, Object value) throws SQLException {
+			stmt.setString(bindCol, (String) value);
+		}
+		int valueType() {
+			return Types.NVARCHAR;
+		}
+	}
+
+	/**
+	 * Truncates values which are longer than the column.
+	 */
+	static class VarcharBinder extends StringBinder {
+		final int maxSize;
+		final boolean limitBytes;
+		VarcharBinder(SqlFieldDefinition defn, boolean limitBytes, Logger logger, boolean warn) {
+			super(defn, logger, warn);
+			this.maxSize = defn.getSize();
+			this.limitBytes = limitBytes;
+		}
+		Object convert(Key key, String value) {
+			int oldSize = value.length();
+			int newSize = Math.min(oldSize, maxSize);
+			// each character is at least one byte
+			if (limitBytes && newSize > 0)
+				newSize = utf8Prefix(value, maxSize);
+			if (newSize == oldSize) return value;
+			warn(key + " truncated: " + glidename + " from " + oldSize + " to " + newSize);
+			return value.substring(0, newSize);
+		}
+	}
+
+	static class DateBinder extends FieldBinder {
+		final Calendar dbCalendar;
+		DateBinder(SqlFieldDefinition defn, Calendar dbCalendar, Logger logger, boolean warn) {
+			super(defn, logger, warn);
+			this.dbCalendar = dbCalendar;
+		}
+		Object convert(Key key, String value) {
+			try {
+				return new java.sql.Date(DateTime.parseMillis(value));
+			}
+			catch (InvalidDateTimeException e) {
+				logger.warn(key + " date error: " + glidename + "=" + value);
+				return null;
+			}
+		}
+		void bind(PreparedStatement stmt, int bindCol, Object value) throws SQLException {
+			stmt.setDate(bindCol, (java.sql.Date) value, dbCalendar);
+		}
+		int valueType() {
+			return Types.DATE;
+		}
+	}
+
+	static class TimestampBinder extends FieldBinder {
+		final Calendar dbCalendar;
+		TimestampBinder(SqlFieldDefinition defn, Calendar dbCalendar, Logger logger, boolean warn) {
+			super(defn, logger, warn);
+			this.dbCalendar = dbCalendar;
+		}
+		Object convert(Key key, String value) {
+			try {
+				return new java.sql.Timestamp(DateTime.parseMillis(value));
+			}
+			catch (InvalidDateTimeException e) {
+				logger.warn(key + " timestamp error: " + glidename + "=" + value);
+				return null;
+			}
+		}
+		void bind(PreparedStatement stmt, int bindCol, Object value) throws SQLException {
+			stmt.setTimestamp(bindCol, (java.sql.Timestamp) value, dbCalendar);
+		}
+		int valueType() {
+			return Types.TIMESTAMP;
+		}
+	}
+
+	static class BooleanBinder extends FieldBinder {
+		BooleanBinder(SqlFieldDefinition defn, Logger logger, boolean warn) {
+			super(defn, logger, warn);
+		}
+		Object convert(Key key, String value) {
+			if (value.equals("1") || value.equalsIgnoreCase("true"))
+				return Boolean.TRUE;
+			if (value.equals("0") || value.equalsIgnoreCase("false"))
+				return Boolean.FALSE;
+			logger.warn(key + " boolean error: " + glidename + "=" + value);
+			return null;
+		}
+		void bind(PreparedStatement stmt, int bindCol, Object value) throws SQLException {
+			stmt.setBoolean(bindCol, ((Boolean) value).booleanValue());
+		}
+		int valueType() {
+			return Types.BIT;
+		}
+	}
+
+	static class ByteBinder extends FieldBinder {
+		ByteBinder(SqlFieldDefinition defn, Logger logger, boolean warn) {
+			super(defn, logger, warn);
+		}
+		Object convert(Key key, String value) {
+			return Byte.valueOf(value);
+		}
+		void bind(PreparedStatement stmt, int bindCol, Object value) throws SQLException {
+			stmt.setByte(bindCol, ((Byte) value).byteValue());
+		}
+		int valueType() {
+			return Types.TINYINT;
+		}
+	}
+
+	static class ShortBinder extends FieldBinder {
+		ShortBinder(SqlFieldDefinition defn, Logger logger, boolean warn) {
+			super(defn, logger, warn);
+		}
+		Object convert(Key key, String value) {
+			return Short.valueOf(value);
+		}
+		void bind(PreparedStatement stmt, int bindCol, Object value) throws SQLException {
+			stmt.setShort(bindCol, ((Short) value).shortValue());
+		}
+		int valueType() {
+			return Types.SMALLINT;
+		}
+	}
+
+	static class IntegerBinder extends FieldBinder {
+		final boolean durations;
+		IntegerBinder(SqlFieldDefinition defn, boolean durations, Logger logger, boolean warn) {
+			super(defn, logger, warn);
+			this.durations = durations;
+		}
+		Object convert(Key key, String value) {
+			if (durations && looksLikeDateTime(value)) {
+				Long seconds = durationSeconds(key, value);
+				return seconds == null ? null : Integer.valueOf(seconds.intValue());
+			}
+			// This is a workaround for the fact that ServiceNow includes decimal portions
+			// in integer fields, which can cause JDBC to choke.
+			int p = value.indexOf('.');
+			if (p > -1) {
+				warn(key + " decimal truncated: " + glidename + "=" + value);
+				value = value.substring(0, p);
+			}
+			if (value.length() == 0) return Integer.valueOf(0);
+			return Integer.valueOf(value);
+		}
+		void bind(PreparedStatement stmt, int bindCol, Object value) throws SQLException {
+			stmt.setInt(bindCol, ((Integer) value).intValue());
+		}
+		int valueType() {
+			return Types.INTEGER;
+		}
+	}
+
+	static class DoubleBinder extends FieldBinder {
+		final boolean durations;
+		DoubleBinder(SqlFieldDefinition defn, boolean durations, Logger logger, boolean warn) {
+			super(defn, logger, warn);
+			this.durations = durations;
+		}
+		Object convert(Key key, String value) {
+			if (durations && looksLikeDateTime(value)) {
+				Long seconds = durationSeconds(key, value);
+				return seconds == null ? null : Double.valueOf(seconds.doubleValue());
+			}
+			return Double.valueOf(value);
+		}
+		void bind(PreparedStatement stmt, int bindCol, Object value) throws SQLException {
+			stmt.setDouble(bindCol, ((Double) value).doubleValue());
+		}
+		int valueType() {
+			return Types.DOUBLE;
+		}
+	}
+
+}
@@ -119,12 +119,22 @@ public class JobController {
 	public void runJob(DateTime runStart, Status newStatus) 
 			throws InterruptedException, SuiteInitException, 
 				SuiteExecException, SuiteModelException {
+		runJob(runStart, newStatus, getSuiteController().getDatabaseWriter());
+	}
+	
+	/**
+	 * Run the job using a specific database connection.
+	 * Used when several jobs of a suite are run at the same time.
+	 */
+	void runJob(DateTime runStart, Status newStatus, DatabaseWriter database) 
+			throws InterruptedException, SuiteInitException, 
+				SuiteExecException, SuiteModelException {
 		MDC.put("job", jobName);
 		MDC.put("sqltable", sqlTableName);
 		MDC.put("operation", operation.name().toLowerCase());
 		MDC.put("table", table == null ? "" : table.getName());
 		MDC.put("start", runStart.toString());
-		database = getSuiteController().getDatabaseWriter();
+		this.database = database;
 		logger.debug("runJob start=" + runStart);
 		isResume = getStatus().equals(Status.RESUME);
 		if (isResume && isPersistent()) {
@@ -207,11 +217,25 @@ public class JobController {
 			metrics.clear();
 		}
 		assert published == metrics.recordsPublished();
-		DatabaseTableWriter writer = 
-			database.getTableWriter(table, sqlTableName, model.isDV());
-		if (model.isTruncate() && published == 0) 
+		// A shadow load fills an empty copy of the table
+		// which replaces the table when the load is finished
+		boolean shadow = model.isTruncate() && 
+			tableConfig.getBoolean("shadow_load", false);
+		String targetName = sqlTableName;
+		if (shadow) {
+			targetName = database.shadowTableName(sqlTableName);
+			if (published == 0)
+				database.createShadowTable(
+					table, sqlTableName, targetName, model.isDV());
+			else if (!database.tableExists(targetName))
+				throw new SuiteExecException("shadow table not found: " + targetName);
+		}
+		else if (model.isTruncate() && published == 0) {
+			DatabaseTableWriter writer = 
+				database.getTableWriter(table, sqlTableName, model.isDV());
 			writer.truncateTable();
-		BasicTableReader reader = table.reader();
+		}
+		BasicTableReader reader = newReader();
 		QueryFilter filter = new QueryFilter()
 			.addFilter(model.getBaseFilter())
 			.addFilter(model.getPartitionFilter())
@@ -220,9 +244,27 @@ public class JobController {
 		reader.sortAscending(model.getSortField());
 		logger.debug("runLoad filter=" + filter.toString() +
 				" sort=" + model.getSortField());
+		File checkpoint = keyCheckpointFile();
+		if (checkpoint != null) 
+			reader.setKeyCheckpoint(checkpoint, published > 0);
 		metrics.setExpected(reader.getKeys().size());
 		if (published > 0) reader.setFirstRowIndex(published);
-		loadRecordSets(reader);
+		loadRecordSets(reader, targetName);
+		if (shadow) database.swapShadowTable(sqlTableName, targetName);
+		if (checkpoint != null) checkpoint.delete();
+	}
+	
+	/**
+	 * If the table property <b>keys_checkpoint_dir</b> is set then 
+	 * return the file in which the keys for this job are saved
+	 * so that a resumed load need not read the keys again;
+	 * otherwise return null.
+	 */
+	private File keyCheckpointFile() {
+		String dir = tableConfig.getString("keys_checkpoint_dir", null);
+		if (dir == null || dir.length() == 0) return null;
+		String fileName = jobName.replaceAll("[^A-Za-z0-9_.-]", "_") + ".keys";
+		return new File(dir, fileName);
 	}
 	
 	private void runRefresh(DateTime runStart) 
@@ -243,7 +285,7 @@ public class JobController {
 			throw new AssertionError("runStart preceeds lastRunStart");
 		}
 		metrics.clear();
-		BasicTableReader reader = table.reader();
+		BasicTableReader reader = newReader();
 		QueryFilter filter = new QueryFilter();
 		filter.addFilter(model.getBaseFilter());
 		filter.addFilter(model.getPartitionFilter());
@@ -255,44 +297,96 @@ public class JobController {
 		reader.setFilter(filter);
 		metrics.setExpected(reader.getKeys().size());
 		logger.debug("runRefresh begin while");
-		loadRecordSets(reader);
+		loadRecordSets(reader, sqlTableName);
 	}
 
-	private int loadRecordSets(BasicTableReader reader)
+	/**
+	 * Return a {@link ParallelTableReader} if the table property
+	 * <b>reader_threads</b> is greater than 1;
+	 * otherwise return a {@link BasicTableReader}.
+	 * The parallel reader returns chunks in key order
+	 * so that a resumed load can skip the rows already published.
+	 */
+	private BasicTableReader newReader() throws IOException {
+		int readerThreads = tableConfig.getInt("reader_threads", 1);
+		if (readerThreads > 1) {
+			logger.debug("reader_threads=" + readerThreads);
+			return new ParallelTableReader(table, null, readerThreads);
+		}
+		return table.reader();
+	}
+
+	/**
+	 * Read all chunks and write them to the SQL table <i>targetName</i>,
+	 * which is either the table for the job or its shadow table.
+	 */
+	private int loadRecordSets(BasicTableReader reader, String targetName)
 			throws IOException, InterruptedException, SQLException,
 				SuiteInitException, SuiteExecException, SuiteModelException {
 		int published = metrics.recordsPublished();
 		DatabaseTableWriter writer = 
-				database.getTableWriter(table, sqlTableName, model.isDV());
-		while (reader.hasNext()) {
-			if (Thread.interrupted()) throw new InterruptedException();
-			RecordList data = reader.nextChunk();
-			if (Thread.interrupted()) throw new InterruptedException();
-			int oldtotal = published;
-			int processed = writer.processRecordSet(data, model.getMethod(), metrics);
-			published += processed;
-			assert processed == data.size();
-			assert published == oldtotal + processed;
-			model.postMetrics(metrics);
-			logger.info(published + " of " + reader.numKeys() +	" records processed");
-			if (loadLimit > 0 && metrics.recordsPublished() > loadLimit)
-				throw new LoadLimitExceededException(sqlTableName, loadLimit);
-		}		
-		return published;
-	}
-	
-	// TODO
-	/*
-	private int parallelLoadRecordSets(ParallelTableReader reader, ExecutorService executor) {
-		DatabaseTableWriter writer = 
-				database.getTableWriter(table, sqlTableName, model.isDV());
-		while (reader.hasNextTask()) {
-			Runnable task = reader.getNextTask();
-			Future<RecordList> data =
+				database.getTableWriter(table, targetName, model.isDV());
+		// Optionally divide each chunk among several connections
+		int connections = tableConfig.getInt("write_connections", 1);
+		if (connections > 1 && !ParallelTableWriter.supports(model.getMethod())) {
+			logger.warn("write_connections=" + connections + 
+				" ignored for " + model.getMethod());
+			connections = 1;
 		}
-		
+		ParallelTableWriter parallel = null;
+		if (connections > 1)
+			parallel = new ParallelTableWriter(database, writer, baseConfig,
+				table, targetName, model.isDV(), connections);
+		// Optionally fetch the next chunks while the current chunk is written
+		int prefetch = tableConfig.getInt("prefetch", 0);
+		TableReader source = reader;
+		if (prefetch > 0) {
+			logger.debug("prefetch=" + prefetch);
+			source = new PrefetchTableReader(reader, prefetch);
+		}
+		// If the records are written one at a time then write each record
+		// as it is received rather than holding the whole chunk in memory
+		boolean stream = (parallel == null) && writer.canStream(model.getMethod());
+		logger.debug("stream=" + stream);
+		try {
+			while (source.hasNext()) {
+				if (Thread.interrupted()) throw new InterruptedException();
+				int committed;
+				if (stream) {
+					committed = writer.processChunk(source, model.getMethod(), metrics);
+				}
+				else {
+					RecordList data = source.nextChunk();
+					if (Thread.interrupted()) throw new InterruptedException();
+					committed = (parallel == null) ?
+						writer.processRecordSet(data, model.getMethod(), metrics) :
+						parallel.processRecordSet(data, model.getMethod(), metrics);
+				}
+				// Metrics are posted only after a commit
+				// so that a resumed load starts after the last commit
+				if (committed > 0) {
+					published += committed;
+					assert published == metrics.recordsPublished();
+					model.postMetrics(metrics);
+					logger.info(published + " of " + reader.numKeys() +	" records processed");
+				}
+				if (loadLimit > 0 && metrics.recordsPublished() > loadLimit)
+					throw new LoadLimitExceededException(sqlTableName, loadLimit);
+			}
+			int committed = (parallel == null) ?
+				writer.flush(metrics) : parallel.flush(metrics);
+			if (committed > 0) {
+				published += committed;
+				model.postMetrics(metrics);
+				logger.info(published + " of " + reader.numKeys() +	" records processed");
+			}
+		}
+		finally {
+			source.close();
+			if (parallel != null) parallel.close();
+		}
+		return published;
 	}
-	*/
 	
 	private void runPrune(DateTime runStart) 
 			throws IOException, InterruptedException, SQLException, 
@@ -338,10 +432,20 @@ public class JobController {
 			for (Record delete : deletes) {
 				keys.add(new Key(delete.getField("documentkey")));
 			}
-			deleted += writer.deleteRecords(keys, metrics);		
-			model.postMetrics(metrics);
+			int committed = writer.deleteRecords(keys, metrics);
+			if (committed > 0) {
+				deleted += committed;
+				model.postMetrics(metrics);
+			}
 			logger.info(deleted + " records deleted / " + count + " audit records");
 		}
+		// a short prune may be committed only by the final flush
+		int flushed = writer.flush(metrics);
+		if (flushed > 0) {
+			deleted += flushed;
+			model.postMetrics(metrics);
+		}
+		logger.info(deleted + " records deleted");
 	}
 	
 	private void runSql() throws SQLException {
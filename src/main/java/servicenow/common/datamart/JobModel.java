@@ -1,5 +1,7 @@
 package servicenow.common.datamart;
 
+import java.util.concurrent.locks.ReentrantLock;
+
 import org.slf4j.Logger;
 
 import servicenow.common.datamart.JobOperation;
@@ -34,13 +36,19 @@ abstract class JobModel {
 	protected String sortField = null;
 	protected String partitionField = null;
 	protected String partitionValue = null;
-	protected DateTime intervalStart = null;
-	protected DateTime intervalEnd = null;	
+	protected volatile DateTime intervalStart = null;
+	protected volatile DateTime intervalEnd = null;	
 	protected QueryFilter basefilter = null;
 	protected String sqlTableName = null;	
 	protected String sqlCommand = null;
+	protected Integer order = null;
+
+	protected volatile Status status = null;
 
-	protected Status status = null;
+	// Serializes changes to the status and interval, which are posted 
+	// to the instance. This is not a monitor so that a virtual thread
+	// is not pinned while waiting for the response.
+	protected final ReentrantLock lock = new ReentrantLock();
 	
 	// For Load jobs
 	protected boolean truncate = false;
@@ -68,8 +76,16 @@ abstract class JobModel {
     String getSortField() { return this.sortField; }
     
     SuiteModel getSuite() { return this.suite; }
+    
+    /**
+     * Jobs which are next to each other in the suite and have the same order
+     * may be run at the same time (see <b>parallel_jobs</b>).
+     * Returns null if the job has no order, in which case
+     * it is always run by itself.
+     */
+    Integer getOrder() { return this.order; }
 
-    synchronized Status getStatus() { return this.status; }    
+    Status getStatus() { return this.status; }    
     
     String getSqlCommand() {
     	if (operation != JobOperation.SQL) 
@@ -86,8 +102,8 @@ abstract class JobModel {
     	return filter;
     }
     
-    synchronized DateTime getIntervalStart() { return intervalStart;  }
-    synchronized DateTime getIntervalEnd() { return intervalEnd; }
+    DateTime getIntervalStart() { return intervalStart;  }
+    DateTime getIntervalEnd() { return intervalEnd; }
     
     /**
      * Set the status to Running, and advance the interval.
@@ -120,6 +136,7 @@ abstract class JobModel {
 					case UPDATE_INSERT : result.append(" update-insert"); break; 
 					case INSERT_ONLY : result.append(" insert-only"); break;
 					case COMPARE_TIMESTAMPS : result.append(" compare-timestamps"); break;
+					case UPSERT : result.append(" upsert"); break;
 					default : throw new IllegalStateException();
 				}
 				if (getIntervalStart() != null) 
@@ -127,6 +144,9 @@ abstract class JobModel {
 				if (getIntervalEnd() != null) 
 					result.append(" to " + getIntervalEnd().toString());
 			}
+			if (operation.equals(JobOperation.REFRESH) && 
+					getMethod() == LoadMethod.UPSERT)
+				result.append(" upsert");
 			if (operation.equals(JobOperation.REFRESH) || 
 					operation.equals(JobOperation.PRUNE)) {
 				if (getIntervalEnd() != null)
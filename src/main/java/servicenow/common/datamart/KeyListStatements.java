@@ -0,0 +1,160 @@
+package servicenow.common.datamart;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+
+import servicenow.common.datamart.DatabaseTableWriter;
+import servicenow.common.datamart.Metrics;
+import servicenow.common.datamart.SqlGenerator;
+import servicenow.common.soap.DateTime;
+import servicenow.common.soap.Key;
+
+/**
+ * This is a "private" class used by {@link DatabaseTableWriter}
+ * to run the statements which contain an IN list of keys:
+ * the "timestamps" and "deletes" templates.
+ * <p/>
+ * The keys are divided into slices of no more than
+ * {@link SqlGenerator#maxInList()} values.
+ * The statement for a full slice is prepared once and reused.
+ * A smaller final slice is run with a statement of its own,
+ * which is closed after it is executed.
+ */
+class KeyListStatements {
+
+	private final Connection dbc;
+	private final SqlGenerator generator;
+	private final String sqlTableName;
+	private final Calendar dbCalendar;
+	private final Logger logger;
+	private final Map<String,PreparedStatement> prepared =
+		new HashMap<String,PreparedStatement>();
+
+	KeyListStatements(
+			Connection dbc,
+			SqlGenerator generator,
+			String sqlTableName,
+			Calendar dbCalendar,
+			Logger logger) {
+		this.dbc = dbc;
+		this.generator = generator;
+		this.sqlTableName = sqlTableName;
+		this.dbCalendar = dbCalendar;
+		this.logger = logger;
+	}
+
+	/**
+	 * Get sys_updated_on from the SQL table for a list of keys
+	 * using the "timestamps" template.
+	 *
+	 * @return A map from sys_id to sys_updated_on for the records which exist
+	 */
+	Map<Key,DateTime> getTimestamps(List<Key> keys) throws SQLException {
+		HashMap<Key,DateTime> result = new HashMap<Key,DateTime>(2 * keys.size());
+		int maxInList = generator.maxInList();
+		for (int start = 0; start < keys.size(); start += maxInList) {
+			int size = Math.min(maxInList, keys.size() - start);
+			PreparedStatement stmt = prepare("timestamps", size);
+			try {
+				bindKeys(stmt, keys, start, size);
+				ResultSet rset = stmt.executeQuery();
+				while (rset.next()) {
+					Key key = new Key(rset.getString(1).trim());
+					java.sql.Timestamp ts = rset.getTimestamp(2, dbCalendar);
+					result.put(key, ts == null ? null : new DateTime(ts.getTime()));
+				}
+				rset.close();
+			}
+			finally {
+				release(stmt, size);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Delete a list of records using the "deletes" template.
+	 * The metrics are updated after each statement.
+	 *
+	 * @return The number of rows deleted
+	 */
+	int deleteBatch(List<Key> keys, Metrics metrics) throws SQLException {
+		int count = 0;
+		int maxInList = generator.maxInList();
+		for (int start = 0; start < keys.size(); start += maxInList) {
+			int size = Math.min(maxInList, keys.size() - start);
+			PreparedStatement stmt = prepare("deletes", size);
+			int rows;
+			try {
+				bindKeys(stmt, keys, start, size);
+				rows = stmt.executeUpdate();
+			}
+			finally {
+				release(stmt, size);
+			}
+			metrics.incrementDeletes(rows);
+			count += rows;
+			logger.debug("DELETE keys=" + size + " rows=" + rows);
+		}
+		return count;
+	}
+
+	void close() throws SQLException {
+		for (PreparedStatement stmt : prepared.values()) stmt.close();
+		prepared.clear();
+	}
+
+	private void bindKeys(PreparedStatement stmt, List<Key> keys, int start, int size)
+			throws SQLException {
+		for (int i = 0; i < size; ++i)
+			stmt.setString(i + 1, keys.get(start + i).toString());
+	}
+
+	/**
+	 * Return the statement for a slice of <i>size</i> keys.
+	 * The statement for a full slice is cached.
+	 */
+	private PreparedStatement prepare(String templateName, int size) throws SQLException {
+		if (size < generator.maxInList())
+			return dbc.prepareStatement(generateStatement(templateName, size));
+		PreparedStatement stmt = prepared.get(templateName);
+		if (stmt == null) {
+			String sql = generateStatement(templateName, size);
+			logger.debug("Prepare " + sql);
+			stmt = dbc.prepareStatement(sql);
+			prepared.put(templateName, stmt);
+		}
+		return stmt;
+	}
+
+	/**
+	 * Close the statement unless it is the cached statement for a full slice.
+	 */
+	private void release(PreparedStatement stmt, int size) throws SQLException {
+		if (size < generator.maxInList()) stmt.close();
+	}
+
+	/**
+	 * Generate a statement from a template (e.g. "timestamps" or "deletes")
+	 * which contains an IN list of <i>size</i> bind variables.
+	 */
+	String generateStatement(String templateName, int size) {
+		StringBuilder keylist = new StringBuilder(2 * size);
+		for (int i = 0; i < size; ++i) {
+			if (i > 0) keylist.append(",");
+			keylist.append("?");
+		}
+		Map<String,String> myvars = new HashMap<String,String>();
+		myvars.put("keylist", keylist.toString());
+		return generator.getTemplate(templateName, sqlTableName, myvars);
+	}
+
+}
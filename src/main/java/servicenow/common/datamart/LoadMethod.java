@@ -1,5 +1,5 @@
 package servicenow.common.datamart;
 
 public enum LoadMethod {
-   	INSERT_ONLY, UPDATE_INSERT, COMPARE_TIMESTAMPS  
+   	INSERT_ONLY, UPDATE_INSERT, COMPARE_TIMESTAMPS, UPSERT
 }
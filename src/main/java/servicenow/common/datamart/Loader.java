@@ -43,6 +43,7 @@ public class Loader {
 	public Loader(Properties props)
 			throws IOException, SuiteException, SQLException {
 		if (props != null) DatamartConfiguration.setProperties(props);
+		ResourceManager.configureThreads(DatamartConfiguration.getDatamartConfiguration());
 		this.session = ResourceManager.getMainSession();
 		assert this.session != null;
 		ShutdownHook hook = new ShutdownHook();
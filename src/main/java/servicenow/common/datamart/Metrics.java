@@ -1,5 +1,8 @@
 package servicenow.common.datamart;
 
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
 import org.slf4j.Logger;
 
 import servicenow.common.datamart.Metrics;
@@ -13,108 +16,158 @@ import servicenow.common.soap.Record;
  */
 public class Metrics {
 	
-	private int inserts = 0;
-	private int updates = 0;
-	private int deletes = 0;
-	private int unchanged = 0;
+	// Counters are atomic and the other fields are changed under a lock
+	// (rather than synchronized) so that virtual threads are not pinned
+	private final AtomicInteger inserts = new AtomicInteger(0);
+	private final AtomicInteger updates = new AtomicInteger(0);
+	private final AtomicInteger deletes = new AtomicInteger(0);
+	private final AtomicInteger unchanged = new AtomicInteger(0);
+	private final ReentrantLock lock = new ReentrantLock();
 	
-	private Integer published = null;
-	private Integer consumed = null; 
-	private Integer expected = null;
+	private volatile Integer published = null;
+	private volatile Integer consumed = null; 
+	private volatile Integer expected = null;
 	
-	public synchronized int recordsInserted()  { return this.inserts; }
-	public synchronized int recordsUpdated()   { return this.updates; }
-	public synchronized int recordsDeleted()   { return this.deletes; }
-	public synchronized int recordsUnchanged() { return this.unchanged; }
+	public int recordsInserted()  { return this.inserts.get(); }
+	public int recordsUpdated()   { return this.updates.get(); }
+	public int recordsDeleted()   { return this.deletes.get(); }
+	public int recordsUnchanged() { return this.unchanged.get(); }
 	
-	public synchronized int recordsPublished() { 
-		return published == null ? 0 : published.intValue(); 
+	public int recordsPublished() { 
+		Integer value = published;
+		return value == null ? 0 : value.intValue(); 
 	}
-	public synchronized Integer recordsConsumed()  { 
-		return consumed == null ? 0 : consumed.intValue(); 
+	public Integer recordsConsumed()  { 
+		Integer value = consumed;
+		return value == null ? 0 : value.intValue(); 
 	}
 	
-	public synchronized Integer recordsExpected()  { return this.expected; }
+	public Integer recordsExpected()  { return this.expected; }
 	
-	synchronized void incrementInserts(int count)   { this.inserts += count; }	
-	synchronized void incrementUpdates(int count)   { this.updates += count; }
-	synchronized void incrementDeletes(int count)   { this.deletes += count; }
-	synchronized void incrementUnchanged(int count) { this.unchanged += count; }
+	void incrementInserts(int count)   { this.inserts.addAndGet(count); }	
+	void incrementUpdates(int count)   { this.updates.addAndGet(count); }
+	void incrementDeletes(int count)   { this.deletes.addAndGet(count); }
+	void incrementUnchanged(int count) { this.unchanged.addAndGet(count); }
 	
-	synchronized void incrementInserts()   { incrementInserts(1); }
-	synchronized void incrementUpdates()   { incrementUpdates(1); }
-	synchronized void incrementDeletes()   { incrementDeletes(1); }
-	synchronized void incrementUnchanged() { incrementUnchanged(1); }
+	void incrementInserts()   { incrementInserts(1); }
+	void incrementUpdates()   { incrementUpdates(1); }
+	void incrementDeletes()   { incrementDeletes(1); }
+	void incrementUnchanged() { incrementUnchanged(1); }
 	
-	synchronized void incrementPublished(int count) {
-		if (published == null) published = new Integer(0);
-		published += count;
+	void incrementPublished(int count) {
+		lock.lock();
+		try {
+			published = recordsPublished() + count;
+		}
+		finally {
+			lock.unlock();
+		}
 	}
 	
 	@Deprecated
-	synchronized void incrementConsumed(int count) {
-		if (consumed == null) consumed = new Integer(0);
-		consumed += count;
+	void incrementConsumed(int count) {
+		lock.lock();
+		try {
+			consumed = recordsConsumed() + count;
+		}
+		finally {
+			lock.unlock();
+		}
 	}
 	
-	synchronized void setExpected(int count) {
+	void setExpected(int count) {
 		this.expected = new Integer(count);
 	}
 		
-	synchronized Metrics addMetrics(Metrics other) {
-		incrementInserts(other.inserts);
-		incrementUpdates(other.updates);
-		incrementDeletes(other.deletes);
-		incrementUnchanged(other.unchanged);
-		if (other.published != null) incrementPublished(other.published);
-		if (other.consumed != null) incrementConsumed(other.consumed);
-		if (other.expected != null) setExpected(other.expected);
-		return this;
+	Metrics addMetrics(Metrics other) {
+		lock.lock();
+		try {
+			incrementInserts(other.recordsInserted());
+			incrementUpdates(other.recordsUpdated());
+			incrementDeletes(other.recordsDeleted());
+			incrementUnchanged(other.recordsUnchanged());
+			Integer otherPublished = other.published;
+			Integer otherConsumed = other.consumed;
+			Integer otherExpected = other.expected;
+			if (otherPublished != null) incrementPublished(otherPublished);
+			if (otherConsumed != null) incrementConsumed(otherConsumed);
+			if (otherExpected != null) setExpected(otherExpected);
+			return this;
+		}
+		finally {
+			lock.unlock();
+		}
 	}
 	
-	synchronized void clear() {
-		this.inserts = 0;
-		this.updates = 0;
-		this.deletes = 0;
-		this.unchanged = 0;
-		this.consumed = null;
-		this.published = null;
-		this.expected = null;
+	void clear() {
+		lock.lock();
+		try {
+			this.inserts.set(0);
+			this.updates.set(0);
+			this.deletes.set(0);
+			this.unchanged.set(0);
+			this.consumed = null;
+			this.published = null;
+			this.expected = null;
+		}
+		finally {
+			lock.unlock();
+		}
 	}
 	
-	synchronized void logInfo(Logger logger) {
-		logger.info(inserts + " inserts");
-		logger.info(updates + " updates");
-		if (deletes > 0)   logger.info(deletes + " deletes");
-		if (unchanged > 0) logger.info(unchanged + " unchanged");
+	void logInfo(Logger logger) {
+		Integer published = this.published;
+		Integer expected = this.expected;
+		logger.info(recordsInserted() + " inserts");
+		logger.info(recordsUpdated() + " updates");
+		if (recordsDeleted() > 0)   logger.info(recordsDeleted() + " deletes");
+		if (recordsUnchanged() > 0) logger.info(recordsUnchanged() + " unchanged");
 		if (published != null) logger.info(published + " published");
 		// if (consumed != null) logger.info(consumed + " consumed");
 		if (expected != null) logger.info(expected + " expected");
 	}
 	
-	synchronized void addValues(Record rec) {
-		this.inserts += rec.getInt("u_records_inserted");
-		this.updates += rec.getInt("u_records_updated");
-		this.deletes += rec.getInt("u_records_deleted");
-		this.published += rec.getInt("u_records_processed");
+	void addValues(Record rec) {
+		lock.lock();
+		try {
+			incrementInserts(rec.getInt("u_records_inserted"));
+			incrementUpdates(rec.getInt("u_records_updated"));
+			incrementDeletes(rec.getInt("u_records_deleted"));
+			incrementPublished(rec.getInt("u_records_processed"));
+		}
+		finally {
+			lock.unlock();
+		}
 	}
 	
-	synchronized void loadValues(Record rec) {
-		this.inserts = rec.getInt("u_records_inserted");
-		this.updates = rec.getInt("u_records_updated");
-		this.deletes = rec.getInt("u_records_deleted");
-		this.published = rec.getInt("u_records_processed");
+	void loadValues(Record rec) {
+		lock.lock();
+		try {
+			this.inserts.set(rec.getInt("u_records_inserted"));
+			this.updates.set(rec.getInt("u_records_updated"));
+			this.deletes.set(rec.getInt("u_records_deleted"));
+			this.published = rec.getInt("u_records_processed");
+		}
+		finally {
+			lock.unlock();
+		}
 	}
 	
-	synchronized FieldValues fieldValues() {
+	FieldValues fieldValues() {
 		FieldValues values = new FieldValues();
-		values.set("u_records_inserted", recordsInserted());
-		values.set("u_records_updated", recordsUpdated());
-		values.set("u_records_deleted", recordsDeleted());
-		if (published != null)
-			values.set("u_records_processed", published.intValue());
-		if (expected != null)
-			values.set("u_records_total", this.expected.intValue());
+		lock.lock();
+		try {
+			values.set("u_records_inserted", recordsInserted());
+			values.set("u_records_updated", recordsUpdated());
+			values.set("u_records_deleted", recordsDeleted());
+			if (published != null)
+				values.set("u_records_processed", published.intValue());
+			if (expected != null)
+				values.set("u_records_total", this.expected.intValue());
+		}
+		finally {
+			lock.unlock();
+		}
 		return values;
 	}
 }
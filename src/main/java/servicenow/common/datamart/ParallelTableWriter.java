@@ -0,0 +1,223 @@
+package servicenow.common.datamart;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+
+import servicenow.common.datamart.CommitPolicy;
+import servicenow.common.datamart.DatabaseTableWriter;
+import servicenow.common.datamart.DatabaseWriter;
+import servicenow.common.datamart.DatamartConfiguration;
+import servicenow.common.datamart.LoadMethod;
+import servicenow.common.datamart.LoggerFactory;
+import servicenow.common.datamart.Metrics;
+import servicenow.common.datamart.SuiteExecException;
+import servicenow.common.datamart.SuiteInitException;
+import servicenow.common.soap.DaemonThreadFactory;
+import servicenow.common.soap.Record;
+import servicenow.common.soap.Table;
+
+/**
+ * This is a "private" class used by {@link JobController}
+ * to write to a table using several database connections at once.
+ * <p/>
+ * The records in each chunk are divided among the connections
+ * by the hash of the sys_id, so that a record is always written
+ * by the same connection and the connections do not wait for each
+ * other's row locks. Each part is written on a worker thread.
+ * <p/>
+ * The connections are committed together, when every part has been
+ * written and the {@link CommitPolicy} is due, and the metrics are updated
+ * only after every connection has been committed, so that the published
+ * count (which is used to resume a load) never includes records which
+ * were rolled back. If any part fails then all connections are rolled back.
+ * <p/>
+ * The commits are not atomic: if one connection fails to commit after
+ * another has committed then the published count is behind the table.
+ * A resumed load then writes some records again, so this class is used 
+ * only with the load methods UPDATE_INSERT and UPSERT,
+ * which can write a record that is already in the table.
+ */
+class ParallelTableWriter {
+
+	final Table table;
+	final String sqlTableName;
+	final DatabaseWriter[] databases;
+	final DatabaseTableWriter[] writers;
+	final Logger logger;
+	final CommitPolicy commitPolicy;
+	private final ExecutorService workers;
+
+	/**
+	 * @param primary The writer for the connection of the job,
+	 * which is used for the first part of each chunk.
+	 * @param connections Total number of connections,
+	 * including the connection of the job.
+	 */
+	ParallelTableWriter(DatabaseWriter database, DatabaseTableWriter primary,
+			DatamartConfiguration config, Table table, String sqlTableName,
+			boolean displayValues, int connections) throws SuiteInitException {
+		if (connections < 2)
+			throw new IllegalArgumentException("connections=" + connections);
+		this.table = table;
+		this.sqlTableName = sqlTableName;
+		this.logger = LoggerFactory.getLogger(this.getClass(), sqlTableName);
+		this.databases = new DatabaseWriter[connections];
+		this.writers = new DatabaseTableWriter[connections];
+		databases[0] = database;
+		writers[0] = primary;
+		try {
+			for (int i = 1; i < connections; ++i) {
+				databases[i] = new DatabaseWriter(config);
+				writers[i] = databases[i].getTableWriter(table, sqlTableName, displayValues);
+			}
+		}
+		catch (RuntimeException e) {
+			close();
+			throw e;
+		}
+		catch (SuiteInitException e) {
+			close();
+			throw e;
+		}
+		this.commitPolicy = database.newCommitPolicy(table);
+		this.workers = Executors.newFixedThreadPool(connections,
+			new DaemonThreadFactory("writer-" + sqlTableName));
+		logger.debug("write_connections=" + connections);
+	}
+
+	/**
+	 * Return true if a load method can safely write a record 
+	 * which was already written before a partial commit.
+	 */
+	static boolean supports(LoadMethod method) {
+		return method == LoadMethod.UPDATE_INSERT || method == LoadMethod.UPSERT;
+	}
+
+	/**
+	 * Return the connection which writes a record.
+	 */
+	int partition(Record rec) {
+		return (rec.getKey().hashCode() & 0x7fffffff) % writers.length;
+	}
+
+	/**
+	 * Write a list of records using all connections
+	 * and commit if the {@link CommitPolicy} is due.
+	 * @return The number of records committed,
+	 * which is zero if there was no commit
+	 */
+	int processRecordSet(List<Record> data, final LoadMethod method, Metrics metrics)
+			throws SuiteExecException, InterruptedException {
+		if (!supports(method)) 
+			throw new IllegalArgumentException("method=" + method);
+		int n = writers.length;
+		List<List<Record>> parts = new ArrayList<List<Record>>(n);
+		for (int i = 0; i < n; ++i)
+			parts.add(new ArrayList<Record>(data.size() / n + 1));
+		for (Record rec : data)
+			parts.get(partition(rec)).add(rec);
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>(n);
+		final Metrics[] partMetrics = new Metrics[n];
+		for (int i = 0; i < n; ++i) {
+			final DatabaseTableWriter writer = writers[i];
+			final List<Record> part = parts.get(i);
+			final Metrics m = partMetrics[i] = new Metrics();
+			results.add(workers.submit(new Callable<Integer>() {
+				public Integer call() throws SuiteExecException {
+					if (part.size() == 0) return 0;
+					return writer.writeRecordSet(part, method, m);
+				}
+			}));
+		}
+		int count = 0;
+		try {
+			for (Future<Integer> result : results)
+				count += result.get().intValue();
+		}
+		catch (InterruptedException e) {
+			for (Future<Integer> result : results)
+				result.cancel(true);
+			rollback();
+			throw e;
+		}
+		catch (ExecutionException e) {
+			awaitAll(results);
+			rollback();
+			Throwable cause = e.getCause();
+			if (cause instanceof SuiteExecException) throw (SuiteExecException) cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			throw new SuiteExecException(cause);
+		}
+		for (Metrics m : partMetrics)
+			commitPolicy.pending().addMetrics(m);
+		commitPolicy.written(count, 
+			commitPolicy.measuresBytes() ? writers[0].estimateBytes(data) : 0);
+		if (logger.isDebugEnabled()) {
+			StringBuilder sizes = new StringBuilder();
+			for (List<Record> part : parts)
+				sizes.append(" " + part.size());
+			logger.debug("processRecordSet size=" + data.size() + " parts=" + sizes);
+		}
+		return commitPolicy.isDue() ? flush(metrics) : 0;
+	}
+
+	/**
+	 * Commit all connections and update the metrics.
+	 * @return The number of records committed
+	 */
+	int flush(Metrics metrics) throws SuiteExecException {
+		try {
+			// If a commit fails after another connection has committed
+			// then records are written but not counted, 
+			// and they are written again if the load is resumed
+			for (DatabaseWriter database : databases)
+				database.commit();
+		}
+		catch (java.sql.SQLException e) {
+			rollback();
+			throw new SuiteExecException(e);
+		}
+		return commitPolicy.committed(metrics);
+	}
+
+	/**
+	 * Wait for the other parts to finish so that no statement 
+	 * is running on a connection when it is rolled back.
+	 */
+	private void awaitAll(List<Future<Integer>> results) throws InterruptedException {
+		for (Future<Integer> result : results) {
+			try {
+				result.get();
+			}
+			catch (ExecutionException e) {
+				// only the first failure is reported
+			}
+		}
+	}
+
+	private void rollback() {
+		for (DatabaseWriter database : databases)
+			database.rollback();
+		commitPolicy.clear();
+	}
+
+	/**
+	 * Stop the worker threads and close the additional connections.
+	 * The connection of the job is not closed.
+	 * The table writers belong to their connections and are not closed here.
+	 */
+	void close() {
+		if (workers != null) workers.shutdownNow();
+		for (int i = 1; i < databases.length; ++i)
+			if (databases[i] != null) databases[i].close();
+	}
+
+}
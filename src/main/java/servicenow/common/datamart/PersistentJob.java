@@ -99,11 +99,20 @@ public class PersistentJob extends JobModel {
 	    	if (method.equals("I")) this.method = LoadMethod.INSERT_ONLY;
 	    	else if (method.equals("UI")) this.method = LoadMethod.UPDATE_INSERT;
 	    	else if (method.equals("T")) this.method = LoadMethod.COMPARE_TIMESTAMPS;
+	    	else if (method.equals("U")) this.method = LoadMethod.UPSERT;
 	    	else throw new SuiteParseException("load_method=" + method);
 	    	this.sqlTableName = jobrec.getField("u_sql_table_name");
 	    	this.basefilter = new QueryFilter(jobrec.getField("u_conditions"));
 		}
     	assert operation != null;
+    	// an empty order means that the job is always run by itself
+    	String order = jobrec.getField(fieldName("order"));
+    	try {
+    		this.order = (order == null) ? null : Integer.valueOf(order.trim());
+    	}
+    	catch (NumberFormatException e) {
+    		throw new SuiteParseException("order=" + order);
+    	}
     	this.status = Status.valueOf(jobrec.getField("u_status").toUpperCase());
 		// this.controller = new JobController(this);
     	logger.debug(getDescription());
@@ -122,85 +131,115 @@ public class PersistentJob extends JobModel {
     /**
      * Set the status to Running, and advance the interval.
      */
-    synchronized void startRunning(DateTime runStart) throws SuiteModelException {
-    	logger.debug("startRunning " + runStart);
-		this.status = Status.RUNNING;
-		FieldValues values = new FieldValues();
-		values.set("u_status", "running");
-		// for persistent jobs: ignore runStart, let business rule calculate it
-		// if (runStart != null && operation != JobOperation.LOAD) 
-		// 	values.set("u_interval_end", runStart);
-		updateJobTableValues(values);
-		Record rec = readRecord();
-		if (operation != JobOperation.LOAD) {
-	    	intervalStart = rec.getDateTime("u_interval_start");
-	    	intervalEnd = rec.getDateTime("u_interval_end");
-		}
-		logger.debug("startRunning runStart=" + runStart + " start=" + intervalStart + " end=" + intervalEnd);
-		// return intervalEnd;
+    void startRunning(DateTime runStart) throws SuiteModelException {
+    	lock.lock();
+    	try {
+			logger.debug("startRunning " + runStart);
+			this.status = Status.RUNNING;
+			FieldValues values = new FieldValues();
+			values.set("u_status", "running");
+			// for persistent jobs: ignore runStart, let business rule calculate it
+			// if (runStart != null && operation != JobOperation.LOAD) 
+			// 	values.set("u_interval_end", runStart);
+			updateJobTableValues(values);
+			Record rec = readRecord();
+			if (operation != JobOperation.LOAD) {
+		    	intervalStart = rec.getDateTime("u_interval_start");
+		    	intervalEnd = rec.getDateTime("u_interval_end");
+			}
+			logger.debug("startRunning runStart=" + runStart + " start=" + intervalStart + " end=" + intervalEnd);
+			// return intervalEnd;
+    	}
+    	finally {
+    		lock.unlock();
+    	}
     }
 
-    synchronized void setFailedStatus(Status newstatus, String message) {
-    	assert newstatus.equals(Status.CANCELLED) || newstatus.equals(Status.FAILED);
-		this.status = newstatus;
-		logger.debug("setFailedStatus " + newstatus);
-		if (!isPersistent()) return;
-		FieldValues values = new FieldValues();
-		values.set("u_status", newstatus.toString().toLowerCase());
-		values.set("u_error_message", message);
-		try {
-			updateJobTableValues(values);
-		} catch (SuiteModelException e) {
-			logger.error("setFailedStatus: unable to set status to " + newstatus, e);
-		}
+    void setFailedStatus(Status newstatus, String message) {
+    	lock.lock();
+    	try {
+			assert newstatus.equals(Status.CANCELLED) || newstatus.equals(Status.FAILED);
+			this.status = newstatus;
+			logger.debug("setFailedStatus " + newstatus);
+			if (!isPersistent()) return;
+			FieldValues values = new FieldValues();
+			values.set("u_status", newstatus.toString().toLowerCase());
+			values.set("u_error_message", message);
+			try {
+				updateJobTableValues(values);
+			} catch (SuiteModelException e) {
+				logger.error("setFailedStatus: unable to set status to " + newstatus, e);
+			}
+    	}
+    	finally {
+    		lock.unlock();
+    	}
 	}
 		
-    synchronized void setCompletedStatus(Status newstatus) throws SuiteModelException {
-    	assert newstatus.equals(Status.COMPLETE) || newstatus.equals(Status.READY);
-		this.status = newstatus;
-		logger.debug("setFinishedStatus " + newstatus);
-		if (!isPersistent()) return;
-		FieldValues values = new FieldValues();
-		values.set("u_status", newstatus.toString().toLowerCase());
-    	updateJobTableValues(values);
+    void setCompletedStatus(Status newstatus) throws SuiteModelException {
+    	lock.lock();
+    	try {
+			assert newstatus.equals(Status.COMPLETE) || newstatus.equals(Status.READY);
+			this.status = newstatus;
+			logger.debug("setFinishedStatus " + newstatus);
+			if (!isPersistent()) return;
+			FieldValues values = new FieldValues();
+			values.set("u_status", newstatus.toString().toLowerCase());
+			updateJobTableValues(values);
+    	}
+    	finally {
+    		lock.unlock();
+    	}
     }
     
-    synchronized void postMetrics(Metrics metrics) throws SuiteModelException {
-		int inserts = metrics.recordsInserted();
-		int updates = metrics.recordsUpdated();
-		int deletes = metrics.recordsDeleted();
-		int processed = metrics.recordsPublished();
-		logger.debug("postMetrics inserts=" + inserts + 
-				" updates=" + updates +
-				" deletes=" + deletes + 
-				" processed=" + processed);	
-		assert (inserts + updates + deletes == processed) : (
-			"inserts=" + inserts + " updates=" + updates +
-			" deletes=" + deletes + " processed=" + processed); 
-		FieldValues values = metrics.fieldValues();
-    	updateJobTableValues(values);
+    void postMetrics(Metrics metrics) throws SuiteModelException {
+    	lock.lock();
+    	try {
+			int inserts = metrics.recordsInserted();
+			int updates = metrics.recordsUpdated();
+			int deletes = metrics.recordsDeleted();
+			int processed = metrics.recordsPublished();
+			logger.debug("postMetrics inserts=" + inserts + 
+					" updates=" + updates +
+					" deletes=" + deletes + 
+					" processed=" + processed);	
+			assert (inserts + updates + deletes == processed) : (
+				"inserts=" + inserts + " updates=" + updates +
+				" deletes=" + deletes + " processed=" + processed); 
+			FieldValues values = metrics.fieldValues();
+			updateJobTableValues(values);
+    	}
+    	finally {
+    		lock.unlock();
+    	}
 	}
 
-    synchronized DateTime resetInterval() throws SuiteModelException {
-    	logger.debug("resetInterval");
-    	if (!isPersistent()) throw new IllegalStateException();
-    	if (operation.equals(JobOperation.LOAD)) throw new IllegalStateException();
-		Metrics emptyMetrics = new Metrics();
-		DateTime future = new DateTime("2199-12-31 24:59:59");
-    	FieldValues values = new FieldValues();
-    	values.set("u_status", Status.PENDING.toString().toLowerCase());
-    	values.set("u_interval_start", future);
-    	values.putAll(emptyMetrics.fieldValues());
-    	updateJobTableValues(values);
-		Record rec = readRecord();
-		status = Status.valueOf(rec.getField("u_status").toUpperCase());
-		intervalStart = rec.getDateTime("u_interval_start");
-		intervalEnd = rec.getDateTime("u_interval_end");
-		return intervalStart;
+    DateTime resetInterval() throws SuiteModelException {
+    	lock.lock();
+    	try {
+			logger.debug("resetInterval");
+			if (!isPersistent()) throw new IllegalStateException();
+			if (operation.equals(JobOperation.LOAD)) throw new IllegalStateException();
+			Metrics emptyMetrics = new Metrics();
+			DateTime future = new DateTime("2199-12-31 24:59:59");
+			FieldValues values = new FieldValues();
+			values.set("u_status", Status.PENDING.toString().toLowerCase());
+			values.set("u_interval_start", future);
+			values.putAll(emptyMetrics.fieldValues());
+			updateJobTableValues(values);
+			Record rec = readRecord();
+			status = Status.valueOf(rec.getField("u_status").toUpperCase());
+			intervalStart = rec.getDateTime("u_interval_start");
+			intervalEnd = rec.getDateTime("u_interval_end");
+			return intervalStart;
+    	}
+    	finally {
+    		lock.unlock();
+    	}
 	}
 
     /*
-    private synchronized DateTime getTimestamp() throws IOException {
+    private DateTime getTimestamp() throws IOException {
 		Record rec = jobtable.get(jobkey);
 		return rec.getUpdatedTimestamp();
 	}
@@ -210,15 +249,21 @@ public class PersistentJob extends JobModel {
      * Update the status of this job in case it was changed
      * by a business rule.
      */
-    synchronized void refreshStatus(Record jobrec) {
-    	if (logger.isDebugEnabled()) {
-    		String jobname = jobrec.getField("u_name");
-    		String newstatus = jobrec.getField("u_status");
-    		logger.debug("refreshStatus " + jobname + " " + newstatus);
+    void refreshStatus(Record jobrec) {
+    	lock.lock();
+    	try {
+			if (logger.isDebugEnabled()) {
+				String jobname = jobrec.getField("u_name");
+				String newstatus = jobrec.getField("u_status");
+				logger.debug("refreshStatus " + jobname + " " + newstatus);
+			}
+			assert jobkey != null;
+			assert jobkey.equals(jobrec.getKey());
+			this.status = Status.valueOf(jobrec.getField("u_status").toUpperCase());
+    	}
+    	finally {
+    		lock.unlock();
     	}
-    	assert jobkey != null;
-    	assert jobkey.equals(jobrec.getKey());
-    	this.status = Status.valueOf(jobrec.getField("u_status").toUpperCase());
     }
 
     /**
@@ -236,7 +281,7 @@ public class PersistentJob extends JobModel {
 	/**
 	 * Get the record from ServiceNow.
 	 */
-	synchronized Record readRecord() throws SuiteModelException {
+	Record readRecord() throws SuiteModelException {
 		try { 
 			return jobtable.get(jobkey);
 		}
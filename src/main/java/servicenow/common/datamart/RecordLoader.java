@@ -21,9 +21,8 @@ public class RecordLoader implements RecordListProcessor {
 		if (Thread.interrupted()) throw new InterruptedException();
 		// int oldtotal = published;
 		
-		int processed = writer.processRecordSet(data, method, metrics);
+		writer.processRecordSet(data, method, metrics);
 		// published += processed;
-		assert processed == data.size();
 		// assert published == oldtotal + processed;
 		//
 		// TODO fix finish this
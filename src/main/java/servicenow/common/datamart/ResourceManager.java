@@ -4,14 +4,18 @@ import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.jdom2.JDOMException;
 import org.slf4j.Logger;
 
+import servicenow.common.datamart.ConnectionPool;
 import servicenow.common.datamart.DatamartConfiguration;
 import servicenow.common.datamart.LoggerFactory;
 import servicenow.common.datamart.ResourceException;
 import servicenow.common.datamart.ResourceManager;
+import servicenow.common.soap.DaemonThreadFactory;
 import servicenow.common.soap.Session;
 import servicenow.common.soap.Table;
 import servicenow.common.soap.TableSchema;
@@ -30,6 +34,8 @@ public class ResourceManager {
 	static private Session globalSession;
 	static private Session schemaSession;
 	static private DatabaseWriter globalWriter;
+	static private final Map<String,ConnectionPool> pools = 
+		new HashMap<String,ConnectionPool>();
 			
 	private static DatamartConfiguration getConfiguration() {
 		if (globalConfig == null) {
@@ -143,4 +149,76 @@ public class ResourceManager {
 		}
 	}
 	
+	/**
+	 * If the property <b>virtual_threads</b> is true then create 
+	 * all worker threads as virtual threads. 
+	 * This requires Java 21 or later; on an older JVM a warning is logged
+	 * and platform threads are used.
+	 * <p/>
+	 * The classes in this project use {@link java.util.concurrent.locks.ReentrantLock}
+	 * rather than <b>synchronized</b> wherever a lock is held during an HTTP 
+	 * or JDBC call, so that a virtual thread is not pinned to its carrier.
+	 * Before Java 24 (JEP 491) a JDBC driver which blocks inside 
+	 * <b>synchronized</b> can still pin the thread, so a warning is logged.
+	 * 
+	 * @return true if virtual threads will be used
+	 */
+	static boolean configureThreads(DatamartConfiguration config) {
+		boolean requested = config.getBoolean("virtual_threads", false);
+		boolean result = DaemonThreadFactory.setVirtualThreads(requested);
+		if (requested && !result)
+			logger.warn("virtual_threads requires Java 21; using platform threads");
+		if (result && javaVersion() < 24)
+			logger.warn("virtual_threads: Java " + javaVersion() + 
+				" pins a virtual thread which blocks inside synchronized; " +
+				"use Java 24 or later if the JDBC driver synchronizes");
+		logger.info("virtual_threads=" + result);
+		return result;
+	}
+	
+	/**
+	 * Return the major version of the JVM, e.g. 8 for Java 1.8.
+	 */
+	static int javaVersion() {
+		String version = System.getProperty("java.specification.version", "0");
+		if (version.startsWith("1.")) version = version.substring(2);
+		try {
+			return Integer.parseInt(version);
+		}
+		catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+	
+	/**
+	 * Return the connection pool for a database, 
+	 * or null if <b>pool_size</b> is not set.
+	 * There is one pool for each combination of url and username.
+	 */
+	static ConnectionPool getConnectionPool(DatamartConfiguration config) {
+		if (config.getInt("pool_size", 0) < 1) return null;
+		String key = config.getRequiredString("url") + " " + 
+			config.getRequiredString("username");
+		synchronized (pools) {
+			ConnectionPool pool = pools.get(key);
+			if (pool == null) {
+				pool = new ConnectionPool(config);
+				pools.put(key, pool);
+			}
+			return pool;
+		}
+	}
+	
+	/**
+	 * Close the idle connections in all pools.
+	 * Called when the daemon is stopped.
+	 */
+	static void closeConnectionPools() {
+		synchronized (pools) {
+			for (ConnectionPool pool : pools.values())
+				pool.close();
+			pools.clear();
+		}
+	}
+	
 }
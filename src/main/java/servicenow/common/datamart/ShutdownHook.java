@@ -8,7 +8,9 @@ import org.slf4j.Logger;
 
 import servicenow.common.datamart.DatamartConfiguration;
 import servicenow.common.datamart.LoggerFactory;
+import servicenow.common.datamart.ResourceManager;
 import servicenow.common.datamart.ShutdownHook;
+import servicenow.common.soap.PooledTransport;
 
 public class ShutdownHook extends Thread {
 
@@ -53,6 +55,8 @@ public class ShutdownHook extends Thread {
 				logger.error(e.getMessage(), e);
 			}
 		}
+		ResourceManager.closeConnectionPools();
+		PooledTransport.closeAll();
 		if (!terminated) logger.warn("Some threads failed to terminate");
 		logger.info("ShutdownHook complete");
 	}
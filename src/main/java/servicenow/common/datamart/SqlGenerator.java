@@ -2,7 +2,7 @@
 
 import java.io.*;
 import java.util.*;
-import java.sql.Connection;
+import java.util.concurrent.ConcurrentHashMap;
 import java.sql.DatabaseMetaData;
 import java.sql.SQLException;
 
@@ -35,44 +35,37 @@ public class SqlGenerator {
 	
 	static Logger logger = LoggerFactory.getLogger(SqlGenerator.class);
 	
+	private static final ConcurrentHashMap<String,Document> documents =
+		new ConcurrentHashMap<String,Document>();
+	
 	private Document xmldocument;
 	private String dialect;
 	private Element tree;
 	private final String namecase;
 	private final String namequotes;
 	private final String schema;
+	private final int maxInList;
 	NameMap namemap = new NameMap();
 		
 	public SqlGenerator(DatamartConfiguration config, DatabaseWriter database)  
 			throws ResourceException, SQLException {
-		InputStream sqlConfigStream;
-		String templatesName = config.getString("templates", "");
-		if (templatesName.length() > 0)
-			try {
-				sqlConfigStream = new FileInputStream(templatesName);
-			}
-			catch (IOException e) {
-				throw new ResourceException(e);
-			}
-		else { 
-			sqlConfigStream = ClassLoader.getSystemResourceAsStream("sqltemplates.xml");			
-			if (sqlConfigStream == null)
-				throw new ResourceException("Unable to locate resource: sqltemplates.xml");
-			}
-		SAXBuilder xmlbuilder = new SAXBuilder();
-		try {
-			xmldocument = xmlbuilder.build(sqlConfigStream);
-		} catch (IOException e) {
-			throw new ResourceException(e);
-		} catch (JDOMException e) {
-			throw new ResourceException(e);
-		}
-		Connection connection = database.getConnection();
-		this.schema = database.getSchema();
-		setDialect(config.getString("dialect", "default"));
+		this(config.getString("templates", ""), 
+			config.getString("dialect", "default"), 
+			database.getSchema(),
+			database.getConnection().getMetaData());
+	}
+	
+	/**
+	 * Construct a generator for a dialect without a {@link DatabaseWriter}.
+	 * The database metadata is only used if the namecase of the dialect is "auto".
+	 */
+	SqlGenerator(String templatesName, String dialect, String schema, DatabaseMetaData meta) 
+			throws ResourceException, SQLException {
+		xmldocument = getDocument(templatesName);
+		this.schema = schema;
+		setDialect(dialect);
 		this.namemap.loadFromXML(tree.getChild("fieldnames"));
 		Element dialogProps = tree.getChild("properties");
-		DatabaseMetaData meta = connection.getMetaData();
 		
 		String namecaseprop = dialogProps.getChildText("namecase");		
 		if ("upper".equals(namecaseprop)) {
@@ -82,6 +75,8 @@ public class SqlGenerator {
 			namecase = "lower";
 		}
 		else if ("auto".equals(namecaseprop)) {
+			if (meta == null)
+				throw new ResourceException("namecase=auto requires database metadata");
 			if (meta.storesUpperCaseIdentifiers()) 
 				namecase = "upper";
 			else if (meta.storesLowerCaseIdentifiers()) 
@@ -101,7 +96,56 @@ public class SqlGenerator {
 			namequotes = "square";
 		else
 			throw new ResourceException("namequotes=" + namequotesprop);
-		logger.info("namecase=" + namecase + " namequotes=" + namequotes);
+		String maxinlistprop = dialogProps.getChildText("maxinlist");
+		try {
+			maxInList = (maxinlistprop == null) ? 1000 : 
+				Integer.parseInt(maxinlistprop.trim());
+		}
+		catch (NumberFormatException e) {
+			throw new ResourceException("maxinlist=" + maxinlistprop);
+		}
+		logger.info("namecase=" + namecase + " namequotes=" + namequotes + 
+			" maxinlist=" + maxInList);
+	}
+	
+	/**
+	 * Return the parsed templates file.
+	 * The file is parsed once and the document is shared by all generators,
+	 * which only read it.
+	 */
+	static Document getDocument(String templatesName) throws ResourceException {
+		Document document = documents.get(templatesName);
+		if (document != null) return document;
+		InputStream sqlConfigStream;
+		if (templatesName.length() > 0)
+			try {
+				sqlConfigStream = new FileInputStream(templatesName);
+			}
+			catch (IOException e) {
+				throw new ResourceException(e);
+			}
+		else { 
+			sqlConfigStream = ClassLoader.getSystemResourceAsStream("sqltemplates.xml");			
+			if (sqlConfigStream == null)
+				throw new ResourceException("Unable to locate resource: sqltemplates.xml");
+			}
+		SAXBuilder xmlbuilder = new SAXBuilder();
+		try {
+			document = xmlbuilder.build(sqlConfigStream);
+		} catch (IOException e) {
+			throw new ResourceException(e);
+		} catch (JDOMException e) {
+			throw new ResourceException(e);
+		}
+		finally {
+			try {
+				sqlConfigStream.close();
+			} catch (IOException e) {
+				logger.warn("close " + templatesName, e);
+			}
+		}
+		Document previous = documents.putIfAbsent(templatesName, document);
+		return previous == null ? document : previous;
 	}
 	
 	private void setDialect(String dialect) throws ResourceException {
@@ -123,6 +167,12 @@ public class SqlGenerator {
 
 	String getDialect() { return this.dialect; }
 	
+	/**
+	 * Maximum number of values in an SQL IN list (or bind variables 
+	 * in a statement) for this dialect.
+	 */
+	int maxInList() { return this.maxInList; }
+	
 	List<String> getInitializations() {
 		Map<String,String> myvars = new HashMap<String,String>();
 		myvars.put("schema", this.schema);
@@ -206,6 +256,24 @@ public class SqlGenerator {
 		return sqltype;
 	}
 	
+	/**
+	 * Return true if the dialect has a template with this name.
+	 * Some templates (e.g. upsert) are optional.
+	 */
+	boolean hasTemplate(String templateName) {
+		String sql = tree.getChild("templates").getChildText(templateName);
+		return sql != null && sql.trim().length() > 0;
+	}
+	
+	/**
+	 * Return the value of an attribute of a template,
+	 * or null if the template or the attribute is missing.
+	 */
+	String getTemplateAttribute(String templateName, String attrName) {
+		Element template = tree.getChild("templates").getChild(templateName);
+		return (template == null) ? null : template.getAttributeValue(attrName);
+	}
+
 	String getTemplate(String templateName, String tableName) {
 		return getTemplate(templateName, tableName, null);
 	}
@@ -224,10 +292,75 @@ public class SqlGenerator {
 	}
 
 	
+	/**
+	 * Return a statement which inserts a record or updates it if it exists,
+	 * or null if the dialect has no upsert template.
+	 * The bind variables are in the same order as the columns,
+	 * the first of which must be sys_id.
+	 */
+	String getUpsert(String sqlTableName, List<String> columnNames) {
+		if (!hasTemplate("upsert")) return null;
+		final String fieldSeparator = ",\n";
+		StringBuilder fieldnames = new StringBuilder();
+		StringBuilder fieldvalues = new StringBuilder();
+		StringBuilder sourcecolumns = new StringBuilder();
+		StringBuilder sourcenames = new StringBuilder();
+		StringBuilder mergemap = new StringBuilder();
+		StringBuilder excludedmap = new StringBuilder();
+		StringBuilder valuesmap = new StringBuilder();
+		for (int i = 0; i < columnNames.size(); ++i) {
+			String name = sqlQuote(columnNames.get(i));
+			if (i > 0) {
+				fieldnames.append(fieldSeparator);
+				fieldvalues.append(",");
+				sourcecolumns.append(",");
+				sourcenames.append(",");
+			}
+			fieldnames.append(name);
+			fieldvalues.append("?");
+			sourcecolumns.append("? AS " + name);
+			sourcenames.append("S." + name);
+			// sys_id is the key so it is not updated
+			if (i > 0) {
+				if (i > 1) {
+					mergemap.append(fieldSeparator);
+					excludedmap.append(fieldSeparator);
+					valuesmap.append(fieldSeparator);
+				}
+				mergemap.append(name + "=S." + name);
+				excludedmap.append(name + "=excluded." + name);
+				valuesmap.append(name + "=VALUES(" + name + ")");
+			}
+		}
+		HashMap<String,String> map = new HashMap<String,String>();
+		map.put("fieldnames", fieldnames.toString());
+		map.put("fieldvalues", fieldvalues.toString());
+		map.put("sourcecolumns", sourcecolumns.toString());
+		map.put("sourcenames", sourcenames.toString());
+		map.put("mergemap", mergemap.toString());
+		map.put("excludedmap", excludedmap.toString());
+		map.put("valuesmap", valuesmap.toString());
+		return getTemplate("upsert", sqlTableName, map);
+	}
+	
 	String getCreateTable(
 				Table table,
 				String sqlTableName,
 				boolean displayValues) throws SuiteInitException {
+		return getCreateTable(table, sqlTableName, displayValues, null);
+	}
+
+	/**
+	 * Return the "create" statement for a table.
+	 * The template variable $pkname is the name of the primary key 
+	 * constraint, which is the table name with the suffix "_pk" 
+	 * unless <i>pkName</i> is specified.
+	 */
+	String getCreateTable(
+				Table table,
+				String sqlTableName,
+				boolean displayValues,
+				String pkName) throws SuiteInitException {
 		// We may be pulling the schema from a different ServiceNow instance
 		TableSchema tableSchema = ResourceManager.getTableSchema(table.getName());
 		TableWSDL tableWSDL = table.getWSDL();
@@ -259,10 +392,18 @@ public class SqlGenerator {
 		}
 		HashMap<String,String> map = new HashMap<String,String>();
 		map.put("fielddefinitions", fieldlist.toString());		
+		map.put("pkname", pkName == null ? primaryKeyName(sqlTableName) : pkName);
 		String result = getTemplate("create", sqlTableName, map);
 		return result;
 	}
 
+	/**
+	 * Return the default name of the primary key constraint of a table.
+	 */
+	String primaryKeyName(String sqlTableName) {
+		return sqlCase(sqlTableName + "_pk");
+	}
+
 	String sqlFieldDefinition(FieldDefinition fd) {
 		String fieldname = fd.getName();
 		String fieldtype = fd.getType();
@@ -1,13 +1,21 @@
 package servicenow.common.datamart;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.MDC;
 
+import servicenow.common.datamart.DatabaseWriter;
 import servicenow.common.datamart.DatamartConfiguration;
 import servicenow.common.datamart.JobController;
 import servicenow.common.datamart.JobModel;
+import servicenow.common.datamart.JobOperation;
 import servicenow.common.datamart.LoggerFactory;
 import servicenow.common.datamart.PersistentSuite;
 import servicenow.common.datamart.ResourceManager;
@@ -18,6 +26,7 @@ import servicenow.common.datamart.SuiteExecException;
 import servicenow.common.datamart.SuiteInitException;
 import servicenow.common.datamart.SuiteModel;
 import servicenow.common.datamart.SuiteModelException;
+import servicenow.common.soap.DaemonThreadFactory;
 import servicenow.common.soap.DateTime;
 import servicenow.common.soap.Session;
 
@@ -34,6 +43,9 @@ public class SuiteController implements Runnable {
 	// private final SignalMonitor monitor;
 	private final DatamartConfiguration config;
 	private DatabaseWriter writer = null;
+	// a lock rather than a monitor so that a virtual thread 
+	// is not pinned while the suite is running
+	private final ReentrantLock lock = new ReentrantLock();
 	
 	DateTime lastRunStart;
 	DateTime runStart;
@@ -114,20 +126,44 @@ public class SuiteController implements Runnable {
 	Integer getFrequency() { return model.getFrequency(); }
 	
 	
-	synchronized DateTime getRunStart() { 
-		return model.getRunStart(); 
+	DateTime getRunStart() { 
+		lock.lock();
+		try {
+			return model.getRunStart();
+		}
+		finally {
+			lock.unlock();
+		}
 	}
 	
-	synchronized DateTime getNextRunStart() { 
-		return model.getNextRunStart(); 
+	DateTime getNextRunStart() { 
+		lock.lock();
+		try {
+			return model.getNextRunStart();
+		}
+		finally {
+			lock.unlock();
+		}
 	}	
 	
-	synchronized void setStatus(Status newstatus) throws SuiteModelException {
-		model.setStatus(newstatus);
+	void setStatus(Status newstatus) throws SuiteModelException {
+		lock.lock();
+		try {
+			model.setStatus(newstatus);
+		}
+		finally {
+			lock.unlock();
+		}
 	}
 	
-	synchronized Status getStatus() {
-		return model.getStatus();
+	Status getStatus() {
+		lock.lock();
+		try {
+			return model.getStatus();
+		}
+		finally {
+			lock.unlock();
+		}
 	}
 			
 	/**
@@ -181,56 +217,175 @@ public class SuiteController implements Runnable {
 	 * @throws SuiteInitException 
 	 * @throws JDOMException 
 	 */
-	synchronized DateTime startRunning() 
+	DateTime startRunning() 
 			throws InterruptedException, SuiteInitException, SuiteModelException {
 		logger.debug("startRunning");;
-		DateTime result = model.startRunning();
-		// If we are persistent, then we have deferred the loading of jobs
-		// if (isPersistent() && jobs == null)	loadJobs();		
-		assert model.getJobs() != null;
-		return result;
+		lock.lock();
+		try {
+			DateTime result = model.startRunning();
+			// If we are persistent, then we have deferred the loading of jobs
+			// if (isPersistent() && jobs == null)	loadJobs();		
+			assert model.getJobs() != null;
+			return result;
+		}
+		finally {
+			lock.unlock();
+		}
 	}
 	
 	/**
 	 * Run each job once, if it is ready.
 	 * @throws LoaderException 
 	 */
-	public synchronized DateTime runOnce() 
+	public DateTime runOnce() 
 			throws InterruptedException, SuiteInitException, 
 				SuiteExecException, SuiteModelException {
-		assert (getStatus().equals(Status.READY) ||
-				getStatus().equals(Status.QUEUED) ||
-				getStatus().equals(Status.RESUME));
-		if (model.getName() != null) MDC.put("suite", model.getName());
-		lastRunStart = getRunStart();
-		runStart = startRunning();
-		if (model instanceof PersistentSuite) {
-			int jobcount = ((PersistentSuite) model).countJobs();
-			logger.debug("jobcount=" + jobcount);
-			assert getJobs().size() == jobcount :
-				"Jobcount mismatch; database=" + jobcount + " model=" + getJobs().size();
-		}
-		MDC.put("start", runStart.toString());
-		logger.debug("runOnce lastStart=" + lastRunStart + " start=" + runStart);
-		Status newStatus = 
-			isPolling() ? Status.READY : Status.COMPLETE;
+		lock.lock();
+		try {
+			assert (getStatus().equals(Status.READY) ||
+					getStatus().equals(Status.QUEUED) ||
+					getStatus().equals(Status.RESUME));
+			if (model.getName() != null) MDC.put("suite", model.getName());
+			lastRunStart = getRunStart();
+			runStart = startRunning();
+			if (model instanceof PersistentSuite) {
+				int jobcount = ((PersistentSuite) model).countJobs();
+				logger.debug("jobcount=" + jobcount);
+				assert getJobs().size() == jobcount :
+					"Jobcount mismatch; database=" + jobcount + " model=" + getJobs().size();
+			}
+			MDC.put("start", runStart.toString());
+			logger.debug("runOnce lastStart=" + lastRunStart + " start=" + runStart);
+			Status newStatus = 
+				isPolling() ? Status.READY : Status.COMPLETE;
+			int parallelJobs = config.getInt("parallel_jobs", 1);
+			for (List<JobModel> group : groupJobs(readyJobs(), parallelJobs > 1)) {
+				if (group.size() == 1) {
+					JobController jobController = new JobController(this, group.get(0));
+					jobController.runJob(runStart, newStatus);
+				}
+				else {
+					runGroup(group, newStatus, Math.min(parallelJobs, group.size()));
+				}
+			}
+			setStatus(newStatus);
+			return model.getNextRunStart();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Return the jobs with a status of QUEUED, READY, RUNNING or RESUME.
+	 */
+	private List<JobModel> readyJobs() {
+		List<JobModel> result = new ArrayList<JobModel>();
 		for (JobModel job : getJobs()) {
 			String jobname = job.getName();
-			// Only run jobs with a status of QUEUED, READY, RUNNING or RESUME
 			Status jobstatus = job.getStatus();
 			logger.debug(jobname + " status=" + jobstatus);
-			if (!(jobstatus.equals(Status.QUEUED) ||
+			if (jobstatus.equals(Status.QUEUED) ||
 					jobstatus.equals(Status.READY) || 
 					jobstatus.equals(Status.RUNNING) || 
-					jobstatus.equals(Status.RESUME))) {
-				continue;
+					jobstatus.equals(Status.RESUME)) {
+				result.add(job);
 			}
-			JobController jobController = new JobController(this, job);
-			jobController.runJob(runStart, newStatus);
-			
 		}
-		setStatus(newStatus);
-		return model.getNextRunStart();
+		return result;
+	}
+	
+	/**
+	 * Divide the jobs into groups which are run one after another.
+	 * If <i>parallel</i> is true then jobs which are next to each other
+	 * and have the same order are placed in the same group,
+	 * except for SQL jobs and jobs with no order, which are always
+	 * in a group by themselves. Otherwise every job is in its own group.
+	 */
+	static List<List<JobModel>> groupJobs(List<JobModel> jobs, boolean parallel) {
+		List<List<JobModel>> result = new ArrayList<List<JobModel>>();
+		List<JobModel> group = null;
+		Integer groupOrder = null;
+		for (JobModel job : jobs) {
+			Integer order = job.getOrder();
+			boolean alone = !parallel || order == null ||
+				job.getOperation().equals(JobOperation.SQL);
+			if (alone || group == null || !order.equals(groupOrder)) {
+				group = new ArrayList<JobModel>();
+				result.add(group);
+			}
+			group.add(job);
+			groupOrder = alone ? null : order;
+			if (alone) group = null;
+		}
+		return result;
+	}
+	
+	/**
+	 * Run a group of jobs at the same time, each with its own 
+	 * database connection, and wait for all of them to finish.
+	 * If any job fails then the exception is thrown after the
+	 * other jobs in the group have finished, so that no later group is run.
+	 * If more than one job fails then the exception names the failed jobs.
+	 */
+	private void runGroup(List<JobModel> group, final Status newStatus, int threads)
+			throws InterruptedException, SuiteInitException, 
+				SuiteExecException, SuiteModelException {
+		logger.info("run " + group.size() + " jobs order=" + 
+			group.get(0).getOrder() + " parallel_jobs=" + threads);
+		final Map<String,String> context = MDC.getCopyOfContextMap();
+		final DateTime start = runStart;
+		ExecutorService workers = Executors.newFixedThreadPool(threads,
+			new DaemonThreadFactory("job-" + (getName() == null ? "suite" : getName())));
+		List<Future<Void>> results = new ArrayList<Future<Void>>(group.size());
+		for (final JobModel job : group) {
+			results.add(workers.submit(new Callable<Void>() {
+				public Void call() throws Exception {
+					if (context != null) MDC.setContextMap(context);
+					JobController jobController = new JobController(SuiteController.this, job);
+					DatabaseWriter database = new DatabaseWriter(config);
+					try {
+						jobController.runJob(start, newStatus, database);
+					}
+					finally {
+						database.close();
+					}
+					return null;
+				}
+			}));
+		}
+		workers.shutdown();
+		List<String> failed = new ArrayList<String>();
+		Throwable first = null;
+		try {
+			for (int i = 0; i < results.size(); ++i) {
+				try {
+					results.get(i).get();
+				}
+				catch (ExecutionException e) {
+					failed.add(group.get(i).getName());
+					if (first == null) first = e.getCause();
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			workers.shutdownNow();
+			throw e;
+		}
+		if (first == null) return;
+		if (failed.size() > 1) 
+			logger.error(failed.size() + " of " + group.size() + 
+				" jobs failed: " + failed);
+		if (first instanceof InterruptedException) throw (InterruptedException) first;
+		if (first instanceof SuiteInitException) throw (SuiteInitException) first;
+		if (first instanceof SuiteModelException) throw (SuiteModelException) first;
+		if (failed.size() > 1)
+			throw new SuiteExecException(
+				failed.size() + " of " + group.size() + " jobs failed: " + failed, first);
+		if (first instanceof SuiteExecException) throw (SuiteExecException) first;
+		if (first instanceof RuntimeException) throw (RuntimeException) first;
+		if (first instanceof Error) throw (Error) first;
+		throw new SuiteExecException(first);
 	}
 
 }
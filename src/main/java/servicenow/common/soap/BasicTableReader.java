@@ -1,5 +1,6 @@
 package servicenow.common.soap;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.NoSuchElementException;
 
@@ -8,6 +9,7 @@ import servicenow.common.soap.KeyList;
 import servicenow.common.soap.Parameters;
 import servicenow.common.soap.QueryFilter;
 import servicenow.common.soap.RecordList;
+import servicenow.common.soap.RecordProcessor;
 import servicenow.common.soap.SoapResponseException;
 import servicenow.common.soap.Table;
 import servicenow.common.soap.TableReader;
@@ -29,6 +31,9 @@ public class BasicTableReader extends TableReader {
 
 	KeyList keys = null;
 	int firstRow = 0;
+	private boolean ownKeys = true;
+	private File checkpointFile = null;
+	private boolean reuseCheckpoint = false;
 	
 	public BasicTableReader(Table table) throws IOException {
 		super(table);
@@ -50,6 +55,7 @@ public class BasicTableReader extends TableReader {
 		super(table);
 		assert keys != null;
 		this.keys = keys;
+		this.ownKeys = false;
 	}
 
 	public BasicTableReader setFilter(String filter) {
@@ -70,6 +76,34 @@ public class BasicTableReader extends TableReader {
 		this.firstRow = num; 
 	}
 	
+	/**
+	 * Causes the keys to be saved in a memory-mapped file
+	 * once they have been read.
+	 * If <i>reuse</i> is true and the file holds the keys for the same
+	 * table, filter and sort, then the keys are read from the file
+	 * and the <b>getKeys</b> calls are skipped.
+	 * This allows an interrupted load to be resumed using
+	 * {@link #setFirstRowIndex(int)} with the same list of keys.
+	 * <p/>
+	 * The file is retained by {@link #close()}; 
+	 * it is the caller's responsibility to delete it.
+	 */
+	public BasicTableReader setKeyCheckpoint(File file, boolean reuse) {
+		if (started) throw new IllegalStateException();
+		this.checkpointFile = file;
+		this.reuseCheckpoint = reuse;
+		return this;
+	}
+
+	/**
+	 * Identifies the query which produced the keys in a checkpoint.
+	 */
+	String keySignature() {
+		return table.getName() + "\n" + 
+			(filter == null ? "" : filter.toString()) + "\n" +
+			(sort == null ? "" : sort.asParameters().toString());
+	}
+
 	/**
 	 * Returns the zero based index of the first record
 	 * that will be returned by the next call to
@@ -118,10 +152,7 @@ public class BasicTableReader extends TableReader {
 		if (keys == null) getKeys();
 		if (lastRow > keys.size()) lastRow = keys.size();
 		if (lastRow > firstRow) {
-			QueryFilter keyfilter = keys.filter(firstRow, lastRow);
-			Parameters params = new Parameters(keyfilter.asParameters());
-			params.add(getSortParam());
-			params.add(getViewParam());
+			Parameters params = chunkParams(firstRow, lastRow);
 			if (Thread.interrupted()) throw new InterruptedException();
 			chunk = table.getRecords(params);
 			recordsRead += chunk.size();
@@ -135,6 +166,43 @@ public class BasicTableReader extends TableReader {
 		return chunk;
 	}	
 
+	/**
+	 * Streaming version of {@link #nextChunk()}.
+	 * Each record is passed to the processor as it is parsed
+	 * from the response.
+	 */
+	public int nextChunk(RecordProcessor processor) 
+			throws IOException, InterruptedException, 
+				SoapResponseException, NoSuchElementException {
+		if (finished) throw new NoSuchElementException("no more data");
+		assert pageSize > 1;
+		started = true;
+		int count = 0;
+		int lastRow = firstRow + pageSize;
+		if (keys == null) getKeys();
+		if (lastRow > keys.size()) lastRow = keys.size();
+		if (lastRow > firstRow) {
+			Parameters params = chunkParams(firstRow, lastRow);
+			if (Thread.interrupted()) throw new InterruptedException();
+			count = table.getRecords(params, null, processor);
+			recordsRead += count;
+		}
+		finished = (lastRow >= keys.size());
+		firstRow = lastRow;
+		return count;
+	}
+	
+	/**
+	 * Return the getRecords parameters for a slice of the key list.
+	 */
+	protected Parameters chunkParams(int fromIndex, int toIndex) {
+		QueryFilter keyfilter = keys.filter(fromIndex, toIndex);
+		Parameters params = new Parameters(keyfilter.asParameters());
+		params.add(getSortParam());
+		params.add(getViewParam());
+		return params;
+	}
+
 	/**
 	 * This method returns the complete list of keys
 	 * for all records that will be retrieved by this reader.
@@ -145,10 +213,34 @@ public class BasicTableReader extends TableReader {
 			throws IOException, InterruptedException, SoapResponseException {
 		if (this.keys != null) return this.keys;
 		this.started = true;
+		if (checkpointFile != null && reuseCheckpoint) {
+			this.keys = KeyList.openCheckpoint(checkpointFile, keySignature());
+			if (this.keys != null) {
+				logger.info("getKeys from checkpoint " + checkpointFile.getPath() + 
+					" size=" + keys.size());
+				return this.keys;
+			}
+		}
 		KeyReader keyreader = new KeyReader(this.table, this.filter, this.sort);
+		if (checkpointFile != null) keyreader.setSpillFile(checkpointFile);
 		this.keys = keyreader.getAllKeys();
 		logger.debug("getAllKeys size=" + keys.size());
+		if (checkpointFile != null) {
+			if (!keys.checkpoint(keySignature()))
+				logger.warn("unable to checkpoint keys to " + checkpointFile.getPath());
+		}
 		return this.keys;
 	}
+
+	/**
+	 * Releases the key list if it is held in a memory-mapped file.
+	 */
+	@Override
+	public void close() {
+		if (keys != null && ownKeys && keys.isSpilled()) {
+			keys.close();
+			keys = null;
+		}
+	}
 	
 }
@@ -1,13 +1,16 @@
 package servicenow.common.soap;
 
 import java.net.HttpURLConnection;
-import java.util.Enumeration;
-import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 
 import servicenow.common.soap.CookieJar;
 import servicenow.common.soap.Session;
+import servicenow.common.soap.TransportRequest;
+import servicenow.common.soap.TransportResponse;
 
 /**
  * Used to hold the JSESSIONID.
@@ -16,6 +19,10 @@ import servicenow.common.soap.Session;
  * from an HttpURLConnection and write cookies from an HttpConnection. 
  * In the context of this application the CookieJar contains only a single cookie:
  * JSESSIONID. 
+ * <p/>
+ * The jar is shared by all threads which use a {@link Session}.
+ * It uses a concurrent map and a lock rather than synchronized methods,
+ * so that a virtual thread is never pinned while it waits for the jar.
  * 
  * @author Giles Lewis
  */
@@ -23,7 +30,8 @@ public class CookieJar {
 
 	final static Logger log = Session.getLogger(CookieJar.class);
 
-	Hashtable<String,String> jar = new Hashtable<String,String>();
+	final Map<String,String> jar = new ConcurrentHashMap<String,String>();
+	private final ReentrantLock lock = new ReentrantLock();
 
 	/**
 	 * Reads all cookies from an HttpURLConnection and save them in the jar
@@ -31,24 +39,56 @@ public class CookieJar {
 	 * @param connection HTTP Connection from which the cookie will be retrieved
 	 * @param clear If true then empty the jar before loading
 	 */
-	public synchronized void addResponseCookies(HttpURLConnection connection, boolean clear) {
-		if (clear) jar.clear();
-		boolean done = false;
-		for (int i = 1; !done; ++i) {
-			String headerName = connection.getHeaderFieldKey(i);
-			if (headerName == null) 
-				done = true;
-			else {
-				if (headerName.equals("Set-Cookie")) {
-			 		String headerValue = connection.getHeaderField(i);
-			        headerValue = headerValue.substring(0, headerValue.indexOf(";"));
-			        int equalsign = headerValue.indexOf("=");
-			        String cookieName = headerValue.substring(0, equalsign);
-				    String cookieValue = headerValue.substring(equalsign + 1, headerValue.length());
-				    addResponseCookie(cookieName, cookieValue);
+	public void addResponseCookies(HttpURLConnection connection, boolean clear) {
+		lock.lock();
+		try {
+			if (clear) jar.clear();
+			boolean done = false;
+			for (int i = 1; !done; ++i) {
+				String headerName = connection.getHeaderFieldKey(i);
+				if (headerName == null) 
+					done = true;
+				else {
+					if (headerName.equals("Set-Cookie")) 
+						addSetCookie(connection.getHeaderField(i));
 				}
 			}
 		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Reads all cookies from a {@link TransportResponse} and save them in the jar
+	 * 
+	 * @param response HTTP response from which the cookie will be retrieved
+	 * @param clear If true then empty the jar before loading
+	 */
+	public void addResponseCookies(TransportResponse response, boolean clear) {
+		lock.lock();
+		try {
+			if (clear) jar.clear();
+			for (String headerValue : response.getHeaders("Set-Cookie")) {
+				addSetCookie(headerValue);
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Parse the value of a Set-Cookie header and add the cookie to the jar.
+	 */
+	private void addSetCookie(String headerValue) {
+		int semicolon = headerValue.indexOf(";");
+		if (semicolon > -1) headerValue = headerValue.substring(0, semicolon);
+		int equalsign = headerValue.indexOf("=");
+		if (equalsign < 0) return;
+		String cookieName = headerValue.substring(0, equalsign);
+		String cookieValue = headerValue.substring(equalsign + 1, headerValue.length());
+		addResponseCookie(cookieName, cookieValue);
 	}
 	
 	/**
@@ -84,22 +124,36 @@ public class CookieJar {
 	 */
 	String getAllCookies() {
 		StringBuilder cookies = new StringBuilder();
-		Enumeration<String> e = jar.keys();
-		while (e.hasMoreElements()) {
-			String key = e.nextElement();
-			String value = key + "=" + jar.get(key);
+		for (Map.Entry<String,String> entry : jar.entrySet()) {
+			String value = entry.getKey() + "=" + entry.getValue();
 			if (cookies.length() > 0) cookies.append("; ");
 			cookies.append(value);
 		}
 		return cookies.toString();
 	}
 	
+	/**
+	 * Write all the cookies in the jar to a {@link TransportRequest}.
+	 * 
+	 * @param request HTTP request to which cookies will be added as a header
+	 */
+	public void setRequestCookies(TransportRequest request) {
+		if (isEmpty()) {
+			log.debug("setRequestCookies (cookiejar is empty)");
+		}
+		else {
+			String cookies = getAllCookies();
+			request.setHeader("Cookie", cookies);
+			log.debug("setRequestCookies " + cookies);
+		}
+	}
+	
 	/**
 	 * Write all the cookies in the jar to the HttpURLConnection.
 	 * 
 	 * @param connection HTTP Connection to which cookies will be posted using setRequestProperty
 	 */
-	public synchronized void setRequestCookies(HttpURLConnection connection) {
+	public void setRequestCookies(HttpURLConnection connection) {
 		if (isEmpty()) {
 			log.debug("setRequestCookies (cookiejar is empty)");
 		}
@@ -0,0 +1,90 @@
+package servicenow.common.soap;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates named daemon threads for the worker pools in this package,
+ * so that an abandoned pool never prevents the JVM from exiting.
+ * <p/>
+ * If {@link #setVirtualThreads(boolean)} has been called and the JVM
+ * supports virtual threads (Java 21 or later) then the threads are
+ * virtual threads, which are always daemon threads.
+ * The Java 21 API is called by reflection so that this class
+ * still compiles and runs on older versions of Java.
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+
+	private static final Method ofVirtual;
+	private static final Method builderName;
+	private static final Method builderUnstarted;
+	private static volatile boolean virtualThreads = false;
+
+	static {
+		Method m1 = null, m2 = null, m3 = null;
+		try {
+			Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			m1 = Thread.class.getMethod("ofVirtual");
+			m2 = builder.getMethod("name", String.class);
+			m3 = builder.getMethod("unstarted", Runnable.class);
+		}
+		catch (ClassNotFoundException e) {
+			m1 = null;
+		}
+		catch (NoSuchMethodException e) {
+			m1 = null;
+		}
+		ofVirtual = m1;
+		builderName = m2;
+		builderUnstarted = m3;
+	}
+
+	final String prefix;
+	final AtomicInteger count = new AtomicInteger(0);
+
+	public DaemonThreadFactory(String prefix) {
+		this.prefix = prefix;
+	}
+
+	/**
+	 * Return true if the JVM supports virtual threads.
+	 */
+	public static boolean supportsVirtualThreads() {
+		return ofVirtual != null;
+	}
+
+	/**
+	 * Use virtual threads for all threads which are created after this call.
+	 * @return true if virtual threads will be used,
+	 * or false if they are not enabled or not supported by the JVM.
+	 */
+	public static boolean setVirtualThreads(boolean enable) {
+		virtualThreads = enable && supportsVirtualThreads();
+		return virtualThreads;
+	}
+
+	public static boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	public Thread newThread(Runnable task) {
+		String name = prefix + "-" + count.incrementAndGet();
+		if (virtualThreads) return newVirtualThread(name, task);
+		Thread thread = new Thread(task, name);
+		thread.setDaemon(true);
+		return thread;
+	}
+
+	private static Thread newVirtualThread(String name, Runnable task) {
+		try {
+			Object builder = ofVirtual.invoke(null);
+			builder = builderName.invoke(builder, name);
+			return (Thread) builderUnstarted.invoke(builder, task);
+		}
+		catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("unable to create virtual thread", e);
+		}
+	}
+
+}
@@ -1,7 +1,6 @@
 package servicenow.common.soap;
 
 import java.text.DateFormat;
-import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.TimeZone;
@@ -13,21 +12,16 @@ import servicenow.common.soap.InvalidDateTimeException;
  * An immutable class that holds a DateTime field in the string format required 
  * by the XML. This class can convert the value to or from a Java Date.
  * All DateTime fields are represented in GMT.
+ * <p/>
+ * The value is held as milliseconds since 1970-01-01 00:00:00 GMT,
+ * which is computed by {@link #parseMillis(String)} 
+ * without the use of a DateFormat or Calendar.
  */
 public class DateTime implements Comparable<DateTime> {
 
 	public static final int DATE_ONLY = 10; // length of yyyy-MM-dd
 	public static final int DATE_TIME = 19; // length of yyyy-MM-dd HH:mm:ss
 	
-	static ThreadLocal<DateFormat> dateOnlyFormat = 
-			new ThreadLocal<DateFormat>() {
-				protected DateFormat initialValue() {
-					DateFormat df = new SimpleDateFormat("yyyy-MM-dd");
-					df.setTimeZone(TimeZone.getTimeZone("GMT"));
-					return df;
-				}
-			};
-
 	static ThreadLocal<DateFormat> dateTimeFormat = 
 		new ThreadLocal<DateFormat>() {
 			protected DateFormat initialValue() {
@@ -38,7 +32,7 @@ public class DateTime implements Comparable<DateTime> {
 		};
 		
 	private final String str;
-	private final Date dt;
+	private final long millis;
 	
 	/**
 	 * Construct a DateTime object. 
@@ -57,30 +51,139 @@ public class DateTime implements Comparable<DateTime> {
 	 * @throws InvalidDateTimeException
 	 */
 	public DateTime(String value, int fmtlen) throws InvalidDateTimeException {
-		DateFormat df;
-		switch (fmtlen) {
-		case DATE_ONLY : // 10
-			df = dateOnlyFormat.get();
-			break;
-		case DATE_TIME : // 19
-			df = dateTimeFormat.get();
-			break;
-		default :
-			throw new InvalidDateTimeException(value);
-		}
+		this.millis = parseMillis(value, fmtlen);
 		this.str = value;
-		try {
-			this.dt = df.parse(this.str);
+	}
+	
+	public DateTime(Date value) {
+		this(value.getTime());
+	}
+	
+	/**
+	 * Construct a DateTime from milliseconds since 1970-01-01 00:00:00 GMT.
+	 * Any fraction of a second is discarded from the string value
+	 * but retained in {@link #getMillisec()}.
+	 */
+	public DateTime(long millis) {
+		this.millis = millis;
+		this.str = format(millis);
+	}
+	
+	/**
+	 * Convert "yyyy-MM-dd" or "yyyy-MM-dd HH:mm:ss" to milliseconds 
+	 * since 1970-01-01 00:00:00 GMT without creating any objects.
+	 * @throws InvalidDateTimeException
+	 */
+	public static long parseMillis(String value) throws InvalidDateTimeException {
+		return parseMillis(value, value.length());
+	}
+	
+	/**
+	 * Convert a date or datetime to milliseconds since 1970-01-01 00:00:00 GMT.
+	 * <p/>
+	 * As with a lenient SimpleDateFormat, out of range values 
+	 * (e.g. "2014-02-30" or "1970-01-01 25:00:00") roll over.
+	 * Every other character must be a digit or the expected separator.
+	 * Dates use the proleptic Gregorian calendar.
+	 * @param fmtlen Specify 10 if value is "yyyy-MM-DD", 19 if value is "yyyy-MM-dd HH:mm:ss".
+	 * @throws InvalidDateTimeException
+	 */
+	public static long parseMillis(String value, int fmtlen) 
+			throws InvalidDateTimeException {
+		if (fmtlen != DATE_ONLY && fmtlen != DATE_TIME)
+			throw new InvalidDateTimeException(value);
+		if (value.length() != fmtlen)
+			throw new InvalidDateTimeException(value);
+		if (value.charAt(4) != '-' || value.charAt(7) != '-')
+			throw new InvalidDateTimeException(value);
+		int year = digits(value, 0, 4);
+		int month = digits(value, 5, 2);
+		int day = digits(value, 8, 2);
+		long seconds = 0;
+		if (fmtlen == DATE_TIME) {
+			if (value.charAt(10) != ' ' || 
+					value.charAt(13) != ':' || value.charAt(16) != ':')
+				throw new InvalidDateTimeException(value);
+			int hour = digits(value, 11, 2);
+			int minute = digits(value, 14, 2);
+			int second = digits(value, 17, 2);
+			seconds = hour * 3600L + minute * 60L + second;
 		}
-		catch (ParseException e) {
+		if (year < 0 || month < 0 || day < 0 || seconds < 0)
 			throw new InvalidDateTimeException(value);
+		// months outside 1..12 roll into the adjacent years
+		int m0 = month - 1;
+		int yearAdjust = m0 >= 0 ? m0 / 12 : (m0 - 11) / 12;
+		year += yearAdjust;
+		month = m0 - 12 * yearAdjust + 1;
+		long days = daysFromCivil(year, month) + day - 1;
+		return (days * 86400L + seconds) * 1000L;
+	}
+	
+	/**
+	 * Returns the value of a fixed number of decimal digits, or -1
+	 * if any character is not a digit.
+	 */
+	private static int digits(String value, int start, int len) {
+		int result = 0;
+		for (int i = start; i < start + len; ++i) {
+			int c = value.charAt(i) - '0';
+			if (c < 0 || c > 9) return -1;
+			result = result * 10 + c;
 		}
+		return result;
 	}
 	
-	public DateTime(Date value) {
-		DateFormat df = dateTimeFormat.get();
-		this.dt = value;
-		this.str = df.format(value);
+	/**
+	 * Days from 1970-01-01 to the first day of a month.
+	 */
+	private static long daysFromCivil(long year, int month) {
+		long y = month <= 2 ? year - 1 : year;
+		long era = (y >= 0 ? y : y - 399) / 400;
+		long yoe = y - era * 400;
+		long doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5;
+		long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+		return era * 146097 + doe - 719468;
+	}
+	
+	/**
+	 * Format milliseconds as "yyyy-MM-dd HH:mm:ss" in GMT.
+	 */
+	static String format(long millis) {
+		long seconds = millis >= 0 ? millis / 1000L : (millis - 999L) / 1000L;
+		long z = seconds >= 0 ? seconds / 86400L : (seconds - 86399L) / 86400L;
+		int secOfDay = (int) (seconds - z * 86400L);
+		z += 719468;
+		long era = (z >= 0 ? z : z - 146096) / 146097;
+		long doe = z - era * 146097;
+		long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+		long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+		long mp = (5 * doy + 2) / 153;
+		int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+		int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+		long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+		if (year < 0 || year > 9999)
+			return dateTimeFormat.get().format(new Date(millis));
+		char[] buf = new char[DATE_TIME];
+		put(buf, 0, (int) year, 4);
+		buf[4] = '-';
+		put(buf, 5, month, 2);
+		buf[7] = '-';
+		put(buf, 8, day, 2);
+		buf[10] = ' ';
+		put(buf, 11, secOfDay / 3600, 2);
+		buf[13] = ':';
+		put(buf, 14, (secOfDay / 60) % 60, 2);
+		buf[16] = ':';
+		put(buf, 17, secOfDay % 60, 2);
+		return new String(buf);
+	}
+	
+	private static void put(char[] buf, int start, int value, int len) {
+		for (int i = start + len - 1; i >= start; --i) {
+			buf[i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
 	}
 	
 	public DateFormat getDateTimeFormat() {
@@ -92,15 +195,15 @@ public class DateTime implements Comparable<DateTime> {
 	}
 	
 	public Date toDate() {
-		return dt;
+		return new Date(millis);
 	}
 
 	public long getMillisec() {
-		return dt.getTime();
+		return millis;
 	}
 	
 	public long getSeconds() {
-		return dt.getTime() / 1000;
+		return millis / 1000;
 	}
 	
 	public boolean equals(Object another) {
@@ -119,9 +222,7 @@ public class DateTime implements Comparable<DateTime> {
 	 * DateTime objects are immutable.
 	 */
 	public DateTime addSeconds(int seconds) {
-		long millis = this.toDate().getTime();
-		millis += (1000 * seconds);
-		return new DateTime(new Date(millis));		
+		return new DateTime(millis + 1000L * seconds);		
 	}
 	
 	/**
@@ -140,7 +241,7 @@ public class DateTime implements Comparable<DateTime> {
 	 * @return Current datetime.
 	 */
 	public static DateTime now() {
-		return new DateTime(new Date());
+		return new DateTime(System.currentTimeMillis());
 	}
 
 	/**
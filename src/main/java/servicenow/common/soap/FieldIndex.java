@@ -0,0 +1,51 @@
+package servicenow.common.soap;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * This is a "private" class used by {@link Record}
+ * to map field names to positions in an array of values.
+ * <p/>
+ * One index is built for each {@link TableWSDL} from the read column names,
+ * so that the values of a record can be held in a <code>String[]</code>
+ * rather than looked up by scanning the children of an XML element.
+ */
+class FieldIndex {
+
+	private final String[] names;
+	private final HashMap<String,Integer> positions;
+
+	FieldIndex(List<String> names) {
+		int size = names.size();
+		this.names = names.toArray(new String[size]);
+		this.positions = new HashMap<String,Integer>(2 * size);
+		for (int i = 0; i < size; ++i) {
+			String name = this.names[i];
+			if (!positions.containsKey(name)) positions.put(name, i);
+		}
+	}
+
+	/**
+	 * Number of fields in the index.
+	 */
+	int size() {
+		return names.length;
+	}
+
+	/**
+	 * Returns the position of a field, or -1 if the field is not in the index.
+	 */
+	int indexOf(String name) {
+		Integer result = positions.get(name);
+		return result == null ? -1 : result.intValue();
+	}
+
+	/**
+	 * Returns the name of the field at a position.
+	 */
+	String getName(int index) {
+		return names[index];
+	}
+
+}
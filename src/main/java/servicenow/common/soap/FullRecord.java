@@ -10,7 +10,7 @@ public class FullRecord extends Record {
 			throw new SoapResponseException(this.table, 
 				"Missing sys_id in SOAP response" + 
 				" (probably a missing Access Control)", getXML());
-		if (this.createdTimestamp == null)
+		if (getField("sys_created_on", false) == null)
 			throw new SoapResponseException(this.table, 
 				"Missing sys_created_on", getXML());
 	}
@@ -0,0 +1,58 @@
+package servicenow.common.soap;
+
+import servicenow.common.soap.KeyStore;
+
+/**
+ * {@link KeyStore} backed by two long arrays.
+ */
+class HeapKeyStore extends KeyStore {
+
+	private static final long[] EMPTY = new long[0];
+
+	long[] hi;
+	long[] lo;
+
+	HeapKeyStore(int capacity) {
+		this.hi = capacity == 0 ? EMPTY : new long[capacity];
+		this.lo = capacity == 0 ? EMPTY : new long[capacity];
+	}
+
+	int capacity() {
+		return hi.length;
+	}
+
+	long hi(int index) {
+		return hi[index];
+	}
+
+	long lo(int index) {
+		return lo[index];
+	}
+
+	void put(int index, long h, long l) {
+		hi[index] = h;
+		lo[index] = l;
+	}
+
+	void ensureCapacity(int minCapacity, int size) {
+		if (minCapacity <= hi.length) return;
+		int capacity = Math.max(minCapacity, hi.length + (hi.length >> 1) + 1);
+		long[] newhi = new long[capacity];
+		long[] newlo = new long[capacity];
+		System.arraycopy(hi, 0, newhi, 0, size);
+		System.arraycopy(lo, 0, newlo, 0, size);
+		hi = newhi;
+		lo = newlo;
+	}
+
+	void move(int fromIndex, int toIndex, int length) {
+		System.arraycopy(hi, fromIndex, hi, toIndex, length);
+		System.arraycopy(lo, fromIndex, lo, toIndex, length);
+	}
+
+	void swap(int i, int j) {
+		long h = hi[i]; hi[i] = hi[j]; hi[j] = h;
+		long l = lo[i]; lo[i] = lo[j]; lo[j] = l;
+	}
+
+}
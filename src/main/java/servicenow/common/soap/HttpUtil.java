@@ -5,11 +5,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
-import java.net.HttpURLConnection;
 import java.util.zip.GZIPInputStream;
 
 /**
- * Static functions for reading an HttpURLConnection
+ * Static functions for reading a {@link TransportResponse}
  */
 class HttpUtil {
 
@@ -39,33 +38,37 @@ class HttpUtil {
 	}
 	
 	/**
-	 * Read the connection input into a String, inflating if necessary
+	 * Read the response body into a String, inflating if necessary,
+	 * and close the response.
 	 */
-	static String readFully(HttpURLConnection connection) throws IOException {
-		String responseEncoding = connection.getContentEncoding();
+	static String readFully(TransportResponse response) throws IOException {
+		String responseEncoding = response.getContentEncoding();
 		boolean responseCompressed = "gzip".equals(responseEncoding);
-		return readFully(connection.getInputStream(), responseCompressed);	
+		InputStream input = response.getBody();
+		if (input == null) return "";
+		try {
+			return readFully(input, responseCompressed);
+		}
+		finally {
+			input.close();
+		}
 	}
 	
 	/**
 	 * Return all HTTP headers in a format suitable for debugging.
 	 */
-	static String getAllHeaders(HttpURLConnection connection) {
+	static String getAllHeaders(TransportResponse response) {
 		StringBuilder buf = new StringBuilder();
-		int i = 0; String key; String value;
-		do {
-			key = connection.getHeaderFieldKey(i);
-			value = connection.getHeaderField(i++);
-			if (key != null || value != null) {
-				if (key != null) {
-					buf.append(key); 
-					buf.append("="); 
-				}
-				buf.append(value); 
-				buf.append("\n");
-			}
+		buf.append(response.getStatusCode());
+		buf.append(" ");
+		buf.append(response.getStatusMessage());
+		buf.append("\n");
+		for (int i = 0; i < response.numHeaders(); ++i) {
+			buf.append(response.getHeaderName(i)); 
+			buf.append("="); 
+			buf.append(response.getHeaderValue(i)); 
+			buf.append("\n");
 		}
-		while (key != null || value != null);
 		return buf.toString();
 	}
 	
@@ -24,9 +24,13 @@ public class InsertResponse {
 		this.ns = this.element.getNamespace();
 	}
 	
+	/**
+	 * Returns the sys_id of the inserted record,
+	 * or null if the response has no sys_id or an empty sys_id.
+	 */
 	public Key getSysId() {		
-		String sysid = element.getChildText("sys_id", ns);
-		return (sysid == null) ? null : new Key(sysid);
+		String sysid = element.getChildTextTrim("sys_id", ns);
+		return (sysid == null || sysid.length() == 0) ? null : new Key(sysid);
 	}
 	
 	public String getNumber() {
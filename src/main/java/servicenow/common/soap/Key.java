@@ -26,7 +26,12 @@ public final class Key {
 	}
 	
 	public boolean equals(Object other) {
-		return this.value.equals(other.toString());
+		if (!(other instanceof Key)) return false;
+		return this.value.equals(((Key) other).value);
+	}
+	
+	public int hashCode() {
+		return this.value.hashCode();
 	}
 		
 	static public boolean isValidGUID(String v) {
@@ -1,59 +1,355 @@
 package servicenow.common.soap;
 
+import java.io.File;
+import java.io.IOError;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractList;
 import java.util.ArrayList;
-import java.util.Hashtable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.TreeMap;
 
+import servicenow.common.soap.HeapKeyStore;
 import servicenow.common.soap.Key;
+import servicenow.common.soap.KeyStore;
+import servicenow.common.soap.MappedKeyStore;
 import servicenow.common.soap.QueryFilter;
 
 /**
- * Holds a list of <b>sys_id</b>s (GUIDs) 
- * as returned from a <b>getKeys</b> Web Services call. 
+ * Holds a list of <b>sys_id</b>s (GUIDs)
+ * as returned from a <b>getKeys</b> Web Services call.
+ * <p/>
+ * Each GUID (32 lower case hex digits) is packed into two longs,
+ * so a list of keys requires about 16 bytes per entry
+ * rather than a {@link Key} and a String per entry.
+ * Values which are not GUIDs are held as Strings.
+ * {@link Key} objects are created on demand by {@link #get(int)}.
+ * <p/>
+ * Keys are sorted by their string value.
+ * {@link #binarySearch(Key)} and {@link #minus(KeyList)}
+ * may be used to compare lists.
+ * <p/>
+ * If {@link #setSpill(File, int)} has been called, the keys are moved
+ * to a memory-mapped file once the list grows beyond the threshold.
+ * A spilled list can be saved as a checkpoint using
+ * {@link #checkpoint(String)} and reopened using
+ * {@link #openCheckpoint(File, String)}.
+ * {@link #close()} should be called when a spilled list is no longer needed.
  * <p/>
  * @see <a href=
  * "http://wiki.servicenow.com/index.php?title=Direct_Web_Service_API_Functions#getKeys"
  * >http://wiki.servicenow.com/index.php?title=Direct_Web_Service_API_Functions</a>
- * 
+ *
  */
-public class KeyList extends ArrayList<Key> {
+public class KeyList extends AbstractList<Key>
+		implements RandomAccess, Serializable {
 
 	private static final long serialVersionUID = 1L;
 
+	static final int GUID_LENGTH = 32;
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	// The high and low halves of each GUID.
+	// The sign bit is flipped so that signed comparison
+	// of the longs gives the same order as comparison of the strings.
+	private transient KeyStore store;
+	// Values which are not GUIDs by index; null if there are none
+	private transient TreeMap<Integer,String> other = null;
+	private transient int size = 0;
+
+	// Spill settings
+	private transient int spillThreshold = Integer.MAX_VALUE;
+	private transient File spillFile = null;
+	private transient boolean spillTemporary = false;
+	transient int segmentKeys = MappedKeyStore.DEFAULT_SEGMENT_KEYS;
+
 	public KeyList() {
-		super();
+		this(10);
 	}
-	
+
 	public KeyList(int size) {
-		super(size);
+		if (size < 0) throw new IllegalArgumentException("size=" + size);
+		this.store = new HeapKeyStore(size);
+	}
+
+	public KeyList(Collection<Key> keys) {
+		this(keys.size());
+		addAll(keys);
+	}
+
+	private KeyList(MappedKeyStore store, int size) {
+		this.store = store;
+		this.size = size;
+		this.spillFile = store.file;
+		this.segmentKeys = store.segmentKeys;
+	}
+
+	/**
+	 * Causes the list to be moved to a memory-mapped file
+	 * once it grows beyond a threshold.
+	 * Lists which contain values that are not GUIDs are not moved.
+	 *
+	 * @param file The file, or a directory (or null) in which to create
+	 * a temporary file which is deleted by {@link #close()}.
+	 * @param threshold Number of keys above which the list is moved.
+	 */
+	public void setSpill(File file, int threshold) {
+		if (threshold < 0)
+			throw new IllegalArgumentException("threshold=" + threshold);
+		this.spillFile = file;
+		this.spillThreshold = threshold;
+	}
+
+	/**
+	 * Returns true if this list is held in a memory-mapped file.
+	 */
+	public boolean isSpilled() {
+		return store instanceof MappedKeyStore;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public Key get(int index) {
+		rangeCheck(index);
+		return new Key(getString(index));
+	}
+
+	/**
+	 * Returns the sys_id at the specified index without creating a {@link Key}.
+	 */
+	String getString(int index) {
+		if (isOther(index)) return other.get(index);
+		char[] buf = new char[GUID_LENGTH];
+		writeHex(buf, 0, store.hi(index));
+		writeHex(buf, 16, store.lo(index));
+		return new String(buf);
+	}
+
+	public Key set(int index, Key key) {
+		rangeCheck(index);
+		Key old = get(index);
+		put(index, key.toString());
+		return old;
+	}
+
+	public boolean add(Key key) {
+		add(key.toString());
+		return true;
+	}
+
+	void add(String value) {
+		add(value, 0, value.length());
+	}
+
+	/**
+	 * Append the sys_id found in a substring of a comma separated list
+	 * without first extracting the substring.
+	 */
+	void add(String list, int start, int end) {
+		ensureCapacity(size + 1);
+		modCount++;
+		size++;
+		put(size - 1, list, start, end);
+	}
+
+	public Key remove(int index) {
+		rangeCheck(index);
+		Key old = get(index);
+		int tail = size - index - 1;
+		if (tail > 0) store.move(index + 1, index, tail);
+		if (other != null) {
+			TreeMap<Integer,String> shifted = new TreeMap<Integer,String>();
+			for (Map.Entry<Integer,String> entry : other.entrySet()) {
+				int i = entry.getKey();
+				if (i < index) shifted.put(i, entry.getValue());
+				if (i > index) shifted.put(i - 1, entry.getValue());
+			}
+			other = shifted.isEmpty() ? null : shifted;
+		}
+		size--;
+		modCount++;
+		return old;
+	}
+
+	public void clear() {
+		modCount++;
+		size = 0;
+		other = null;
+	}
+
+	public boolean addAll(Collection<? extends Key> keys) {
+		if (!(keys instanceof KeyList)) return super.addAll(keys);
+		KeyList src = (KeyList) keys;
+		int n = src.size;
+		if (n == 0) return false;
+		ensureCapacity(size + n);
+		if (store instanceof HeapKeyStore && src.store instanceof HeapKeyStore) {
+			HeapKeyStore from = (HeapKeyStore) src.store;
+			HeapKeyStore to = (HeapKeyStore) store;
+			System.arraycopy(from.hi, 0, to.hi, size, n);
+			System.arraycopy(from.lo, 0, to.lo, size, n);
+		}
+		else {
+			for (int i = 0; i < n; ++i)
+				store.put(size + i, src.store.hi(i), src.store.lo(i));
+		}
+		if (src.other != null) {
+			if (other == null) other = new TreeMap<Integer,String>();
+			for (Map.Entry<Integer,String> entry : src.other.entrySet())
+				other.put(size + entry.getKey(), entry.getValue());
+		}
+		size += n;
+		modCount++;
+		return true;
+	}
+
+	public void ensureCapacity(int minCapacity) {
+		if (minCapacity <= store.capacity()) return;
+		try {
+			if (minCapacity > spillThreshold && !isSpilled() && other == null)
+				spill(minCapacity);
+			else
+				store.ensureCapacity(minCapacity, size);
+		}
+		catch (IOException e) {
+			throw new IOError(e);
+		}
+	}
+
+	/**
+	 * Move the keys from the heap to a memory-mapped file.
+	 */
+	private void spill(int minCapacity) throws IOException {
+		File file = spillFile;
+		if (file == null || file.isDirectory()) {
+			file = File.createTempFile("keys", ".dat", file);
+			spillTemporary = true;
+		}
+		MappedKeyStore mapped = MappedKeyStore.create(file, minCapacity, segmentKeys);
+		for (int i = 0; i < size; ++i)
+			mapped.put(i, store.hi(i), store.lo(i));
+		store = mapped;
+		spillFile = file;
+	}
+
+	/**
+	 * Write this list to its spill file (moving it there if necessary)
+	 * and mark the file as complete so that it can be reopened
+	 * using {@link #openCheckpoint(File, String)}.
+	 *
+	 * @param signature Identifies the query which produced the keys.
+	 * @return false if the list could not be saved because it has no spill file
+	 * or it contains values which are not GUIDs.
+	 */
+	public boolean checkpoint(String signature) throws IOException {
+		if (other != null || spillFile == null || spillTemporary) return false;
+		if (spillFile.isDirectory()) return false;
+		if (!isSpilled()) spill(size);
+		MappedKeyStore mapped = (MappedKeyStore) store;
+		mapped.setHeader(size, true, signature);
+		mapped.force();
+		return true;
+	}
+
+	/**
+	 * Reopen a list which was saved using {@link #checkpoint(String)}.
+	 *
+	 * @return The list, or null if the file does not exist,
+	 * is incomplete or was saved with a different signature.
+	 */
+	public static KeyList openCheckpoint(File file, String signature) throws IOException {
+		MappedKeyStore store = MappedKeyStore.open(
+			file, signature, MappedKeyStore.DEFAULT_SEGMENT_KEYS);
+		if (store == null) return null;
+		return new KeyList(store, store.storedSize());
+	}
+
+	/**
+	 * Releases the spill file (if any).
+	 * A temporary spill file is deleted; a checkpoint file is retained.
+	 * The list is empty after this method is called.
+	 */
+	public void close() {
+		store.close();
+		if (spillTemporary && spillFile != null) {
+			spillFile.delete();
+			spillFile = null;
+			spillTemporary = false;
+		}
+		store = new HeapKeyStore(0);
+		clear();
+	}
+
+	public int indexOf(Object obj) {
+		if (!(obj instanceof Key)) return -1;
+		String value = obj.toString();
+		if (isGUID(value, 0, value.length())) {
+			long h = parseHex(value, 0);
+			long l = parseHex(value, 16);
+			for (int i = 0; i < size; ++i)
+				if (store.hi(i) == h && store.lo(i) == l && !isOther(i)) return i;
+		}
+		else if (other != null) {
+			for (Map.Entry<Integer,String> entry : other.entrySet())
+				if (value.equals(entry.getValue())) return entry.getKey();
+		}
+		return -1;
+	}
+
+	public boolean contains(Object obj) {
+		return indexOf(obj) >= 0;
 	}
-	
+
 	/**
 	 * Returns the complete list as a comma separated list of sys_ids.
 	 */
 	public String toString() {
 		return getSlice(0, size());
 	}
-	
+
 	/**
 	 * Returns a subset of the list as comma separated string.
 	 * Used to construct encoded queries.
 	 * The number of entries returned is (toIndex - fromIndex).
-	 * An exception may occur if toIndex < 0 or fromIndex > size() 
-	 * 
+	 * An exception may occur if toIndex < 0 or fromIndex > size()
+	 *
 	 * @param fromIndex Zero based starting index (inclusive).
 	 * @param toIndex Zero based ending index (exclusive).
-	 * @return A comma separated list of sys_ids suitable for use in 
+	 * @return A comma separated list of sys_ids suitable for use in
 	 * constructing an encoded query.
 	 */
 	private String getSlice(int fromIndex, int toIndex) {
-		StringBuilder result = new StringBuilder();
+		StringBuilder result = new StringBuilder(
+			Math.max(0, toIndex - fromIndex) * (GUID_LENGTH + 1));
+		appendSlice(result, fromIndex, toIndex);
+		return result.toString();
+	}
+
+	private void appendSlice(StringBuilder result, int fromIndex, int toIndex) {
+		if (fromIndex < 0 || toIndex > size || fromIndex > toIndex)
+			throw new IndexOutOfBoundsException(
+				"fromIndex=" + fromIndex + " toIndex=" + toIndex + " size=" + size);
+		char[] buf = new char[GUID_LENGTH];
 		for (int i = fromIndex; i < toIndex; ++i) {
-			if (i > fromIndex) result.append(",");
-			result.append(get(i).toString());
+			if (i > fromIndex) result.append(',');
+			if (isOther(i)) {
+				result.append(other.get(i));
+			}
+			else {
+				writeHex(buf, 0, store.hi(i));
+				writeHex(buf, 16, store.lo(i));
+				result.append(buf);
+			}
 		}
-		return result.toString();
 	}
-	
+
 	/**
 	 * Returns a {@link QueryFilter}
 	 * that selects all the records in a subset of this list.
@@ -61,22 +357,272 @@ public class KeyList extends ArrayList<Key> {
 	 * @param toIndex Zero based ending index (exclusive).
 	 */
 	public QueryFilter filter(int fromIndex, int toIndex) {
-		String queryStr = "sys_idIN" + this.getSlice(fromIndex, toIndex);
-		return new QueryFilter(queryStr);
+		StringBuilder queryStr =
+			new StringBuilder(8 + Math.max(0, toIndex - fromIndex) * (GUID_LENGTH + 1));
+		queryStr.append("sys_idIN");
+		appendSlice(queryStr, fromIndex, toIndex);
+		return new QueryFilter(queryStr.toString());
 	}
-	
+
 	public QueryFilter queryFilter() {
 		return this.filter(0,  this.size());
 	}
-	
+
+	/**
+	 * Sorts this list in ascending order by sys_id.
+	 */
+	public void sort() {
+		modCount++;
+		if (other == null) {
+			quickSort(0, size - 1);
+		}
+		else {
+			// rare case; values which are not GUIDs
+			ArrayList<String> values = new ArrayList<String>(size);
+			for (int i = 0; i < size; ++i) values.add(getString(i));
+			Collections.sort(values);
+			other = null;
+			for (int i = 0; i < size; ++i) put(i, values.get(i));
+		}
+	}
+
+	/**
+	 * Returns true if this list is sorted in ascending order by sys_id.
+	 */
+	public boolean isSorted() {
+		for (int i = 1; i < size; ++i)
+			if (compare(i - 1, i) > 0) return false;
+		return true;
+	}
+
+	/**
+	 * Searches a sorted list for a key.
+	 * The result is undefined if the list is not sorted.
+	 *
+	 * @return The index of the key if it is in the list; otherwise
+	 * <tt>(-(<i>insertion point</i>) - 1)</tt>
+	 * as for {@link Collections#binarySearch(java.util.List, Object)}.
+	 */
+	public int binarySearch(Key key) {
+		String value = key.toString();
+		boolean guid = isGUID(value, 0, value.length());
+		long h = guid ? parseHex(value, 0) : 0;
+		long l = guid ? parseHex(value, 16) : 0;
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp;
+			if (guid && !isOther(mid))
+				cmp = compare(store.hi(mid), store.lo(mid), h, l);
+			else
+				cmp = getString(mid).compareTo(value);
+			if (cmp < 0)
+				low = mid + 1;
+			else if (cmp > 0)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -(low + 1);
+	}
+
+	/**
+	 * Returns a new list containing the keys in this list
+	 * which are not in another list.
+	 * The order of this list is preserved.
+	 * Neither list is modified.
+	 */
+	public KeyList minus(KeyList another) {
+		KeyList sorted = new KeyList(another.size);
+		sorted.addAll(another);
+		sorted.sort();
+		KeyList result = new KeyList(this.size);
+		for (int i = 0; i < size; ++i) {
+			if (isOther(i)) {
+				String value = other.get(i);
+				if (sorted.binarySearch(new Key(value)) < 0)
+					result.add(value);
+			}
+			else {
+				long h = store.hi(i), l = store.lo(i);
+				if (sorted.binarySearch(h, l) < 0)
+					result.append(h, l);
+			}
+		}
+		return result;
+	}
+
 	/**
 	 * Return the number of unique values in this list of keys.
 	 */
 	int uniqueCount() {
-		Hashtable<Key,Boolean> hash = new Hashtable<Key,Boolean>(this.size());
-		for (Key key : this) {
-			hash.put(key, true);
+		if (size == 0) return 0;
+		KeyList sorted = new KeyList(size);
+		sorted.addAll(this);
+		sorted.sort();
+		int count = 1;
+		for (int i = 1; i < size; ++i)
+			if (sorted.compare(i - 1, i) != 0) count++;
+		return count;
+	}
+
+	private void rangeCheck(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("index=" + index + " size=" + size);
+	}
+
+	private boolean isOther(int index) {
+		return other != null && other.containsKey(index);
+	}
+
+	private void append(long h, long l) {
+		ensureCapacity(size + 1);
+		store.put(size, h, l);
+		size++;
+		modCount++;
+	}
+
+	private void put(int index, String value) {
+		put(index, value, 0, value.length());
+	}
+
+	private void put(int index, String list, int start, int end) {
+		if (isGUID(list, start, end)) {
+			store.put(index, parseHex(list, start), parseHex(list, start + 16));
+			if (other != null) {
+				other.remove(index);
+				if (other.isEmpty()) other = null;
+			}
+		}
+		else {
+			if (other == null) other = new TreeMap<Integer,String>();
+			other.put(index, list.substring(start, end));
+			store.put(index, 0, 0);
+		}
+	}
+
+	private int binarySearch(long h, long l) {
+		if (other != null) {
+			char[] buf = new char[GUID_LENGTH];
+			writeHex(buf, 0, h);
+			writeHex(buf, 16, l);
+			return binarySearch(new Key(new String(buf)));
+		}
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = compare(store.hi(mid), store.lo(mid), h, l);
+			if (cmp < 0)
+				low = mid + 1;
+			else if (cmp > 0)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -(low + 1);
+	}
+
+	private int compare(int i, int j) {
+		if (isOther(i) || isOther(j))
+			return getString(i).compareTo(getString(j));
+		return compare(store.hi(i), store.lo(i), store.hi(j), store.lo(j));
+	}
+
+	private static int compare(long h1, long l1, long h2, long l2) {
+		if (h1 != h2) return h1 < h2 ? -1 : 1;
+		if (l1 != l2) return l1 < l2 ? -1 : 1;
+		return 0;
+	}
+
+	/**
+	 * In-place quicksort of the store.
+	 * Only used when all values are GUIDs.
+	 */
+	private void quickSort(int left, int right) {
+		KeyStore s = store;
+		while (right - left > 16) {
+			int mid = (left + right) >>> 1;
+			// median of three
+			if (compare(mid, left) < 0) s.swap(mid, left);
+			if (compare(right, left) < 0) s.swap(right, left);
+			if (compare(right, mid) < 0) s.swap(right, mid);
+			long ph = s.hi(mid), pl = s.lo(mid);
+			int i = left, j = right;
+			while (i <= j) {
+				while (compare(s.hi(i), s.lo(i), ph, pl) < 0) i++;
+				while (compare(s.hi(j), s.lo(j), ph, pl) > 0) j--;
+				if (i <= j) s.swap(i++, j--);
+			}
+			// recurse into the smaller partition
+			if (j - left < right - i) {
+				quickSort(left, j);
+				left = i;
+			}
+			else {
+				quickSort(i, right);
+				right = j;
+			}
+		}
+		// insertion sort for small ranges
+		for (int i = left + 1; i <= right; ++i) {
+			long h = s.hi(i), l = s.lo(i);
+			int j = i - 1;
+			while (j >= left && compare(s.hi(j), s.lo(j), h, l) > 0) {
+				s.put(j + 1, s.hi(j), s.lo(j));
+				j--;
+			}
+			s.put(j + 1, h, l);
+		}
+	}
+
+	/**
+	 * Returns true if the substring is 32 lower case hex digits.
+	 */
+	static boolean isGUID(String s, int start, int end) {
+		if (end - start != GUID_LENGTH) return false;
+		for (int i = start; i < end; ++i)
+			if (hexValue(s.charAt(i)) < 0) return false;
+		return true;
+	}
+
+	private static int hexValue(char c) {
+		if (c >= '0' && c <= '9') return c - '0';
+		if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+		return -1;
+	}
+
+	private static long parseHex(String s, int start) {
+		long result = 0;
+		for (int i = start; i < start + 16; ++i)
+			result = (result << 4) | hexValue(s.charAt(i));
+		return result ^ Long.MIN_VALUE;
+	}
+
+	private static void writeHex(char[] buf, int offset, long value) {
+		value ^= Long.MIN_VALUE;
+		for (int i = offset + 15; i >= offset; --i) {
+			buf[i] = HEX[(int) (value & 0xf)];
+			value >>>= 4;
 		}
-		return hash.size();
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		out.writeInt(size);
+		for (int i = 0; i < size; ++i)
+			out.writeUTF(getString(i));
+	}
+
+	private void readObject(ObjectInputStream in)
+			throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		int n = in.readInt();
+		store = new HeapKeyStore(n);
+		spillThreshold = Integer.MAX_VALUE;
+		segmentKeys = MappedKeyStore.DEFAULT_SEGMENT_KEYS;
+		for (int i = 0; i < n; ++i)
+			add(in.readUTF());
 	}
 }
@@ -1,5 +1,6 @@
 package servicenow.common.soap;
 
+import java.io.File;
 import java.io.IOException;
 
 import servicenow.common.soap.KeyList;
@@ -28,6 +29,9 @@ class KeyReader {
 	int firstRow = 0;
 	boolean done = false;
 	Integer expectedCount;
+	final int spillThreshold;
+	File spillFile = null;
+	File spillDir = null;
 	
 	public KeyReader(Table table, QueryFilter filter, QuerySort sort) 
 			throws IOException {
@@ -39,6 +43,10 @@ class KeyReader {
 		TableConfiguration config = table.getConfiguration();
 		this.chunkSize = config.getInt("getkeys_chunk",
 				config.getInt("getkeys_limit",  DEFAULT_GETKEYS_CHUNKSIZE));
+		// number of keys above which the list is moved to a memory-mapped file
+		this.spillThreshold = config.getInt("keys_spill_threshold", 0);
+		String spillDir = config.getString("keys_spill_dir", null);
+		if (spillDir != null) this.spillDir = new File(spillDir);
 		// checkCount adds overhead of an additional Web Services "aggregate" call
 		checkCount = table.session.aggregates;
 		if (checkCount) {
@@ -50,6 +58,14 @@ class KeyReader {
 		}
 	}
 
+	/**
+	 * Causes the keys to be written to the specified file
+	 * so that the list can be saved as a checkpoint.
+	 */
+	void setSpillFile(File file) {
+		this.spillFile = file;
+	}
+
 	protected KeyList nextKeyChunk() 
 			throws IOException, SoapResponseException {
 		if (done) throw new IllegalStateException();
@@ -79,7 +95,16 @@ class KeyReader {
 	
 	public KeyList getAllKeys() 
 			throws IOException, InterruptedException, SoapResponseException {
-		KeyList result = new KeyList();
+		int capacity = (expectedCount == null) ? 10 : expectedCount.intValue();
+		if (spillFile != null || spillThreshold > 0) {
+			// do not allocate more heap than the threshold
+			capacity = Math.min(capacity, spillThreshold);
+		}
+		KeyList result = new KeyList(capacity);
+		if (spillFile != null) 
+			result.setSpill(spillFile, spillThreshold);
+		else if (spillThreshold > 0)
+			result.setSpill(spillDir, spillThreshold);
 		int count = 0;
 		while (!done) {
 			if (Thread.interrupted()) throw new InterruptedException();
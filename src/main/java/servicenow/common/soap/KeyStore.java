@@ -0,0 +1,53 @@
+package servicenow.common.soap;
+
+import java.io.IOException;
+
+import servicenow.common.soap.KeyList;
+
+/**
+ * This is a "private" class used by {@link KeyList}
+ * to hold the packed (hi, lo) halves of each GUID.
+ */
+abstract class KeyStore {
+
+	abstract int capacity();
+
+	abstract long hi(int index);
+
+	abstract long lo(int index);
+
+	abstract void put(int index, long hi, long lo);
+
+	/**
+	 * Increase the capacity to at least minCapacity,
+	 * preserving the first <i>size</i> entries.
+	 */
+	abstract void ensureCapacity(int minCapacity, int size) throws IOException;
+
+	/**
+	 * Copy entries within the store as for System.arraycopy.
+	 */
+	void move(int fromIndex, int toIndex, int length) {
+		if (fromIndex > toIndex) {
+			for (int i = 0; i < length; ++i)
+				put(toIndex + i, hi(fromIndex + i), lo(fromIndex + i));
+		}
+		else {
+			for (int i = length - 1; i >= 0; --i)
+				put(toIndex + i, hi(fromIndex + i), lo(fromIndex + i));
+		}
+	}
+
+	void swap(int i, int j) {
+		long h = hi(i), l = lo(i);
+		put(i, hi(j), lo(j));
+		put(j, h, l);
+	}
+
+	/**
+	 * Release any resources held by the store.
+	 */
+	void close() {
+	}
+
+}
@@ -0,0 +1,201 @@
+package servicenow.common.soap;
+
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+import servicenow.common.soap.DateTime;
+import servicenow.common.soap.Key;
+import servicenow.common.soap.KeyList;
+import servicenow.common.soap.Parameters;
+import servicenow.common.soap.QueryFilter;
+import servicenow.common.soap.Record;
+import servicenow.common.soap.RecordList;
+import servicenow.common.soap.RecordProcessor;
+import servicenow.common.soap.SoapResponseException;
+import servicenow.common.soap.Table;
+import servicenow.common.soap.TableReader;
+
+/**
+ * A {@link TableReader} which pages through a table in
+ * (sys_created_on, sys_id) order without first reading the keys.
+ * <p/>
+ * Each chunk is read using an encoded query which selects records
+ * positioned after the last record of the previous chunk:
+ * <pre>
+ * sys_created_on&gt;<i>T</i> OR (sys_created_on=<i>T</i> AND sys_id&gt;<i>S</i>)
+ * </pre>
+ * Memory use is bounded by a single chunk regardless of the size of the table,
+ * and the cost of each request does not grow as the reader advances
+ * (unlike the first_row / last_row windowing of {@link PetitTableReader}).
+ * <p/>
+ * The position of the reader is the (sys_created_on, sys_id) pair of the last
+ * record returned. It can be saved using {@link #getLastCreated()} and
+ * {@link #getLastKey()} and later passed to {@link #setStartAfter(DateTime, Key)}
+ * to resume reading.
+ * <p/>
+ * Reading finishes when a request returns no records.
+ * Records which are created after reading starts will be returned
+ * if their sys_created_on is after the current position.
+ * <p/>
+ * <b>Note:</b> The filter must not contain a <b>^NQ</b> (new query) condition
+ * and the sort order cannot be changed.
+ */
+public class KeysetTableReader extends TableReader {
+
+	static final String CREATED = "sys_created_on";
+	static final String SYS_ID = "sys_id";
+
+	private DateTime lastCreated = null;
+	private Key lastKey = null;
+
+	protected KeysetTableReader(Table table) throws IOException {
+		super(table);
+	}
+
+	protected KeysetTableReader(Table table, QueryFilter filter) throws IOException {
+		this(table);
+		this.filter = filter;
+	}
+
+	public KeysetTableReader setFilter(String filter) {
+		super.setFilter(filter);
+		return this;
+	}
+
+	/**
+	 * Causes the reader to begin with the first record which follows
+	 * the specified position in (sys_created_on, sys_id) order.
+	 * This method must be called before starting record retrieval.
+	 *
+	 * @param created sys_created_on of the last record previously read
+	 * @param key sys_id of the last record previously read
+	 * @return The modified reader.
+	 */
+	public KeysetTableReader setStartAfter(DateTime created, Key key) {
+		if (started) throw new IllegalStateException();
+		if (created == null || key == null)
+			throw new IllegalArgumentException("created=" + created + " key=" + key);
+		this.lastCreated = created;
+		this.lastKey = key;
+		return this;
+	}
+
+	/**
+	 * Returns sys_created_on of the last record read,
+	 * or null if no records have been read.
+	 */
+	public DateTime getLastCreated() {
+		return this.lastCreated;
+	}
+
+	/**
+	 * Returns sys_id of the last record read,
+	 * or null if no records have been read.
+	 */
+	public Key getLastKey() {
+		return this.lastKey;
+	}
+
+	/**
+	 * Unsupported operation.
+	 * Records are always sorted by sys_created_on and sys_id.
+	 * @throws UnsupportedOperationException
+	 */
+	public TableReader sortAscending(String fieldname) {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Unsupported operation.
+	 * Records are always sorted by sys_created_on and sys_id.
+	 * @throws UnsupportedOperationException
+	 */
+	public TableReader sortDescending(String fieldname) {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Return the encoded query for the next chunk.
+	 */
+	QueryFilter keysetFilter() {
+		String base = (filter == null) ? "" : filter.toString();
+		if (base.indexOf("^NQ") > -1)
+			throw new IllegalStateException("filter contains ^NQ: " + base);
+		if (lastCreated == null) return new QueryFilter(base);
+		String created = lastCreated.toString();
+		QueryFilter after = new QueryFilter(base)
+			.addFilter(CREATED, QueryFilter.GREATER_THAN, created);
+		QueryFilter same = new QueryFilter(base)
+			.addFilter(CREATED, QueryFilter.EQUALS, created)
+			.addFilter(SYS_ID, QueryFilter.GREATER_THAN, lastKey.toString());
+		return new QueryFilter(after.toString() + "^NQ" + same.toString());
+	}
+
+	private Parameters chunkParams() {
+		Parameters params = new Parameters();
+		params.add(keysetFilter().asParameters());
+		params.add("__order_by", CREATED + "," + SYS_ID);
+		params.add(getViewParam());
+		params.add("__first_row", "0");
+		params.add("__last_row", Integer.toString(pageSize));
+		return params;
+	}
+
+	/**
+	 * Record the position of a record which has just been read.
+	 */
+	private void advance(Record rec) throws SoapResponseException {
+		DateTime created = rec.getCreatedTimestamp();
+		if (created == null)
+			throw new SoapResponseException(table,
+				"missing " + CREATED + " in record " + rec.getKey());
+		lastCreated = created;
+		lastKey = rec.getKey();
+	}
+
+	public RecordList nextChunk()
+			throws IOException, InterruptedException,
+				SoapResponseException, NoSuchElementException {
+		final RecordList chunk = new RecordList(this.table, pageSize);
+		nextChunk(new RecordProcessor() {
+			public void processRecord(Record rec) {
+				chunk.add(rec);
+			}
+		});
+		return chunk;
+	}
+
+	/**
+	 * Streaming version of {@link #nextChunk()}.
+	 * Each record is passed to the processor as it is parsed
+	 * from the response.
+	 * The position of the reader is advanced after each record
+	 * has been processed.
+	 */
+	public int nextChunk(final RecordProcessor processor)
+			throws IOException, InterruptedException,
+				SoapResponseException, NoSuchElementException {
+		if (finished) throw new NoSuchElementException("no more data");
+		assert pageSize > 1;
+		started = true;
+		Parameters params = chunkParams();
+		if (Thread.interrupted()) throw new InterruptedException();
+		int count = table.getRecords(params, null, new RecordProcessor() {
+			public void processRecord(Record rec)
+					throws IOException, InterruptedException {
+				processor.processRecord(rec);
+				advance(rec);
+			}
+		});
+		recordsRead += count;
+		finished = (count == 0);
+		logger.debug("nextChunk count=" + count + " lastCreated=" + lastCreated);
+		return count;
+	}
+
+	public KeyList getKeys()
+			throws IOException, SoapResponseException {
+		throw new UnsupportedOperationException();
+	}
+
+}
@@ -0,0 +1,182 @@
+package servicenow.common.soap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+
+import servicenow.common.soap.KeyStore;
+
+/**
+ * {@link KeyStore} backed by a memory-mapped file.
+ * <p/>
+ * The file is mapped in fixed size segments
+ * so that it can exceed the 2GB limit of a single mapping.
+ * The header records the number of keys, a completion flag
+ * and a digest of the query which produced the keys,
+ * so that a complete file can be reopened as a checkpoint.
+ * <pre>
+ *  0  magic (long)
+ *  8  size (int)
+ * 12  complete (int)
+ * 16  SHA-1 of signature (20 bytes)
+ * 64  keys (16 bytes each)
+ * </pre>
+ */
+class MappedKeyStore extends KeyStore {
+
+	static final long MAGIC = 0x534e4b4559533031L; // "SNKEYS01"
+	static final int HEADER_SIZE = 64;
+	static final int KEY_BYTES = 16;
+	static final int DEFAULT_SEGMENT_KEYS = 1 << 22; // 64MB per segment
+
+	final File file;
+	final int segmentKeys;
+	private final int segmentShift;
+	private final int segmentMask;
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private MappedByteBuffer header;
+	private final ArrayList<MappedByteBuffer> segments =
+		new ArrayList<MappedByteBuffer>();
+
+	private MappedKeyStore(File file, int segmentKeys, boolean create) 
+			throws IOException {
+		if (Integer.bitCount(segmentKeys) != 1)
+			throw new IllegalArgumentException("segmentKeys=" + segmentKeys);
+		this.file = file;
+		this.segmentKeys = segmentKeys;
+		this.segmentShift = Integer.numberOfTrailingZeros(segmentKeys);
+		this.segmentMask = segmentKeys - 1;
+		this.raf = new RandomAccessFile(file, "rw");
+		try {
+			if (create) raf.setLength(0);
+			this.channel = raf.getChannel();
+			this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+		}
+		catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Create a new (empty) file.
+	 */
+	static MappedKeyStore create(File file, int capacity, int segmentKeys)
+			throws IOException {
+		MappedKeyStore store = new MappedKeyStore(file, segmentKeys, true);
+		store.header.putLong(0, MAGIC);
+		store.setHeader(0, false, null);
+		store.ensureCapacity(capacity, 0);
+		return store;
+	}
+
+	/**
+	 * Open an existing file.
+	 * Returns null if the file does not exist, is not complete,
+	 * or was produced by a different signature.
+	 */
+	static MappedKeyStore open(File file, String signature, int segmentKeys)
+			throws IOException {
+		if (!file.exists() || file.length() < HEADER_SIZE) return null;
+		MappedKeyStore store = new MappedKeyStore(file, segmentKeys, false);
+		if (store.header.getLong(0) != MAGIC || 
+				store.header.getInt(12) != 1 ||
+				!store.matches(signature)) {
+			store.close();
+			return null;
+		}
+		store.ensureCapacity(store.storedSize(), 0);
+		return store;
+	}
+
+	int storedSize() {
+		return header.getInt(8);
+	}
+
+	/**
+	 * Write the header and flush the file to disk.
+	 */
+	void setHeader(int size, boolean complete, String signature) {
+		header.putInt(8, size);
+		header.putInt(12, complete ? 1 : 0);
+		byte[] digest = digest(signature);
+		for (int i = 0; i < digest.length; ++i)
+			header.put(16 + i, digest[i]);
+	}
+
+	void force() {
+		for (MappedByteBuffer segment : segments) segment.force();
+		header.force();
+	}
+
+	private boolean matches(String signature) {
+		byte[] digest = digest(signature);
+		for (int i = 0; i < digest.length; ++i)
+			if (header.get(16 + i) != digest[i]) return false;
+		return true;
+	}
+
+	private static byte[] digest(String signature) {
+		if (signature == null) return new byte[20];
+		try {
+			return MessageDigest.getInstance("SHA-1").digest(
+				signature.getBytes("UTF-8"));
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	int capacity() {
+		long capacity = (long) segments.size() * segmentKeys;
+		return (int) Math.min(capacity, Integer.MAX_VALUE);
+	}
+
+	long hi(int index) {
+		return segments.get(index >>> segmentShift).getLong((index & segmentMask) * KEY_BYTES);
+	}
+
+	long lo(int index) {
+		return segments.get(index >>> segmentShift).getLong((index & segmentMask) * KEY_BYTES + 8);
+	}
+
+	void put(int index, long h, long l) {
+		MappedByteBuffer segment = segments.get(index >>> segmentShift);
+		int offset = (index & segmentMask) * KEY_BYTES;
+		segment.putLong(offset, h);
+		segment.putLong(offset + 8, l);
+	}
+
+	void ensureCapacity(int minCapacity, int size) throws IOException {
+		long segmentBytes = (long) segmentKeys * KEY_BYTES;
+		while (capacity() < minCapacity) {
+			long position = HEADER_SIZE + segments.size() * segmentBytes;
+			segments.add(channel.map(FileChannel.MapMode.READ_WRITE, position, segmentBytes));
+		}
+	}
+
+	/**
+	 * Closes the file.
+	 * The mappings remain valid until they are garbage collected.
+	 */
+	void close() {
+		segments.clear();
+		header = null;
+		try {
+			raf.close();
+		}
+		catch (IOException e) {
+			// ignore
+		}
+	}
+
+}
@@ -1,64 +1,315 @@
 package servicenow.common.soap;
 
 import java.io.IOException;
+import java.util.LinkedList;
 import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.ReentrantLock;
 
-@Deprecated
-public class ParallelTableReader extends TableReader {
+import servicenow.common.soap.BasicTableReader;
+import servicenow.common.soap.DaemonThreadFactory;
+import servicenow.common.soap.KeyList;
+import servicenow.common.soap.Parameters;
+import servicenow.common.soap.QueryFilter;
+import servicenow.common.soap.Record;
+import servicenow.common.soap.RecordList;
+import servicenow.common.soap.RecordProcessor;
+import servicenow.common.soap.SoapResponseException;
+import servicenow.common.soap.Table;
+
+/**
+ * A {@link BasicTableReader} which fetches several chunks concurrently.
+ * <p/>
+ * After the keys have been read, chunks are fetched by a pool of
+ * worker threads. At most <i>capacity</i> chunks are in flight
+ * or waiting to be consumed at any time,
+ * so memory is bounded regardless of the size of the table.
+ * <p/>
+ * By default chunks are returned by {@link #nextChunk()} in key order,
+ * which means that {@link #getFirstRowIndex()} can be used to resume
+ * an interrupted load exactly as with {@link BasicTableReader}.
+ * If {@link #setOrdered(boolean) setOrdered(false)} is called then
+ * chunks are returned as soon as they arrive.
+ * In ordered mode the tasks are submitted directly to the workers;
+ * a completion queue is used only in unordered mode, since a future
+ * which is never taken from the queue would be held until the end of the load.
+ * <p/>
+ * {@link #close()} must be called if the reader is abandoned
+ * before all chunks have been read.
+ */
+public class ParallelTableReader extends BasicTableReader {
+
+	int threads;
+	int capacity;
+	boolean ordered = true;
+	int numChunks;
+	private int nextRow;
+	private ExecutorService workers = null;
+	private CompletionService<RecordList> completion = null;
+	private volatile BlockingQueue<Future<RecordList>> completed = null;
+	private final LinkedList<Future<RecordList>> pending =
+		new LinkedList<Future<RecordList>>();
+	private int inFlight = 0;
+	// not a monitor, so that a virtual thread waiting for a chunk is not pinned
+	private final ReentrantLock lock = new ReentrantLock();
+
+	static final int DEFAULT_THREADS = 4;
 
-	KeyList keys;
-	int numChunks;	
-	
 	public ParallelTableReader(Table table) throws IOException {
-		this(table, null);
+		this(table, null, DEFAULT_THREADS);
 	}
 
 	public ParallelTableReader(Table table, QueryFilter filter) throws IOException {
-		super(table);
+		this(table, filter, DEFAULT_THREADS);
 	}
-	
-	public synchronized KeyList getKeys() 
-			throws IOException, InterruptedException {
-		if (!this.started) {
-			this.started = true;
-			KeyReader keyreader = new KeyReader(this.table, this.filter, this.sort);
-			this.keys = keyreader.getAllKeys();
-			int size = this.keys.size();
-			this.numChunks = size / pageSize + (size % pageSize == 0 ? 0 : 1);
-			logger.debug("getAllKeys size=" + this.keys.size());			
+
+	/**
+	 * @param threads Number of chunks to fetch concurrently.
+	 */
+	public ParallelTableReader(Table table, QueryFilter filter, int threads)
+			throws IOException {
+		super(table, filter);
+		setThreads(threads);
+	}
+
+	/**
+	 * Sets the number of worker threads.
+	 * The capacity is set to twice the number of threads.
+	 */
+	public ParallelTableReader setThreads(int threads) {
+		if (started) throw new IllegalStateException();
+		if (threads < 1)
+			throw new IllegalArgumentException("threads=" + threads);
+		this.threads = threads;
+		this.capacity = 2 * threads;
+		return this;
+	}
+
+	/**
+	 * Sets the maximum number of chunks which may be in flight
+	 * or waiting to be consumed.
+	 */
+	public ParallelTableReader setCapacity(int capacity) {
+		if (started) throw new IllegalStateException();
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity=" + capacity);
+		this.capacity = capacity;
+		return this;
+	}
+
+	/**
+	 * If true (the default) chunks are returned in key order.
+	 * If false chunks are returned in order of arrival.
+	 */
+	public ParallelTableReader setOrdered(boolean ordered) {
+		if (started) throw new IllegalStateException();
+		this.ordered = ordered;
+		return this;
+	}
+
+	public KeyList getKeys()
+			throws IOException, InterruptedException, SoapResponseException {
+		lock.lock();
+		try {
+			if (this.keys == null) {
+				super.getKeys();
+				int size = this.keys.size();
+				this.numChunks = size / pageSize + (size % pageSize == 0 ? 0 : 1);
+			}
+			return this.keys;
+		}
+		finally {
+			lock.unlock();
 		}
-		return this.keys;
 	}
-	
+
 	@Override
 	public RecordList nextChunk()
-			throws IOException, InterruptedException, SoapResponseException, NoSuchElementException {
-		throw new UnsupportedOperationException();
+			throws IOException, InterruptedException,
+				SoapResponseException, NoSuchElementException {
+		lock.lock();
+		try {
+			if (finished) throw new NoSuchElementException("no more data");
+			assert pageSize > 1;
+			if (keys == null) getKeys();
+			if (!started) start();
+			fill();
+			if (inFlight == 0) {
+				finished = true;
+				shutdown();
+				return new RecordList(this.table, 0);
+			}
+			RecordList chunk;
+			try {
+				Future<RecordList> future =
+					ordered ? pending.removeFirst() : completion.take();
+				inFlight -= 1;
+				chunk = getResult(future);
+			}
+			catch (InterruptedException e) {
+				shutdown();
+				throw e;
+			}
+			catch (IOException e) {
+				shutdown();
+				throw e;
+			}
+			catch (RuntimeException e) {
+				shutdown();
+				throw e;
+			}
+			catch (Error e) {
+				shutdown();
+				throw e;
+			}
+			recordsRead += chunk.size();
+			if (ordered)
+				firstRow = Math.min(firstRow + pageSize, keys.size());
+			fill();
+			if (inFlight == 0) {
+				finished = true;
+				shutdown();
+			}
+			return chunk;
+		}
+		finally {
+			lock.unlock();
+		}
 	}
 
-	public RecordList getChunk(int index) 
+	/**
+	 * Records are not streamed by this reader;
+	 * the chunk is fetched by a worker and then passed to the processor.
+	 */
+	@Override
+	public int nextChunk(RecordProcessor processor)
+			throws IOException, InterruptedException,
+				SoapResponseException, NoSuchElementException {
+		RecordList chunk = nextChunk();
+		for (Record rec : chunk) {
+			processor.processRecord(rec);
+		}
+		return chunk.size();
+	}
+
+	private void start() {
+		started = true;
+		nextRow = firstRow;
+		workers = Executors.newFixedThreadPool(threads,
+			new DaemonThreadFactory("reader-" + table.getName()));
+		if (!ordered) {
+			completed = new LinkedBlockingQueue<Future<RecordList>>();
+			completion = new ExecutorCompletionService<RecordList>(workers, completed);
+		}
+		logger.debug("start threads=" + threads + " capacity=" + capacity +
+			" ordered=" + ordered + " firstRow=" + firstRow);
+	}
+
+	/**
+	 * Submit chunk requests until the capacity is reached
+	 * or there are no more keys.
+	 */
+	private void fill() {
+		while (inFlight < capacity && nextRow < keys.size()) {
+			final int fromRow = nextRow;
+			final int toRow = Math.min(fromRow + pageSize, keys.size());
+			final Parameters params = chunkParams(fromRow, toRow);
+			Callable<RecordList> task = new Callable<RecordList>() {
+				public RecordList call() throws IOException, InterruptedException {
+					if (Thread.interrupted()) throw new InterruptedException();
+					return table.getRecords(params);
+				}
+			};
+			if (ordered) 
+				pending.addLast(workers.submit(task));
+			else
+				completion.submit(task);
+			inFlight += 1;
+			nextRow = toRow;
+		}
+	}
+
+	/**
+	 * Unwrap the result of a worker task,
+	 * rethrowing any exception from the worker in the calling thread.
+	 */
+	private RecordList getResult(Future<RecordList> future)
+			throws IOException, InterruptedException {
+		try {
+			return future.get();
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) throw (IOException) cause;
+			if (cause instanceof InterruptedException) throw (InterruptedException) cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	/**
+	 * Return the number of finished chunks which are waiting 
+	 * in the completion queue. Always zero in ordered mode.
+	 */
+	int completedSize() {
+		return completed == null ? 0 : completed.size();
+	}
+
+	/**
+	 * Cancel any outstanding requests and stop the worker threads.
+	 */
+	@Override
+	public void close() {
+		lock.lock();
+		try {
+			shutdown();
+			super.close();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	private void shutdown() {
+		if (workers == null) return;
+		for (Future<RecordList> future : pending) {
+			future.cancel(true);
+		}
+		pending.clear();
+		inFlight = 0;
+		workers.shutdownNow();
+		workers = null;
+	}
+
+	/**
+	 * Fetch a single chunk by index, independent of {@link #nextChunk()}.
+	 */
+	public RecordList getChunk(int index)
 			throws SoapResponseException, IOException, InterruptedException {
 		RecordList chunk;
-		if (!this.started) getKeys();
-		int firstRow = index * pageSize;
-		int lastRow = firstRow + pageSize;
-		if (lastRow > keys.size()) lastRow = keys.size();
-		if (lastRow > firstRow) {
-			QueryFilter keyfilter = keys.filter(firstRow, lastRow);
-			Parameters params = new Parameters(keyfilter.asParameters());
-			params.add(getSortParam());
-			params.add(getViewParam());
+		if (keys == null) getKeys();
+		int fromRow = index * pageSize;
+		int toRow = fromRow + pageSize;
+		if (toRow > keys.size()) toRow = keys.size();
+		if (toRow > fromRow) {
+			Parameters params = chunkParams(fromRow, toRow);
 			if (Thread.interrupted()) throw new InterruptedException();
 			chunk = table.getRecords(params);
-			recordsRead += chunk.size();
 		}
 		else {
 			// return an empty RecordList
-			chunk = new RecordList(this.table, 0);				
+			chunk = new RecordList(this.table, 0);
 		}
-		finished = (lastRow >= keys.size());
-		firstRow = lastRow;
-		return chunk;	
+		return chunk;
 	}
-	
+
 }
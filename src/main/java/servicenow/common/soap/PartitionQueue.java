@@ -0,0 +1,177 @@
+package servicenow.common.soap;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+
+import servicenow.common.soap.BasicTableReader;
+import servicenow.common.soap.DaemonThreadFactory;
+import servicenow.common.soap.QueryFilter;
+import servicenow.common.soap.QuerySort;
+import servicenow.common.soap.RecordList;
+import servicenow.common.soap.Table;
+
+/**
+ * This is a "private" class used by partitioning readers
+ * to read several partitions concurrently.
+ * <p/>
+ * Each partition is read by a {@link BasicTableReader} on a worker thread.
+ * Chunks are passed to the consuming thread through a bounded queue.
+ * When a partition is finished the number of rows read is compared
+ * with the expected count, and any difference is reported to the
+ * consumer as an {@link AssertionError}.
+ * <p/>
+ * Partitions are started in the order in which they are supplied.
+ */
+class PartitionQueue {
+
+	/**
+	 * A subset of the table selected by a filter.
+	 */
+	static class Partition {
+		final String name;
+		final QueryFilter filter;
+		final int expectedCount;
+
+		Partition(String name, QueryFilter filter, int expectedCount) {
+			this.name = name;
+			this.filter = filter;
+			this.expectedCount = expectedCount;
+		}
+
+		public String toString() {
+			return name + " rows=" + expectedCount;
+		}
+	}
+
+	/**
+	 * Placed on the queue when a partition is finished.
+	 */
+	private static class Done {
+		final Partition part;
+		final Throwable error;
+
+		Done(Partition part, Throwable error) {
+			this.part = part;
+			this.error = error;
+		}
+	}
+
+	final Table table;
+	final List<Partition> parts;
+	final Logger logger;
+	private final BlockingQueue<Object> queue;
+	private final ExecutorService workers;
+	private int partsDone = 0;
+
+	/**
+	 * Start reading the partitions.
+	 *
+	 * @param threads Number of partitions to read at once.
+	 * @param capacity Number of chunks which may be waiting in the queue.
+	 */
+	PartitionQueue(Table table, List<Partition> parts,
+			final QuerySort sort, final String viewName,
+			int threads, int capacity) {
+		this.table = table;
+		this.parts = parts;
+		this.logger = table.responselog;
+		this.queue = new ArrayBlockingQueue<Object>(capacity);
+		this.workers = Executors.newFixedThreadPool(threads,
+			new DaemonThreadFactory("part-" + table.getName()));
+		for (final Partition part : parts) {
+			workers.execute(new Runnable() {
+				public void run() {
+					Throwable error = null;
+					try {
+						readPartition(part, sort, viewName);
+					}
+					catch (Throwable e) {
+						error = e;
+					}
+					try {
+						queue.put(new Done(part, error));
+					}
+					catch (InterruptedException e) {
+						// closed by consumer
+					}
+				}
+			});
+		}
+		workers.shutdown();
+	}
+
+	private void readPartition(Partition part, QuerySort sort, String viewName)
+			throws IOException, InterruptedException {
+		logger.info("partition " + part);
+		BasicTableReader reader = new BasicTableReader(table, part.filter);
+		reader.sort = sort;
+		reader.viewName = viewName;
+		int actualCount = 0;
+		try {
+			while (reader.hasNext()) {
+				RecordList chunk = reader.nextChunk();
+				actualCount += chunk.size();
+				if (chunk.size() > 0) queue.put(chunk);
+			}
+		}
+		finally {
+			reader.close();
+		}
+		if (actualCount != part.expectedCount)
+			throw new AssertionError(
+				"partition " + part.name +
+				" expected rows=" + part.expectedCount +
+				" actual rows=" + actualCount);
+	}
+
+	/**
+	 * Returns the next chunk from any partition,
+	 * or null if all partitions are finished.
+	 * An exception from a worker is rethrown in the calling thread.
+	 */
+	RecordList next() throws IOException, InterruptedException {
+		while (partsDone < parts.size()) {
+			Object item;
+			try {
+				item = queue.take();
+			}
+			catch (InterruptedException e) {
+				close();
+				throw e;
+			}
+			if (item instanceof RecordList) return (RecordList) item;
+			Done done = (Done) item;
+			partsDone += 1;
+			if (done.error != null) {
+				close();
+				Throwable e = done.error;
+				if (e instanceof IOException) throw (IOException) e;
+				if (e instanceof InterruptedException) throw (InterruptedException) e;
+				if (e instanceof RuntimeException) throw (RuntimeException) e;
+				if (e instanceof Error) throw (Error) e;
+				throw new IllegalStateException(e);
+			}
+			logger.debug("partition finished " + done.part);
+		}
+		return null;
+	}
+
+	boolean finished() {
+		return partsDone >= parts.size();
+	}
+
+	/**
+	 * Stop the worker threads.
+	 */
+	void close() {
+		workers.shutdownNow();
+		queue.clear();
+	}
+
+}
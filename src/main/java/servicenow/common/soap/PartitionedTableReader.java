@@ -1,11 +1,18 @@
 package servicenow.common.soap;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 import servicenow.common.soap.BasicTableReader;
+import servicenow.common.soap.PartitionQueue;
+import servicenow.common.soap.PartitionQueue.Partition;
 import servicenow.common.soap.QueryFilter;
 import servicenow.common.soap.RecordList;
 import servicenow.common.soap.SoapResponseException;
@@ -17,6 +24,11 @@ import servicenow.common.soap.TableReader;
  * a partitioning field.  The reader first uses a COUNT aggregate to determine
  * the distinct values of the partitioning field.  It then creates a 
  * {@link BasicTableReader} for each distinct field value.
+ * <p/>
+ * By default the partitions are read one after another.
+ * If {@link #setThreads(int)} is greater than 1 then several partitions
+ * are read concurrently, largest first, and {@link #close()} must be called
+ * if the reader is abandoned before all chunks have been read.
  *
  */
 public class PartitionedTableReader extends TableReader {
@@ -28,6 +40,8 @@ public class PartitionedTableReader extends TableReader {
 	String partFieldValue = null;
 	int partExpectedCount;
 	int partActualCount;
+	int threads = 1;
+	private volatile PartitionQueue queue = null;
 		
 	public PartitionedTableReader(Table table, String partFieldName) throws IOException {
 		super(table);
@@ -37,6 +51,18 @@ public class PartitionedTableReader extends TableReader {
 		this.partFieldName = partFieldName;
 	}
 	
+	/**
+	 * Sets the number of partitions which are read concurrently.
+	 * If greater than 1 then the largest partitions are read first
+	 * and chunks are returned in order of arrival.
+	 */
+	public PartitionedTableReader setThreads(int threads) {
+		if (started) throw new IllegalStateException();
+		if (threads < 1) throw new IllegalArgumentException("threads=" + threads);
+		this.threads = threads;
+		return this;
+	}
+
 	LinkedHashMap<String,Integer> getParts() throws SoapResponseException, IOException {
 		if (parts == null) {
 			parts = table.getCount(partFieldName, filter);
@@ -54,6 +80,7 @@ public class PartitionedTableReader extends TableReader {
 		RecordList chunk;
 		if (parts == null) getParts();
 		started = true;
+		if (threads > 1) return nextConcurrentChunk();
 		if (partReader == null || partReader.finished()) {
 			if (partReader != null) {
 				// check counts for finished part
@@ -88,4 +115,47 @@ public class PartitionedTableReader extends TableReader {
 		return chunk;
 	}
 
+	/**
+	 * Return the partitions ordered by size, largest first,
+	 * so that the largest partitions do not delay the finish.
+	 */
+	List<Partition> partitionsBySize() {
+		List<Partition> result = new ArrayList<Partition>(parts.size());
+		for (Map.Entry<String,Integer> entry : parts.entrySet()) {
+			QueryFilter partFilter = new QueryFilter(partFieldName, entry.getKey());
+			partFilter.addFilter(super.filter);
+			result.add(new Partition(
+				partFieldName + "=" + entry.getKey(), partFilter, entry.getValue()));
+		}
+		Collections.sort(result, new Comparator<Partition>() {
+			public int compare(Partition p1, Partition p2) {
+				return p2.expectedCount - p1.expectedCount;
+			}
+		});
+		return result;
+	}
+
+	private RecordList nextConcurrentChunk() 
+			throws IOException, InterruptedException {
+		if (queue == null)
+			queue = new PartitionQueue(
+				table, partitionsBySize(), sort, viewName, threads, 2 * threads);
+		RecordList chunk = queue.next();
+		if (chunk == null) {
+			chunk = new RecordList(this.table, 0);
+			finished = true;
+		}
+		recordsRead += chunk.size();
+		return chunk;
+	}
+
+	/**
+	 * Stop any worker threads.
+	 */
+	@Override
+	public void close() {
+		PartitionQueue queue = this.queue;
+		if (queue != null) queue.close();
+	}
+
 }
@@ -0,0 +1,260 @@
+package servicenow.common.soap;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.Header;
+import org.apache.http.HttpConnection;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ManagedHttpClientConnection;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.ssl.SSLContexts;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+
+import servicenow.common.soap.Session;
+import servicenow.common.soap.SessionConfiguration;
+import servicenow.common.soap.Transport;
+import servicenow.common.soap.TransportRequest;
+import servicenow.common.soap.TransportResponse;
+
+/**
+ * A {@link Transport} which keeps a pool of persistent (keep-alive) 
+ * connections to the instance.
+ * <p/>
+ * A pool is shared by all sessions in the JVM which have the same 
+ * URL, credentials and pool properties:
+ * <ul>
+ * <li><b>max_connections</b> - maximum connections per host (default 8)</li>
+ * <li><b>max_connections_total</b> - maximum connections for all hosts
+ * (default 4 x max_connections)</li>
+ * <li><b>idle_timeout</b> - seconds after which an idle connection
+ * is closed (default 60)</li>
+ * <li><b>connection_request_timeout</b> - seconds to wait for a connection
+ * when all connections are in use, after which the request fails 
+ * (default 60)</li>
+ * </ul>
+ * All connections share one SSL context,
+ * so TLS sessions are resumed when a new connection is opened.
+ * Cookies, compression and redirects are handled by the caller
+ * exactly as they are for {@link URLConnectionTransport}.
+ */
+public class PooledTransport implements Transport {
+
+	static final int DEFAULT_MAX_CONNECTIONS = 8;
+	static final int DEFAULT_IDLE_TIMEOUT = 60;
+	static final int DEFAULT_CONNECTION_REQUEST_TIMEOUT = 60;
+	
+	private static final Map<String,PooledTransport> shared = 
+		new HashMap<String,PooledTransport>();
+	
+	final PoolingHttpClientConnectionManager manager;
+	final CloseableHttpClient client;
+	final RequestConfig requestConfig;
+
+	final static Logger logger = Session.getLogger(PooledTransport.class);
+	
+	/**
+	 * Return the pool for a URL and user, creating it if necessary.
+	 * Sessions with different pool properties get different pools.
+	 * The pools remain open until {@link #closeAll()} is called.
+	 */
+	static PooledTransport getInstance(SessionConfiguration config, 
+			String url, String username, String password) {
+		String key = poolKey(config, url, username, password);
+		synchronized (shared) {
+			PooledTransport transport = shared.get(key);
+			if (transport == null) {
+				transport = new PooledTransport(config);
+				shared.put(key, transport);
+			}
+			return transport;
+		}
+	}
+	
+	/**
+	 * Return the key of a shared pool.
+	 * The key contains a digest of the credentials rather than the password
+	 * so that passwords are not held in memory for the life of the JVM.
+	 */
+	static String poolKey(SessionConfiguration config, 
+			String url, String username, String password) {
+		return url + "\n" + username + "\n" + 
+			digest(url + "\n" + username + "\n" + password) + "\n" +
+			config.getString("max_connections", "") + "\n" +
+			config.getString("max_connections_total", "") + "\n" +
+			config.getString("idle_timeout", "") + "\n" +
+			config.getString("connection_request_timeout", "");
+	}
+	
+	private static String digest(String value) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			byte[] hash = md.digest(value.getBytes("UTF-8"));
+			StringBuilder result = new StringBuilder(2 * hash.length);
+			for (byte b : hash) result.append(String.format("%02x", b & 0xff));
+			return result.toString();
+		}
+		catch (NoSuchAlgorithmException e) {
+			// every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+		catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Close all the shared pools and their connections.
+	 * Called when the daemon is stopped.
+	 */
+	public static void closeAll() {
+		synchronized (shared) {
+			for (PooledTransport transport : shared.values())
+				transport.close();
+			shared.clear();
+		}
+	}
+	
+	/**
+	 * Close the connections of this pool.
+	 * The pool cannot be used after it is closed.
+	 */
+	void close() {
+		try {
+			client.close();
+		}
+		catch (IOException e) {
+			logger.warn("failed to close connection pool", e);
+		}
+	}
+	
+	public PooledTransport(SessionConfiguration config) {
+		int maxPerHost = config.getInt("max_connections", DEFAULT_MAX_CONNECTIONS);
+		int maxTotal = config.getInt("max_connections_total", 4 * maxPerHost);
+		int idleSeconds = config.getInt("idle_timeout", DEFAULT_IDLE_TIMEOUT);
+		int requestSeconds = config.getInt("connection_request_timeout", 
+			DEFAULT_CONNECTION_REQUEST_TIMEOUT);
+		requestConfig = RequestConfig.custom().
+			setConnectionRequestTimeout(1000 * requestSeconds).
+			build();
+		Registry<ConnectionSocketFactory> registry = 
+			RegistryBuilder.<ConnectionSocketFactory>create().
+				register("http", PlainConnectionSocketFactory.getSocketFactory()).
+				register("https", new SSLConnectionSocketFactory(
+					SSLContexts.createSystemDefault())).
+				build();
+		manager = new PoolingHttpClientConnectionManager(registry);
+		manager.setDefaultMaxPerRoute(maxPerHost);
+		manager.setMaxTotal(maxTotal);
+		client = HttpClients.custom().
+			useSystemProperties().
+			setConnectionManager(manager).
+			setDefaultRequestConfig(requestConfig).
+			disableCookieManagement().
+			disableContentCompression().
+			disableRedirectHandling().
+			evictExpiredConnections().
+			evictIdleConnections(idleSeconds, TimeUnit.SECONDS).
+			build();
+		logger.info("max_connections=" + maxPerHost + 
+			" max_connections_total=" + maxTotal + 
+			" idle_timeout=" + idleSeconds + 
+			" connection_request_timeout=" + requestSeconds);
+	}
+	
+	public TransportResponse execute(TransportRequest request) 
+			throws IOException {
+		HttpRequestBase method;
+		if ("POST".equals(request.getMethod())) {
+			HttpPost post = new HttpPost(request.getURL().toString());
+			if (request.getBody() != null)
+				post.setEntity(new ByteArrayEntity(request.getBody()));
+			method = post;
+		}
+		else
+			method = new HttpGet(request.getURL().toString());
+		for (Map.Entry<String,String> header : request.getHeaders().entrySet()) {
+			method.setHeader(header.getKey(), header.getValue());
+		}
+		Integer timeout = request.getTimeout();
+		if (timeout != null) {
+			method.setConfig(RequestConfig.copy(requestConfig).
+				setConnectTimeout(timeout).
+				setSocketTimeout(timeout).
+				build());
+		}
+		HttpClientContext context = HttpClientContext.create();
+		CloseableHttpResponse response = client.execute(method, context);
+		Response result = new Response(response);
+		HttpConnection connection = context.getConnection();
+		try {
+			if (connection instanceof ManagedHttpClientConnection) {
+				String id = ((ManagedHttpClientConnection) connection).getId();
+				long requests = connection.getMetrics().getRequestCount();
+				result.setConnection(id, requests > 1);
+			}
+		}
+		catch (IllegalStateException e) {
+			// connection was already released because the response has no body
+		}
+		return result;
+	}
+	
+	static class Response extends TransportResponse {
+
+		final CloseableHttpResponse response;
+		InputStream stream = null;
+		
+		Response(CloseableHttpResponse response) {
+			super(response.getStatusLine().getStatusCode(), 
+				response.getStatusLine().getReasonPhrase());
+			this.response = response;
+			for (Header header : response.getAllHeaders()) {
+				addHeader(header.getName(), header.getValue());
+			}
+		}
+		
+		protected InputStream openBody() throws IOException {
+			HttpEntity entity = response.getEntity();
+			stream = (entity == null) ? null : entity.getContent();
+			return stream;
+		}
+
+		protected void release(boolean opened) throws IOException {
+			// Closing or consuming the entity returns the connection to the pool.
+			// Closing the response without consuming the entity
+			// would close the connection.
+			try {
+				if (stream != null) 
+					stream.close();
+				else
+					EntityUtils.consume(response.getEntity());
+			}
+			finally {
+				response.close();
+			}
+		}
+	}
+	
+}
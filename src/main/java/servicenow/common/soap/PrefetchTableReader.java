@@ -0,0 +1,166 @@
+package servicenow.common.soap;
+
+import java.io.IOException;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+
+import servicenow.common.soap.DaemonThreadFactory;
+import servicenow.common.soap.RecordList;
+import servicenow.common.soap.SoapResponseException;
+import servicenow.common.soap.TableReader;
+
+/**
+ * A {@link TableReader} which reads ahead from another reader
+ * on a background thread.
+ * <p/>
+ * While the caller is processing one chunk, up to <i>depth</i> further
+ * chunks are fetched from the source reader, so that the network
+ * and the consumer of the records (e.g. a database) are kept busy
+ * at the same time.
+ * <p/>
+ * An exception thrown by the source reader is rethrown by
+ * {@link #nextChunk()}. If the calling thread is interrupted
+ * while waiting for a chunk, the background thread is cancelled and
+ * {@link InterruptedException} is thrown.
+ * {@link #close()} may be called from another thread to cancel
+ * a caller which is waiting for a chunk.
+ * {@link #close()} must be called if the reader is abandoned
+ * before all chunks have been read.
+ */
+public class PrefetchTableReader extends TableReader {
+
+	private static final Object END = new Object();
+	private static final Object CLOSED = new Object();
+
+	/**
+	 * Placed on the queue if the source reader fails.
+	 */
+	private static class Failure {
+		final Throwable error;
+		Failure(Throwable error) {
+			this.error = error;
+		}
+	}
+
+	final TableReader source;
+	final int depth;
+	private final BlockingQueue<Object> queue;
+	private volatile ExecutorService worker = null;
+	private volatile boolean closed = false;
+	// guards the state of the caller rather than synchronized,
+	// so that close is not blocked by a waiting caller
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * @param source The reader from which chunks are fetched.
+	 * @param depth Maximum number of chunks fetched ahead of the caller.
+	 */
+	public PrefetchTableReader(TableReader source, int depth) throws IOException {
+		super(source.table);
+		if (depth < 1) throw new IllegalArgumentException("depth=" + depth);
+		this.source = source;
+		this.depth = depth;
+		this.queue = new ArrayBlockingQueue<Object>(depth);
+	}
+
+	private void start() {
+		started = true;
+		worker = Executors.newSingleThreadExecutor(
+			new DaemonThreadFactory("prefetch-" + table.getName()));
+		worker.execute(new Runnable() {
+			public void run() {
+				try {
+					while (source.hasNext()) {
+						if (Thread.interrupted()) throw new InterruptedException();
+						RecordList chunk = source.nextChunk();
+						queue.put(chunk);
+					}
+					queue.put(END);
+				}
+				catch (Throwable e) {
+					// An InterruptedException is passed to the caller
+					// unless the reader has been closed. It may have come
+					// from the source (e.g. an interrupted worker of a
+					// ParallelTableReader) rather than from close.
+					if (closed) return;
+					Thread.interrupted();
+					try {
+						queue.put(new Failure(e));
+					}
+					catch (InterruptedException e2) {
+						// cancelled by close
+					}
+				}
+			}
+		});
+		worker.shutdown();
+		logger.debug("prefetch depth=" + depth);
+	}
+
+	@Override
+	public RecordList nextChunk()
+			throws IOException, InterruptedException,
+				SoapResponseException, NoSuchElementException {
+		lock.lock();
+		try {
+			if (finished) throw new NoSuchElementException("no more data");
+			if (closed) throw new InterruptedException("reader closed");
+			if (!started) start();
+			Object item;
+			try {
+				item = queue.take();
+			}
+			catch (InterruptedException e) {
+				close();
+				throw e;
+			}
+			if (item == END) {
+				finished = true;
+				return new RecordList(this.table, 0);
+			}
+			if (item == CLOSED) {
+				finished = true;
+				throw new InterruptedException("reader closed");
+			}
+			if (item instanceof Failure) {
+				finished = true;
+				close();
+				Throwable e = ((Failure) item).error;
+				if (e instanceof IOException) throw (IOException) e;
+				if (e instanceof InterruptedException) throw (InterruptedException) e;
+				if (e instanceof RuntimeException) throw (RuntimeException) e;
+				if (e instanceof Error) throw (Error) e;
+				throw new IllegalStateException(e);
+			}
+			RecordList chunk = (RecordList) item;
+			recordsRead += chunk.size();
+			return chunk;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Cancel the background thread and close the source reader.
+	 * This may be called from another thread while the caller is waiting
+	 * in {@link #nextChunk()}, which then throws {@link InterruptedException}.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		ExecutorService worker = this.worker;
+		if (worker != null) {
+			worker.shutdownNow();
+			queue.clear();
+			// wake a caller which is waiting for a chunk
+			queue.offer(CLOSED);
+		}
+		source.close();
+	}
+
+}
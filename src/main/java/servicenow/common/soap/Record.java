@@ -7,6 +7,7 @@ import org.jdom2.*;
 
 import servicenow.common.soap.DateTime;
 import servicenow.common.soap.FieldDefinition;
+import servicenow.common.soap.FieldIndex;
 import servicenow.common.soap.InvalidDateTimeException;
 import servicenow.common.soap.InvalidFieldNameException;
 import servicenow.common.soap.Key;
@@ -14,11 +15,15 @@ import servicenow.common.soap.QueryFilter;
 import servicenow.common.soap.Record;
 import servicenow.common.soap.SoapResponseException;
 import servicenow.common.soap.Table;
+import servicenow.common.soap.TableWSDL;
 import servicenow.common.soap.XMLFormatter;
 
 /**
  * Contains an XML document (in the form of a JDOM Element) which 
  * has been retrieved from ServiceNow.
+ * The field values are also held in an array indexed by
+ * the position of the field in the table WSDL, so that
+ * {@link #getField(String)} does not need to search the XML.
  * The only way to obtain one of these is to use 
  * {@link Table#get(Key) Table.get()} or
  * {@link Table#getRecords(QueryFilter) Table.getRecords()}. 
@@ -31,6 +36,8 @@ public abstract class Record {
 	final protected Key key;
 	final protected Element element;
 	final protected Namespace ns;
+	final protected FieldIndex index;
+	final protected String[] values;
 	protected DateTime updatedTimestamp;
 	protected DateTime createdTimestamp;
 	
@@ -39,14 +46,28 @@ public abstract class Record {
 		this.table = table;
 		this.element = element;
 		this.ns = element.getNamespace();
-		String sysid = element.getChildText("sys_id", ns);
+		TableWSDL wsdl = table.getWSDL();
+		this.index = (wsdl == null ? table.wsdl : wsdl).getReadColumnIndex();
+		this.values = new String[index.size()];
+		// a single pass over the children so that
+		// each field can later be found without a scan
+		for (Element field : element.getChildren()) {
+			int i = index.indexOf(field.getName());
+			if (i >= 0 && values[i] == null) values[i] = field.getText();
+		}
+		String sysid = getValue("sys_id");
 		this.key = (sysid == null || sysid.length() == 0) ? null : new Key(sysid);
-		String updated_on = element.getChildText("sys_updated_on", ns);
-		String created_on = element.getChildText("sys_created_on", ns);
-		this.createdTimestamp =
-			created_on == null ? null : new DateTime(created_on);
-		this.updatedTimestamp =
-			updated_on == null ? null : new DateTime(updated_on);
+	}
+
+	/**
+	 * Return the text of a field as it appears in the XML,
+	 * or null if the field is missing.
+	 * Fields which are not in the WSDL are found by scanning the element.
+	 */
+	private String getValue(String fieldname) {
+		int i = index.indexOf(fieldname);
+		if (i < 0) return element.getChildText(fieldname, ns);
+		return values[i];
 	}
 
 	/**
@@ -131,7 +152,7 @@ public abstract class Record {
 	 */
 	public String getField(String fieldname, boolean validate) 
 			throws InvalidFieldNameException {
-		String result = element.getChildText(fieldname, ns);
+		String result = getValue(fieldname);
 		if (result == null) {
 			if (validate) {
 				if (!table.getWSDL().canReadField(fieldname))
@@ -170,7 +191,7 @@ public abstract class Record {
 			throw new IllegalStateException(
 				"DisplayValues not enabled; use setDisplayValue(true)");
 		String dvname = "dv_" + fieldname;
-		String result = element.getChildText(dvname, ns);
+		String result = getValue(dvname);
 		if (result == null) {
 			FieldDefinition fd = table.getSchema().getFieldDefinition(fieldname);
 			if (fd.isReference()) 
@@ -184,7 +205,7 @@ public abstract class Record {
 	}
 	
 	public Key getReference(String fieldname) throws InvalidFieldNameException {		
-		String value = element.getChildText(fieldname, ns);
+		String value = getValue(fieldname);
 		if (value == null || value.length() == 0) return null;
 		if (table.validate) {
 			FieldDefinition defn = table.getSchema().getFieldDefinition(fieldname);
@@ -196,15 +217,27 @@ public abstract class Record {
 	
 	/**
 	 * Get sys_updated_on from a Record object.
+	 * The value is parsed when this method is first called.
 	 */
-	public DateTime getUpdatedTimestamp() {
+	public DateTime getUpdatedTimestamp() throws InvalidDateTimeException {
+		if (this.updatedTimestamp == null) {
+			String updated_on = getValue("sys_updated_on");
+			if (updated_on != null) 
+				this.updatedTimestamp = new DateTime(updated_on);
+		}
 		return this.updatedTimestamp;
 	}
 	
 	/**
 	 * Get sys_created_on from a Record object.
+	 * The value is parsed when this method is first called.
 	 */
-	public DateTime getCreatedTimestamp() {
+	public DateTime getCreatedTimestamp() throws InvalidDateTimeException {
+		if (this.createdTimestamp == null) {
+			String created_on = getValue("sys_created_on");
+			if (created_on != null) 
+				this.createdTimestamp = new DateTime(created_on);
+		}
 		return this.createdTimestamp;
 	}
 	
@@ -334,6 +367,8 @@ public abstract class Record {
 	public void setField(String fieldname, String fieldvalue) {
 		Element child = element.getChild(fieldname);
 		child.setText(fieldvalue);
+		int i = index.indexOf(fieldname);
+		if (i >= 0) values[i] = fieldvalue;
 	}
 
 	/**
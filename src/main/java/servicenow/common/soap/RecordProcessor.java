@@ -0,0 +1,14 @@
+package servicenow.common.soap;
+
+/**
+ * Receives records one at a time as they are parsed from a 
+ * <b>getRecords</b> response.
+ * 
+ * @see TableReader#nextChunk(RecordProcessor)
+ */
+public interface RecordProcessor {
+
+	public abstract void processRecord(Record rec)
+			throws java.io.IOException, InterruptedException;
+	
+}
@@ -1,20 +1,26 @@
 package servicenow.common.soap;
 
 import java.io.IOException;
-import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.codec.binary.Base64;
 import org.jdom2.JDOMException;
 import org.slf4j.LoggerFactory;
 
 import servicenow.common.soap.CookieJar;
+import servicenow.common.soap.DaemonThreadFactory;
 import servicenow.common.soap.InsufficientRightsException;
 import servicenow.common.soap.InvalidTableNameException;
 import servicenow.common.soap.Key;
 import servicenow.common.soap.Parameters;
+import servicenow.common.soap.PooledTransport;
 import servicenow.common.soap.Record;
 import servicenow.common.soap.RecordList;
 import servicenow.common.soap.Session;
@@ -22,6 +28,10 @@ import servicenow.common.soap.SessionConfiguration;
 import servicenow.common.soap.SessionMetrics;
 import servicenow.common.soap.Table;
 import servicenow.common.soap.TableSchema;
+import servicenow.common.soap.Transport;
+import servicenow.common.soap.TransportRequest;
+import servicenow.common.soap.TransportResponse;
+import servicenow.common.soap.URLConnectionTransport;
 
 import org.slf4j.Logger;
 
@@ -50,6 +60,8 @@ public class Session {
 	private final String authorization;
 	private final SessionConfiguration config;
 	private final CookieJar cookiejar;
+	private final Transport transport;
+	private ExecutorService asyncExecutor = null;
 	private final Record userProfile;
 	final boolean validate;
 	final boolean aggregates; // true if aggregate WS plugin is installed
@@ -61,6 +73,9 @@ public class Session {
 	// boolean initialized = false;
 	
 	Hashtable<String,Table> tables = new Hashtable<String,Table>();
+	// used instead of synchronized so that virtual threads are not pinned
+	// while a table is loaded
+	private final ReentrantLock lock = new ReentrantLock();
 	SessionMetrics metrics = new SessionMetrics();
 
     final static String loggerPrefix = "ServiceNow.";
@@ -116,6 +131,7 @@ public class Session {
 		// this.unqualified_element_form_default = 
 		//    config.getBoolean("unqualified_element_form_default", true);
 		this.cookiejar = new CookieJar();
+		this.transport = createTransport(config, url, username, password);
 		this.baseurl = (url.endsWith("/") ? url : url + "/");
 		this.username = username;
 		String userpassword = username + ":" + password;
@@ -217,68 +233,123 @@ public class Session {
 	}
 	
 	/**
-	 * Add username and password to an HttpURLConnection.
+	 * Create a new request with authentication and JSESSIONID
 	 */
-	void authorize(HttpURLConnection connection) {
-		connection.setRequestProperty("Authorization", "Basic " + authorization);		
-	}
-
-	/**
-	 * Create a new HttpURLConnection with authentication and JSESSIONID
-	 */
-	HttpURLConnection openConnection(URL url) 
-			throws IOException {
-		logger.debug("openConnection " + url.toString());
-		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-		connection.setRequestProperty("Content-Type", "text/xml");
-		authorize(connection);
-		cookiejar.setRequestCookies(connection);
-		return connection;
+	TransportRequest newRequest(String method, URL url) {
+		logger.debug(method + " " + url.toString());
+		TransportRequest request = new TransportRequest(method, url);
+		request.setHeader("Content-Type", "text/xml");
+		request.setHeader("Authorization", "Basic " + authorization);
+		cookiejar.setRequestCookies(request);
+		return request;
 	}
 	
 	/**
-	 * Create a new HttpURLConnection with authentication and JSESSIONID
+	 * Send a request using the session transport 
+	 * and record connection reuse in the session metrics.
 	 */
-	HttpURLConnection openConnection(String tablename, String params) 
-			throws IOException {
-		return openConnection(getURL(tablename, params));
+	TransportResponse execute(TransportRequest request) throws IOException {
+		TransportResponse response = transport.execute(request);
+		String connectionId = response.getConnectionId();
+		if (connectionId != null) 
+			metrics.incrementConnection(connectionId, response.isConnectionReused());
+		return response;
 	}
-
-	/**
-	 * Create a new HttpURLConnection with authentication and JSESSIONID
-	 */
-	HttpURLConnection openConnection(String tablename, List<String> params) 
-			throws IOException {
-		return openConnection(getURL(tablename, params));
-	}
-
+	
 	/**
 	 * Update the JSESSIONID cookie
 	 */
-	synchronized void updateSessionInfo(HttpURLConnection connection) {
-		cookiejar.addResponseCookies(connection, false);	
+	void updateSessionInfo(TransportResponse response) {
+		cookiejar.addResponseCookies(response, false);	
 	}
 	
-	synchronized String getSessionID() {
+	String getSessionID() {
 		return cookiejar.getCookie("JSESSIONID");
 	}
 	
 	public String getUserName() { return username; }
 	SessionConfiguration getConfiguration() { return this.config; }
 	
-	synchronized Record getUserProfile() { 
+	/**
+	 * Returns counters for the Web Service calls
+	 * and HTTP connections used by this session.
+	 */
+	public SessionMetrics getMetrics() { return this.metrics; }
+	
+	/**
+	 * Returns the executor which runs the asynchronous Web Service calls
+	 * of this session (e.g. {@link Table#getRecordsAsync(KeyList, int, int)}).
+	 * The number of calls in flight is limited by the property
+	 * <b>async_threads</b>, which defaults to <b>max_connections</b>
+	 * so that every call can have its own pooled connection.
+	 * Idle threads are discarded after one minute.
+	 * <p/>
+	 * The calls are not non-blocking: each call in flight holds one thread 
+	 * while it waits for the response. If virtual threads are enabled
+	 * (see {@link DaemonThreadFactory#setVirtualThreads(boolean)})
+	 * then a waiting call does not hold a platform thread.
+	 */
+	ExecutorService getAsyncExecutor() {
+		lock.lock();
+		try {
+			if (asyncExecutor == null) {
+				int threads = config.getInt("async_threads", 
+					config.getInt("max_connections", PooledTransport.DEFAULT_MAX_CONNECTIONS));
+				ThreadPoolExecutor executor = new ThreadPoolExecutor(
+					threads, threads, 60, TimeUnit.SECONDS, 
+					new LinkedBlockingQueue<Runnable>(),
+					new DaemonThreadFactory("async"));
+				executor.allowCoreThreadTimeOut(true);
+				logger.debug("async_threads=" + threads);
+				asyncExecutor = executor;
+			}
+			return asyncExecutor;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Create the {@link Transport} specified by the property <b>transport</b>.
+	 */
+	private static Transport createTransport(SessionConfiguration config, 
+			String url, String username, String password) {
+		String name = config.getString("transport", "pooled");
+		if (name.equals("pooled")) 
+			return PooledTransport.getInstance(config, url, username, password);
+		if (name.equals("urlconnection")) 
+			return new URLConnectionTransport(config);
+		try {
+			Class<?> c = Class.forName(name);
+			return (Transport) 
+				c.getConstructor(SessionConfiguration.class).newInstance(config);
+		} catch (Exception e) {
+			throw new IllegalArgumentException("transport=" + name, e);
+		}
+	}
+	
+	Record getUserProfile() { 
 		return this.userProfile; 
 	}
 	
-	synchronized String getSystemProperty(String name) 
+	String getSystemProperty(String name) 
 			throws IOException, JDOMException {
-		if (sys_properties == null)
-			sys_properties = table("sys_properties");
+		Table sys_properties;
+		lock.lock();
+		try {
+			if (this.sys_properties == null)
+				this.sys_properties = table("sys_properties");
+			sys_properties = this.sys_properties;
+		}
+		finally {
+			lock.unlock();
+		}
 		Record rec = sys_properties.get("name", name);
 		return (rec == null) ? null : rec.getField("value");
 	}
 	
-	public synchronized String getTimeZone() 
+	public String getTimeZone() 
 			throws IOException, JDOMException {
 		String result;
 		Record userProfile = getUserProfile();
@@ -311,13 +382,20 @@ public class Session {
 	 * @throws InvalidTableNameException 
 	 * No table with this name was found in sys_dictionary. 
 	 */
-	public synchronized Table table(String tablename) 
+	public Table table(String tablename) 
 			throws IOException, JDOMException, InvalidTableNameException {
 		assert tablename != null && tablename.length() > 0;
-		Table result = tables.get(tablename);
-		if (result == null) {
-			result = new Table(this, tablename);
-			tables.put(tablename, result);
+		Table result;
+		lock.lock();
+		try {
+			result = tables.get(tablename);
+			if (result == null) {
+				result = new Table(this, tablename);
+				tables.put(tablename, result);
+			}
+		}
+		finally {
+			lock.unlock();
 		}
 		result.requestlog.debug(
 			"url=" + result.proxy.url.toString() +
@@ -346,10 +424,16 @@ public class Session {
 	 * This method is used by 
 	 * {@link Table#attachFile(Key, java.io.File)}.
 	 */
-	public synchronized Table eccQueue() throws IOException, JDOMException {
-		if (this.ecc_queue == null) {
-			this.ecc_queue = this.table("ecc_queue");
+	public Table eccQueue() throws IOException, JDOMException {
+		lock.lock();
+		try {
+			if (this.ecc_queue == null) {
+				this.ecc_queue = this.table("ecc_queue");
+			}
+			return this.ecc_queue;
+		}
+		finally {
+			lock.unlock();
 		}
-		return this.ecc_queue;
 	}
 }
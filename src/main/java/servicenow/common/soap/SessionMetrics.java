@@ -10,6 +10,9 @@ import org.slf4j.Logger;
 public class SessionMetrics {
 
 	TreeMap<String,Integer> metrics = new TreeMap<String,Integer>();
+	TreeMap<String,Integer> connections = new TreeMap<String,Integer>();
+	int connectionsOpened = 0;
+	int connectionsReused = 0;
 
 	public synchronized void increment(String tablename, String methodname) {
 		String name = tablename + "." + methodname;
@@ -22,7 +25,44 @@ public class SessionMetrics {
 		};
 	}
 	
-	public void report(Logger logger) {
+	/**
+	 * Record a request on a pooled HTTP connection.
+	 * @param connectionId Identifies the connection
+	 * @param reused true if the connection had carried an earlier request
+	 */
+	public synchronized void incrementConnection(String connectionId, boolean reused) {
+		Integer m = connections.get(connectionId);
+		connections.put(connectionId, 
+			new Integer(m == null ? 1 : m.intValue() + 1));
+		if (reused) 
+			connectionsReused += 1;
+		else
+			connectionsOpened += 1;
+	}
+	
+	/**
+	 * Number of requests which required a new connection.
+	 */
+	public synchronized int connectionsOpened() {
+		return connectionsOpened;
+	}
+	
+	/**
+	 * Number of requests which were sent on a previously used connection.
+	 */
+	public synchronized int connectionsReused() {
+		return connectionsReused;
+	}
+	
+	/**
+	 * Number of requests sent on a specific connection.
+	 */
+	public synchronized int connectionRequests(String connectionId) {
+		Integer m = connections.get(connectionId);
+		return (m == null ? 0 : m.intValue());
+	}
+	
+	public synchronized void report(Logger logger) {
 		String[] keys = metrics.keySet().toArray(new String[0]);
 		Arrays.sort(keys);
 		for (int i = 0; i < keys.length; ++i) {
@@ -30,6 +70,12 @@ public class SessionMetrics {
 			Integer metric = metrics.get(key);
 			logger.info("metric " + key + " " + metric.toString());
 		}
+		for (String key : connections.keySet()) {
+			logger.info("connection " + key + " " + connections.get(key).toString());
+		}
+		if (connectionsOpened > 0)
+			logger.info("connections opened=" + connectionsOpened + 
+				" reused=" + connectionsReused);
 	}
 }
 
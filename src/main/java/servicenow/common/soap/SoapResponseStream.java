@@ -0,0 +1,133 @@
+package servicenow.common.soap;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+import org.jdom2.input.StAXStreamBuilder;
+
+import servicenow.common.soap.SoapResponseException;
+import servicenow.common.soap.Table;
+import servicenow.common.soap.TableProxy;
+
+/**
+ * This is a "private" class used by {@link TableProxy} to parse
+ * a SOAP response incrementally.
+ * <p/>
+ * The children of the response element (e.g. <b>getRecordsResult</b>)
+ * are returned one at a time as they are parsed from the input stream,
+ * so that memory is bounded by a single record rather than a full page.
+ */
+class SoapResponseStream {
+
+	final Table table;
+	final String responseElementName;
+	private final InputStream input;
+	private final XMLStreamReader reader;
+	private final StAXStreamBuilder builder = new StAXStreamBuilder();
+	private boolean finished = false;
+
+	private static ThreadLocal<XMLInputFactory> localFactory =
+		new ThreadLocal<XMLInputFactory>() {
+			protected XMLInputFactory initialValue() {
+				XMLInputFactory factory = XMLInputFactory.newInstance();
+				factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+				factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+				factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+				return factory;
+			}
+	};
+
+	/**
+	 * Position the stream on the response element within the SOAP Body.
+	 *
+	 * @param input Inflated response stream.
+	 * The stream is closed by {@link #close()}.
+	 */
+	SoapResponseStream(Table table, InputStream input, String responseElementName)
+			throws IOException {
+		this.table = table;
+		this.input = input;
+		this.responseElementName = responseElementName;
+		try {
+			this.reader = localFactory.get().createXMLStreamReader(input);
+			String envURI = TableProxy.nsSoapEnv.getURI();
+			boolean inBody = false;
+			boolean found = false;
+			while (!found && reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					if (inBody)
+						found = true;
+					else if ("Body".equals(reader.getLocalName()) &&
+							envURI.equals(reader.getNamespaceURI()))
+						inBody = true;
+				}
+			}
+			if (!found)
+				throw new SoapResponseException(table,
+					"Missing element: " + responseElementName);
+			if (!responseElementName.equals(reader.getLocalName()))
+				throw new SoapResponseException(table,
+					"Expected element: " + responseElementName +
+					" found: " + reader.getLocalName());
+		}
+		catch (XMLStreamException e) {
+			input.close();
+			throw new SoapResponseException(table, e, null);
+		}
+		catch (IOException e) {
+			input.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Return the next child of the response element as a JDOM Element,
+	 * or null if there are no more children.
+	 */
+	Element next() throws IOException {
+		if (finished) return null;
+		try {
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT)
+					return (Element) builder.fragment(reader);
+				if (event == XMLStreamConstants.END_ELEMENT) {
+					// end of the response element
+					finished = true;
+					return null;
+				}
+			}
+		}
+		catch (XMLStreamException e) {
+			throw new SoapResponseException(table, e, null);
+		}
+		catch (JDOMException e) {
+			throw new SoapResponseException(table, e, null);
+		}
+		throw new SoapResponseException(table,
+			"Unexpected end of response: " + responseElementName);
+	}
+
+	/**
+	 * Release the parser and close the underlying input stream.
+	 */
+	void close() throws IOException {
+		try {
+			reader.close();
+		}
+		catch (XMLStreamException e) {
+			throw new SoapResponseException(table, e, null);
+		}
+		finally {
+			input.close();
+		}
+	}
+}
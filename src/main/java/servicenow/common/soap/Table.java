@@ -3,6 +3,9 @@ package servicenow.common.soap;
 import java.io.*;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.jdom2.*;
 
@@ -27,9 +30,11 @@ import servicenow.common.soap.PetitTableReader;
 import servicenow.common.soap.QueryFilter;
 import servicenow.common.soap.Record;
 import servicenow.common.soap.RecordList;
+import servicenow.common.soap.RecordProcessor;
 import servicenow.common.soap.SchemaNotAvailableException;
 import servicenow.common.soap.Session;
 import servicenow.common.soap.SoapResponseException;
+import servicenow.common.soap.SoapResponseStream;
 import servicenow.common.soap.Table;
 import servicenow.common.soap.TableConfiguration;
 import servicenow.common.soap.TableProxy;
@@ -64,10 +69,16 @@ public class Table {
 	static public final int DEFAULT_PAGE_SIZE = 200;
 	
 	TableSchema schema = null;
+	// guards schema and the settings below; a virtual thread 
+	// is not pinned while the schema or WSDL is fetched
+	private final ReentrantLock lock = new ReentrantLock();
 	
 	// Number of records to be retrieved in a single getRecords call
 	int pageSize;
 	
+	// Parse getRecords responses incrementally rather than as a Document
+	final boolean streaming;
+	
 	/*
 	 * The validate property disables schema validations.
 	 * This property is false for system tables 
@@ -102,6 +113,7 @@ public class Table {
 		// this parameter can be named either "chunk" or "limit"
 		this.pageSize = config.getInt("chunk",
 				config.getInt("limit", DEFAULT_PAGE_SIZE));
+		this.streaming = config.getBoolean("streaming", true);
 		this.validate = session.validate;
 	}
 	
@@ -138,7 +150,7 @@ public class Table {
 	/*
 	 * Load the table schema from sys_dictionary and sys_db_object.
 	 *
-	protected synchronized Table loadSchema() throws IOException, JDOMException {
+	protected Table loadSchema() throws IOException, JDOMException {
 		schema = new TableSchema(this);
 		return this;
 	}
@@ -149,22 +161,28 @@ public class Table {
 	 * when the class was instantiated.
 	 * @throws IOException 
 	 */
-	public synchronized TableSchema getSchema() 
+	public TableSchema getSchema() 
 			throws SchemaNotAvailableException {
-		if (schema != null) return schema;
+		lock.lock();
 		try {
-			schema = new TableSchema(this);
+			if (schema != null) return schema;
+			try {
+				schema = new TableSchema(this);
+			}
+			  catch (InvalidTableNameException e) {
+			    throw new SchemaNotAvailableException(e);
+			} catch (IOException e) {
+				throw new SchemaNotAvailableException(e);
+			} catch (JDOMException e) {
+				throw new SchemaNotAvailableException(e);
+			} catch (InterruptedException e) {
+				throw new UndeclaredThrowableException(e);
+			}
+			return schema;
 		}
-		  catch (InvalidTableNameException e) {
-		    throw new SchemaNotAvailableException(e);
-		} catch (IOException e) {
-			throw new SchemaNotAvailableException(e);
-		} catch (JDOMException e) {
-			throw new SchemaNotAvailableException(e);
-		} catch (InterruptedException e) {
-			throw new UndeclaredThrowableException(e);
+		finally {
+			lock.unlock();
 		}
-		return schema;
 	}
 
 	/**
@@ -174,12 +192,18 @@ public class Table {
 	 * single getRecords Web Service call.
 	 * @see TableReader#setPageSize(int)
 	 */
-	public synchronized Table setChunkSize(int size) {
-		requestlog.info("setLimit " + size);
-		if (size <= 0) 
-			throw new IllegalArgumentException("invalid limit: " + size);
-		this.pageSize = size;
-		return this;
+	public Table setChunkSize(int size) {
+		lock.lock();
+		try {
+			requestlog.info("setLimit " + size);
+			if (size <= 0) 
+				throw new IllegalArgumentException("invalid limit: " + size);
+			this.pageSize = size;
+			return this;
+		}
+		finally {
+			lock.unlock();
+		}
 	}
 	
 	/**
@@ -192,10 +216,16 @@ public class Table {
 	 * @return The modified {@link Table} object.
 	 */
 	@Deprecated
-	public synchronized Table setValidate(boolean validate) {
-		requestlog.debug("setValidate " + validate);
-		this.validate = validate;
-		return this;
+	public Table setValidate(boolean validate) {
+		lock.lock();
+		try {
+			requestlog.debug("setValidate " + validate);
+			this.validate = validate;
+			return this;
+		}
+		finally {
+			lock.unlock();
+		}
 	}
 	
 	/**
@@ -212,13 +242,19 @@ public class Table {
 	 * 
 	 * @return The modified {@link Table} object.
 	 */
-	public synchronized Table setDisplayValues(boolean dv) throws IOException {
-		requestlog.info("setDisplayValue " + dv);		
-		this.displayvalues = dv;
-		proxy.setURL(dv);
-		if (dv && dvWsdl == null)
-			dvWsdl = new TableWSDL(session, tablename, dv);
-		return this;
+	public Table setDisplayValues(boolean dv) throws IOException {
+		lock.lock();
+		try {
+			requestlog.info("setDisplayValue " + dv);		
+			this.displayvalues = dv;
+			proxy.setURL(dv);
+			if (dv && dvWsdl == null)
+				dvWsdl = new TableWSDL(session, tablename, dv);
+			return this;
+		}
+		finally {
+			lock.unlock();
+		}
 	}
 	
 	private Element createXmlText(String name, String value) {
@@ -324,7 +360,7 @@ public class Table {
 		InsertResponse response = _insert(method);
 		Key sysid = response.getSysId();
 		responselog.info("insert sys_id=" + sysid);
-		if (sysid == null || sysid.equals(""))
+		if (sysid == null || sysid.toString().length() == 0)
 			throw new IllegalArgumentException("missing sys_id");
 		return response;
 	}
@@ -399,7 +435,7 @@ public class Table {
 		Namespace ns = insertResponse.getNamespace();
 		String sysid = insertResponse.getChildText("sys_id", ns);
 		responselog.info("update sys_id=" + sysid);
-		if (sysid == null || sysid.equals(""))
+		if (sysid == null || sysid.toString().length() == 0)
 			throw new IllegalArgumentException("missing sys_id");
 		return new Key(sysid);				
 	}
@@ -517,6 +553,21 @@ public class Table {
 	RecordList getRecords(Parameters params, FieldNames fields) 
 			throws IOException, SoapResponseException {
 		Element method = createXmlElement("getRecords", params);
+		if (streaming) {
+			final RecordList list = new RecordList(this);
+			try {
+				getRecords(method, fields, new RecordProcessor() {
+					public void processRecord(Record rec) {
+						list.add(rec);
+					}
+				});
+			}
+			catch (InterruptedException e) {
+				// not possible since the processor does not throw it
+				throw new IllegalStateException(e);
+			}
+			return list;
+		}
 		Element responseElement = proxy.callSoap(method, "getRecordsResponse");
 		int size = responseElement.getContentSize();
 		RecordList list = new RecordList(this, size);
@@ -529,6 +580,41 @@ public class Table {
 		}
 		return list;		
 	}
+
+	/**
+	 * Calls the SOAP getRecords method and passes each record
+	 * to the processor as soon as it has been parsed from the response,
+	 * so that memory is bounded by one record rather than one page.
+	 * 
+	 * @return The number of records processed
+	 */
+	int getRecords(Parameters params, FieldNames fields, RecordProcessor processor)
+			throws IOException, SoapResponseException, InterruptedException {
+		Element method = createXmlElement("getRecords", params);
+		return getRecords(method, fields, processor);
+	}
+	
+	private int getRecords(Element method, FieldNames fields, RecordProcessor processor)
+			throws IOException, SoapResponseException, InterruptedException {
+		SoapResponseStream stream = proxy.callSoapStream(method, "getRecordsResponse");
+		int count = 0;
+		try {
+			Element next;
+			while ((next = stream.next()) != null) {
+				if (responselog.isTraceEnabled())
+					responselog.trace(XMLFormatter.format(next));
+				Record rec = fields == null ? new FullRecord(this, next) : 
+					new PartialRecord(this, next, fields);
+				processor.processRecord(rec);
+				count += 1;
+			}
+		}
+		finally {
+			stream.close();
+		}
+		responselog.debug("getRecords streamed " + count + " records");
+		return count;
+	}
 	
 	/**
 	 * Retrieve a list of records matching an encoded query.
@@ -606,18 +692,22 @@ public class Table {
 		Namespace ns = responseElement.getNamespace();
 		int size = Integer.parseInt(responseElement.getChildText("count", ns));
 		responselog.trace("getKeys returned " + size + " keys");
-		KeyList result = new KeyList();
+		KeyList result = new KeyList(size);
 		if (size > 0) {
-			result.ensureCapacity(size);
 			String listStr = responseElement.getChildText("sys_id", ns);
-			String list[] = listStr.split(",");
-			if (list.length != size)
+			// scan for commas rather than split to avoid a String per key
+			int start = 0;
+			int len = listStr.length();
+			while (start < len) {
+				int end = listStr.indexOf(',', start);
+				if (end < 0) end = len;
+				result.add(listStr, start, end);
+				start = end + 1;
+			}
+			if (result.size() != size)
 				throw new SoapResponseException(this, 
-					"getKeys expected: " + size + ", found=" + list.length + "\n" +
+					"getKeys expected: " + size + ", found=" + result.size() + "\n" +
 					XMLFormatter.format(responseElement));
-			for (int i = 0; i < list.length; ++i) {
-				result.add(new Key(list[i]));
-			}
 		}
 		return result;		
 	}
@@ -704,6 +794,94 @@ public class Table {
 		return getCount(noFilter);
 	}
 	
+	/*
+	 * Asynchronous variants.
+	 * Each method submits the corresponding synchronous call
+	 * to the session's async executor and returns immediately,
+	 * so that a single thread can keep several requests in flight.
+	 * Exceptions are reported by Future.get() as an ExecutionException.
+	 * 
+	 * The HTTP client is blocking, so each request in flight occupies 
+	 * one thread of the executor until the response has been read,
+	 * and at most async_threads requests are in flight at once.
+	 * The other calls wait in the queue of the executor.
+	 * See Session.getAsyncExecutor().
+	 */
+	
+	private <T> Future<T> submit(Callable<T> call) {
+		return session.getAsyncExecutor().submit(call);
+	}
+
+	/**
+	 * Asynchronous version of {@link #getRecords(Parameters)}.
+	 */
+	public Future<RecordList> getRecordsAsync(final Parameters params) {
+		return submit(new Callable<RecordList>() {
+			public RecordList call() throws IOException {
+				return getRecords(params);
+			}
+		});
+	}
+	
+	/**
+	 * Asynchronous version of {@link #getRecords(KeyList, int, int)}.
+	 */
+	public Future<RecordList> getRecordsAsync(
+			final KeyList list, final int fromIndex, final int toIndex) {
+		return submit(new Callable<RecordList>() {
+			public RecordList call() throws IOException {
+				return getRecords(list, fromIndex, toIndex);
+			}
+		});
+	}
+	
+	/**
+	 * Asynchronous version of {@link #getKeys(Parameters)}.
+	 */
+	public Future<KeyList> getKeysAsync(final Parameters params) {
+		return submit(new Callable<KeyList>() {
+			public KeyList call() throws IOException {
+				return getKeys(params);
+			}
+		});
+	}
+	
+	/**
+	 * Asynchronous version of {@link #get(Key)}.
+	 */
+	public Future<Record> getAsync(final Key sysid) {
+		return submit(new Callable<Record>() {
+			public Record call() throws IOException {
+				return get(sysid);
+			}
+		});
+	}
+	
+	/**
+	 * Asynchronous version of 
+	 * {@link #getAggregate(String, String, String, QueryFilter)}.
+	 */
+	public Future<LinkedHashMap<String,String>> getAggregateAsync(
+			final String aggName, final String field, 
+			final String groupBy, final QueryFilter filter) {
+		return submit(new Callable<LinkedHashMap<String,String>>() {
+			public LinkedHashMap<String,String> call() throws IOException {
+				return getAggregate(aggName, field, groupBy, filter);
+			}
+		});
+	}
+	
+	/**
+	 * Asynchronous version of {@link #getCount(QueryFilter)}.
+	 */
+	public Future<Integer> getCountAsync(final QueryFilter filter) {
+		return submit(new Callable<Integer>() {
+			public Integer call() throws IOException {
+				return getCount(filter);
+			}
+		});
+	}
+	
 	/**
 	 * Returns a {@link TableReader} object which can be safely used to 
 	 * read records. ServiceNow limits to 250 the number of records
@@ -755,11 +933,52 @@ public class Table {
 		return new PetitTableReader(this);
 	}
 	
-	@Deprecated
+	/**
+	 * A {@link TableReader} which pages through the table in
+	 * (sys_created_on, sys_id) order without first reading the keys.
+	 * @see KeysetTableReader
+	 */
+	public KeysetTableReader keysetReader(QueryFilter query) throws IOException {
+		return new KeysetTableReader(this, query);
+	}
+
+	/**
+	 * A {@link TableReader} which pages through the table in
+	 * (sys_created_on, sys_id) order without first reading the keys.
+	 * @see KeysetTableReader
+	 */
+	public KeysetTableReader keysetReader() throws IOException {
+		return new KeysetTableReader(this);
+	}
+
+	/**
+	 * A {@link TableReader} which divides a datetime range into slices
+	 * and reads several slices concurrently.
+	 * @see TimeSliceTableReader
+	 */
+	public TimeSliceTableReader timeSliceReader(String fieldName) throws IOException {
+		return new TimeSliceTableReader(this, fieldName);
+	}
+
+	/**
+	 * A {@link BasicTableReader} which fetches several chunks concurrently.
+	 * @see ParallelTableReader
+	 */
 	public ParallelTableReader parallelReader(QueryFilter query) 
 			throws InterruptedException, IOException {
 		return new ParallelTableReader(this, query);
 	}
+
+	/**
+	 * A {@link BasicTableReader} which fetches several chunks concurrently.
+	 * @param threads Number of chunks to fetch concurrently.
+	 * @see ParallelTableReader
+	 */
+	public ParallelTableReader parallelReader(QueryFilter query, int threads) 
+			throws InterruptedException, IOException {
+		return new ParallelTableReader(this, query, threads);
+	}
+
 	/**
 	 * Attach a file to a record in a table.
 	 * 
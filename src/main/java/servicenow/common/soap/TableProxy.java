@@ -1,11 +1,13 @@
 package servicenow.common.soap;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringReader;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.util.ArrayList;
+import java.util.zip.GZIPInputStream;
 
 import org.jdom2.Document;
 import org.jdom2.Element;
@@ -20,6 +22,8 @@ import servicenow.common.soap.Session;
 import servicenow.common.soap.SessionMetrics;
 import servicenow.common.soap.SoapResponseException;
 import servicenow.common.soap.Table;
+import servicenow.common.soap.TransportRequest;
+import servicenow.common.soap.TransportResponse;
 import servicenow.common.soap.XMLFormatter;
 
 /**
@@ -84,48 +88,47 @@ class TableProxy {
 		return new Document(envelope);
 	}
 	
-	public Element callSoap(
-		Element content, 
-		String responseElementName)
+	/**
+	 * Post a SOAP request and check the response code.
+	 * If the response is not OK then it is closed
+	 * and an appropriate exception is thrown.
+	 * 
+	 * @return The response, positioned to read the body.
+	 * The caller must close the response.
+	 */
+	private TransportResponse sendRequest(Element content) 
 			throws IOException, SoapResponseException {
 		
 		String methodname = content.getName();
 		Document requestDoc = createSoapDocument(content);
 
-		HttpURLConnection connection = session.openConnection(url);
-		if (compression) connection.setRequestProperty("Accept-Encoding", "gzip");
+		TransportRequest request = session.newRequest("POST", url);
+		if (compression) request.setHeader("Accept-Encoding", "gzip");
 		if (timeoutMillisec != null) {
-			connection.setConnectTimeout(timeoutMillisec);
-			connection.setReadTimeout(timeoutMillisec);
+			request.setTimeout(timeoutMillisec);
 			requestlog.debug("timeout=" + timeoutMillisec);
 		}
-		connection.setDoInput(true);
-		connection.setDoOutput(true);
-		connection.setRequestMethod("POST");
 		
 		String requestText = XMLFormatter.format(requestDoc, false);
 		requestlog.debug(requestText);
+		request.setBody(requestText.getBytes());
 		
-		connection.connect();
-		connection.getOutputStream().write(requestText.getBytes());
-	    
-		int responseCode = connection.getResponseCode();
-		int responseLength = connection.getContentLength();
-		String responseEncoding = connection.getContentEncoding();
+		TransportResponse response = session.execute(request);
+		int responseCode = response.getStatusCode();
+		String responseEncoding = response.getContentEncoding();
 		boolean responseCompressed = "gzip".equals(responseEncoding);
 
 		if (responselog.isDebugEnabled()) {
-			responselog.debug(HttpUtil.getAllHeaders(connection));
+			responselog.debug(HttpUtil.getAllHeaders(response));
 		}
 				
-		SAXBuilder parser = localParser.get();
-		
 		if (responseCode != HttpURLConnection.HTTP_OK) {
-			String responseMessage = connection.getResponseMessage();
+			SAXBuilder parser = localParser.get();
+			String responseMessage = response.getStatusMessage();
 			String message = "responseCode=" + responseCode + " " + responseMessage;
 			String faultString = null;
 			try {
-				InputStream errStream = connection.getErrorStream();
+				InputStream errStream = response.getBody();
 				if (errStream != null) {
 					String errBuffer = HttpUtil.readFully(errStream, responseCompressed);
 					
@@ -139,10 +142,14 @@ class TableProxy {
 			}
 			catch (IOException e) {}
 			catch (JDOMException e) {}
+			finally {
+				// release the connection so that it can be reused
+				try { response.close(); } catch (IOException e) {}
+			}
 			if (responseCode == HttpURLConnection.HTTP_MOVED_TEMP) // 302 error
 				message = message +  
 					"\nRequest  Location=" + url.toString() + 
-					"\nResponse Location=" + connection.getHeaderField("Location") + 
+					"\nResponse Location=" + response.getHeader("Location") + 
 					"\nRedirect is not supported by this API";
 			responselog.error(faultString == null ? message : message + "\n" + faultString);
 			if (responseCode == HttpURLConnection.HTTP_BAD_REQUEST) // 400 error				
@@ -160,11 +167,22 @@ class TableProxy {
 			else
 				throw new SoapResponseException(table, message, faultString);
 		}
-
-		String responseBuffer = HttpUtil.readFully(connection.getInputStream(), responseCompressed);
+		return response;
+	}
+	
+	public Element callSoap(
+		Element content, 
+		String responseElementName)
+			throws IOException, SoapResponseException {
+		
+		String methodname = content.getName();
+		TransportResponse response = sendRequest(content);
+		int responseLength = response.getContentLength();
+		String responseBuffer = HttpUtil.readFully(response);
 		responselog.debug(" responseLength=" + responseLength + 
 			" bufferLength=" + responseBuffer.length());
 		
+		SAXBuilder parser = localParser.get();
 		Document responseDoc = null;		
 		try {
 			responseDoc = parser.build(new StringReader(responseBuffer));
@@ -189,9 +207,43 @@ class TableProxy {
 		}
 		*/
 		
-		session.updateSessionInfo(connection);
+		session.updateSessionInfo(response);
 		metrics.increment(table.getName(), methodname);
 	    return result;
 	}
+
+	/**
+	 * Post a SOAP request and return a stream which parses the
+	 * children of the response element incrementally
+	 * as they are read from the connection.
+	 * The caller must close the returned stream.
+	 */
+	SoapResponseStream callSoapStream(
+		Element content,
+		String responseElementName)
+			throws IOException, SoapResponseException {
+		String methodname = content.getName();
+		TransportResponse response = sendRequest(content);
+		boolean responseCompressed = "gzip".equals(response.getContentEncoding());
+		InputStream input = response.getBody();
+		if (input == null) {
+			response.close();
+			throw new SoapResponseException(table, 
+				"Missing response body: " + responseElementName);
+		}
+		try {
+			input = new BufferedInputStream(input);
+			if (responseCompressed) input = new GZIPInputStream(input);
+		}
+		catch (IOException e) {
+			response.close();
+			throw e;
+		}
+		SoapResponseStream result = 
+			new SoapResponseStream(table, input, responseElementName);
+		session.updateSessionInfo(response);
+		metrics.increment(table.getName(), methodname);
+		return result;
+	}
 		
 }
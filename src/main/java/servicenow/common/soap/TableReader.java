@@ -12,6 +12,7 @@ import servicenow.common.soap.QueryFilter;
 import servicenow.common.soap.QuerySort;
 import servicenow.common.soap.Record;
 import servicenow.common.soap.RecordList;
+import servicenow.common.soap.RecordProcessor;
 import servicenow.common.soap.SoapResponseException;
 import servicenow.common.soap.Table;
 import servicenow.common.soap.TableReader;
@@ -280,6 +281,25 @@ public abstract class TableReader implements Iterator<RecordList>{
 			throws IOException, InterruptedException, 
 				SoapResponseException, NoSuchElementException;
 
+	/**
+	 * Fetches the next chunk of records and passes each record
+	 * to the processor.
+	 * Readers which support streaming deliver each record
+	 * as soon as it has been parsed from the response
+	 * rather than accumulating the chunk in a {@link RecordList}.
+	 * 
+	 * @return The number of records processed.
+	 */
+	public int nextChunk(RecordProcessor processor)
+			throws IOException, InterruptedException, 
+				SoapResponseException, NoSuchElementException {
+		RecordList chunk = nextChunk();
+		for (Record rec : chunk) {
+			processor.processRecord(rec);
+		}
+		return chunk.size();
+	}
+	
 	/**
 	 * This method loops internally on the TableReader until no more records
 	 * are available.  The easiest way to read an entire table
@@ -333,6 +353,13 @@ public abstract class TableReader implements Iterator<RecordList>{
 		return params;
 	}
 
+	/**
+	 * Releases any resources (such as worker threads) held by the reader.
+	 * The default implementation does nothing.
+	 */
+	public void close() {
+	}
+
 	/**
 	 * Unsupported operation.
 	 * @throws UnsupportedOperationException
@@ -15,11 +15,14 @@ import org.jdom2.Namespace;
 import org.jdom2.input.SAXBuilder;
 import org.slf4j.Logger;
 
+import servicenow.common.soap.FieldIndex;
 import servicenow.common.soap.HttpUtil;
 import servicenow.common.soap.InsufficientRightsException;
 import servicenow.common.soap.InvalidTableNameException;
 import servicenow.common.soap.Session;
 import servicenow.common.soap.TableWSDL;
+import servicenow.common.soap.TransportRequest;
+import servicenow.common.soap.TransportResponse;
 import servicenow.common.soap.WSDLException;
 
 /**
@@ -29,6 +32,7 @@ public class TableWSDL {
 	
 	final private Document doc;
 	final FieldNames readColumnNames;
+	final FieldIndex readColumnIndex;
 	final FieldNames writeColumnNames;
 	final Map<String,String> readColumnTypes;
 	final Map<String,String> writeColumnTypes;
@@ -51,29 +55,28 @@ public class TableWSDL {
     	ArrayList<String> params = new ArrayList<String>(2);
     	params.add("WSDL");
     	if (displayValues) params.add("displayvalue=all");
-		HttpURLConnection connection = session.openConnection(tablename,  params);
-		connection.setRequestMethod("GET");
-		connection.setRequestProperty("Accept-Encoding", "gzip");
-		connection.setDoInput(true);
-		connection.setDoOutput(false);
-		connection.connect();
+		TransportRequest request = 
+			session.newRequest("GET", session.getURL(tablename, params));
+		request.setHeader("Accept-Encoding", "gzip");
+		TransportResponse response = session.execute(request);
 		if (logger.isDebugEnabled()) {
-			logger.debug(HttpUtil.getAllHeaders(connection));
+			logger.debug(HttpUtil.getAllHeaders(response));
 		}				
-		int responseCode = connection.getResponseCode();
-		String contentType = connection.getContentType();
+		int responseCode = response.getStatusCode();
+		String contentType = response.getContentType();
 		if (responseCode != HttpURLConnection.HTTP_OK)  {
+			response.close();
 			if (responseCode == HttpURLConnection.HTTP_FORBIDDEN ||
 					responseCode == HttpURLConnection.HTTP_UNAUTHORIZED)
 				throw new InsufficientRightsException();
 			else
 				throw new IOException();
 		}
-		String responseBuffer = HttpUtil.readFully(connection);
+		String responseBuffer = HttpUtil.readFully(response);
 		assert responseBuffer != null : "WSDL response is null";
 		assert responseBuffer.length() > 0 : "WSDL response is empty";
 		if (!"text/xml".equals(contentType)) {
-			logger.debug(HttpUtil.getAllHeaders(connection));
+			logger.debug(HttpUtil.getAllHeaders(response));
 			logger.debug("responseBuffer=" + responseBuffer);
 			if (responseBuffer.contains("WSDLGeneratorException") || 
 					responseBuffer.contains("Cannot generate WSDL"))
@@ -89,6 +92,7 @@ public class TableWSDL {
 		}		
 		readColumnNames = getColumnNames("getResponse");
 		readColumnTypes = getColumnTypes("getResponse");
+		readColumnIndex = new FieldIndex(readColumnNames);
 		writeColumnNames = getColumnNames("update");
 		writeColumnTypes = getColumnTypes("update");		
 	}
@@ -141,6 +145,14 @@ public class TableWSDL {
 		return readColumnNames;
 	}
 	
+	/**
+	 * Positions of the read columns, used by {@link Record}
+	 * to hold field values in an array.
+	 */
+	FieldIndex getReadColumnIndex() {
+		return readColumnIndex;
+	}
+	
 	public FieldNames getWriteColumnNames() {
 		return writeColumnNames;
 	}
@@ -149,6 +161,17 @@ public class TableWSDL {
 		return readColumnTypes.get(fieldname) != null;
 	}
 	
+	/**
+	 * Return the XML schema type of a readable field 
+	 * (e.g. "string", "boolean" or "integer"),
+	 * or null if the field cannot be read.
+	 */
+	public String getReadColumnType(String fieldname) {
+		String type = readColumnTypes.get(fieldname);
+		if (type == null) return null;
+		return type.startsWith("xsd:") ? type.substring(4) : type;
+	}
+	
 	public boolean canWriteField(String fieldname) {
 		return writeColumnTypes.get(fieldname) != null;
 	}
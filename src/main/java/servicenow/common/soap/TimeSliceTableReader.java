@@ -0,0 +1,219 @@
+package servicenow.common.soap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import servicenow.common.soap.DateTime;
+import servicenow.common.soap.KeyList;
+import servicenow.common.soap.Parameters;
+import servicenow.common.soap.PartitionQueue;
+import servicenow.common.soap.PartitionQueue.Partition;
+import servicenow.common.soap.QueryFilter;
+import servicenow.common.soap.RecordList;
+import servicenow.common.soap.SoapResponseException;
+import servicenow.common.soap.Table;
+import servicenow.common.soap.TableReader;
+
+/**
+ * A {@link TableReader} which divides a datetime range into slices
+ * and reads several slices concurrently.
+ * <p/>
+ * The range (by default from the earliest to the latest value of
+ * the field) is repeatedly bisected, using a COUNT aggregate for each half,
+ * until each slice holds no more than the slice size.
+ * Each slice is then read by a {@link BasicTableReader}
+ * on a worker thread, and the number of rows read from each slice
+ * is compared with its count.
+ * <p/>
+ * This gives balanced partitions for tables which have no suitable
+ * category field for a {@link PartitionedTableReader}.
+ * <p/>
+ * Chunks are returned in order of arrival, not in datetime order.
+ * Records where the field is empty are not read.
+ * {@link #close()} must be called if the reader is abandoned
+ * before all chunks have been read.
+ */
+public class TimeSliceTableReader extends TableReader {
+
+	static final int DEFAULT_SLICE_SIZE = 20000;
+	static final int DEFAULT_THREADS = 4;
+
+	final String fieldName;
+	private DateTime rangeStart = null;
+	private DateTime rangeEnd = null;
+	int sliceSize = DEFAULT_SLICE_SIZE;
+	int threads = DEFAULT_THREADS;
+	List<Partition> slices = null;
+	private PartitionQueue queue = null;
+	// not a monitor, so that a virtual thread is not pinned
+	// while the slices are counted or a chunk is awaited
+	private final ReentrantLock lock = new ReentrantLock();
+
+	public TimeSliceTableReader(Table table) throws IOException {
+		this(table, "sys_created_on");
+	}
+
+	/**
+	 * @param fieldName A datetime field such as sys_created_on or sys_updated_on.
+	 */
+	public TimeSliceTableReader(Table table, String fieldName) throws IOException {
+		super(table);
+		assert fieldName != null;
+		assert fieldName.length() > 0;
+		this.fieldName = fieldName;
+	}
+
+	/**
+	 * Restrict the reader to the range [start, end).
+	 * If either value is null then it is determined from the data.
+	 */
+	public TimeSliceTableReader setRange(DateTime start, DateTime end) {
+		if (started) throw new IllegalStateException();
+		this.rangeStart = start;
+		this.rangeEnd = end;
+		return this;
+	}
+
+	/**
+	 * Sets the maximum number of rows in a slice.
+	 * Slices of one second are not divided further.
+	 */
+	public TimeSliceTableReader setSliceSize(int rows) {
+		if (started) throw new IllegalStateException();
+		if (rows < 1) throw new IllegalArgumentException("rows=" + rows);
+		this.sliceSize = rows;
+		return this;
+	}
+
+	/**
+	 * Sets the number of slices which are read concurrently.
+	 */
+	public TimeSliceTableReader setThreads(int threads) {
+		if (started) throw new IllegalStateException();
+		if (threads < 1) throw new IllegalArgumentException("threads=" + threads);
+		this.threads = threads;
+		return this;
+	}
+
+	/**
+	 * Returns the filter for the range [start, end).
+	 */
+	QueryFilter sliceFilter(DateTime start, DateTime end) {
+		QueryFilter result = new QueryFilter(filter == null ? null : filter.toString());
+		result.addFilter(fieldName, ">=", start.toString());
+		result.addFilter(fieldName, QueryFilter.LESS_THAN, end.toString());
+		return result;
+	}
+
+	/**
+	 * Return the first or last value of the field in the table,
+	 * or null if there are no records.
+	 */
+	private DateTime getLimit(boolean last) throws IOException {
+		QueryFilter query = new QueryFilter(filter == null ? null : filter.toString());
+		query.addFilter(fieldName + "ISNOTEMPTY");
+		Parameters params = new Parameters();
+		params.add(query.asParameters());
+		params.add(last ? "__order_by_desc" : "__order_by", fieldName);
+		params.add("__first_row", "0");
+		params.add("__last_row", "1");
+		RecordList recs = table.getRecords(params);
+		if (recs.size() == 0) return null;
+		return recs.get(0).getDateTime(fieldName);
+	}
+
+	/**
+	 * Divide the range into slices.
+	 * This method makes a number of COUNT aggregate calls.
+	 */
+	List<Partition> getSlices() throws IOException {
+		lock.lock();
+		try {
+			if (slices != null) return slices;
+			started = true;
+			DateTime start = rangeStart;
+			DateTime end = rangeEnd;
+			if (start == null) start = getLimit(false);
+			if (end == null) {
+				DateTime last = getLimit(true);
+				// end of range is exclusive
+				end = (last == null) ? null : last.addSeconds(1);
+			}
+			slices = new ArrayList<Partition>();
+			if (start != null && end != null && start.compareTo(end) < 0) {
+				int count = table.getCount(sliceFilter(start, end));
+				bisect(start, end, count);
+			}
+			logger.info("getSlices " + fieldName + " slices=" + slices.size());
+			return slices;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	private void bisect(DateTime start, DateTime end, int count) throws IOException {
+		if (count == 0) return;
+		long seconds = end.getSeconds() - start.getSeconds();
+		if (count <= sliceSize || seconds < 2) {
+			Partition slice = new Partition(
+				fieldName + "=[" + start + "," + end + ")",
+				sliceFilter(start, end), count);
+			logger.debug("slice " + slice);
+			slices.add(slice);
+			return;
+		}
+		DateTime mid = new DateTime(new Date((start.getSeconds() + seconds / 2) * 1000));
+		// both halves are counted, since a record may be created or deleted 
+		// after the count of the whole range
+		int countLeft = table.getCount(sliceFilter(start, mid));
+		int countRight = table.getCount(sliceFilter(mid, end));
+		bisect(start, mid, countLeft);
+		bisect(mid, end, countRight);
+	}
+
+	@Override
+	public RecordList nextChunk() throws IOException, InterruptedException,
+			SoapResponseException, NoSuchElementException {
+		lock.lock();
+		try {
+			if (finished) throw new NoSuchElementException("no more data");
+			if (slices == null) getSlices();
+			if (queue == null)
+				queue = new PartitionQueue(table, slices, sort, viewName, threads, 2 * threads);
+			RecordList chunk = queue.next();
+			if (chunk == null) {
+				chunk = new RecordList(this.table, 0);
+				finished = true;
+			}
+			recordsRead += chunk.size();
+			return chunk;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stop any worker threads.
+	 */
+	@Override
+	public void close() {
+		lock.lock();
+		try {
+			if (queue != null) queue.close();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	public KeyList getKeys() {
+		throw new UnsupportedOperationException();
+	}
+
+}
@@ -0,0 +1,29 @@
+package servicenow.common.soap;
+
+import java.io.IOException;
+
+import servicenow.common.soap.Session;
+import servicenow.common.soap.TransportRequest;
+import servicenow.common.soap.TransportResponse;
+
+/**
+ * Sends HTTP requests to the instance on behalf of a {@link Session}.
+ * <p/>
+ * The implementation is selected by the property <b>transport</b>,
+ * which may be <b>pooled</b> (the default), <b>urlconnection</b>
+ * or the name of a class which implements this interface
+ * and has a public constructor taking a {@link SessionConfiguration}.
+ * 
+ * @see PooledTransport
+ * @see URLConnectionTransport
+ */
+public interface Transport {
+
+	/**
+	 * Send a request and return the response.
+	 * The caller must close the response.
+	 */
+	public abstract TransportResponse execute(TransportRequest request)
+			throws IOException;
+	
+}
@@ -0,0 +1,51 @@
+package servicenow.common.soap;
+
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import servicenow.common.soap.Transport;
+
+/**
+ * An HTTP request to be sent by a {@link Transport}.
+ */
+public class TransportRequest {
+
+	final String method;
+	final URL url;
+	final LinkedHashMap<String,String> headers = new LinkedHashMap<String,String>();
+	byte[] body = null;
+	Integer timeoutMillisec = null;
+	
+	public TransportRequest(String method, URL url) {
+		assert "GET".equals(method) || "POST".equals(method);
+		this.method = method;
+		this.url = url;
+	}
+	
+	public TransportRequest setHeader(String name, String value) {
+		headers.put(name, value);
+		return this;
+	}
+	
+	public TransportRequest setBody(byte[] body) {
+		this.body = body;
+		return this;
+	}
+	
+	/**
+	 * Sets both the connect timeout and the read timeout.
+	 * If null then the transport default is used.
+	 */
+	public TransportRequest setTimeout(Integer millisec) {
+		this.timeoutMillisec = millisec;
+		return this;
+	}
+	
+	public String getMethod() { return this.method; }
+	public URL getURL() { return this.url; }
+	public Map<String,String> getHeaders() { return this.headers; }
+	public byte[] getBody() { return this.body; }
+	public Integer getTimeout() { return this.timeoutMillisec; }
+	
+}
@@ -0,0 +1,152 @@
+package servicenow.common.soap;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import servicenow.common.soap.Transport;
+
+/**
+ * An HTTP response returned by a {@link Transport}.
+ * <p/>
+ * The response must be closed when it is no longer needed
+ * so that the underlying connection can be reused.
+ * Closing the stream returned by {@link #getBody()} 
+ * also closes the response.
+ */
+public abstract class TransportResponse {
+
+	final int statusCode;
+	final String statusMessage;
+	final ArrayList<String> headerNames = new ArrayList<String>();
+	final ArrayList<String> headerValues = new ArrayList<String>();
+	String connectionId = null;
+	boolean connectionReused = false;
+	private InputStream body = null;
+	private boolean closed = false;
+	// not a monitor, because opening or releasing the body may block on I/O
+	private final ReentrantLock lock = new ReentrantLock();
+	
+	protected TransportResponse(int statusCode, String statusMessage) {
+		this.statusCode = statusCode;
+		this.statusMessage = statusMessage;
+	}
+	
+	protected void addHeader(String name, String value) {
+		headerNames.add(name);
+		headerValues.add(value);
+	}
+
+	/**
+	 * Identifies the pooled connection which carried this response
+	 * and whether it had previously carried another request.
+	 * This information is recorded in the {@link SessionMetrics}.
+	 */
+	protected void setConnection(String connectionId, boolean reused) {
+		this.connectionId = connectionId;
+		this.connectionReused = reused;
+	}
+	
+	public int getStatusCode() { return this.statusCode; }
+	public String getStatusMessage() { return this.statusMessage; }
+	public String getConnectionId() { return this.connectionId; }
+	public boolean isConnectionReused() { return this.connectionReused; }
+	
+	/**
+	 * Return the value of the first header with this name 
+	 * (case insensitive) or null if there is no such header.
+	 */
+	public String getHeader(String name) {
+		for (int i = 0; i < headerNames.size(); ++i) {
+			if (name.equalsIgnoreCase(headerNames.get(i)))
+				return headerValues.get(i);
+		}
+		return null;
+	}
+	
+	/**
+	 * Return the values of all headers with this name (case insensitive).
+	 */
+	public List<String> getHeaders(String name) {
+		List<String> result = new ArrayList<String>();
+		for (int i = 0; i < headerNames.size(); ++i) {
+			if (name.equalsIgnoreCase(headerNames.get(i)))
+				result.add(headerValues.get(i));
+		}
+		return result;
+	}
+	
+	public int numHeaders() { return headerNames.size(); }
+	public String getHeaderName(int index) { return headerNames.get(index); }
+	public String getHeaderValue(int index) { return headerValues.get(index); }
+	
+	public String getContentType() { return getHeader("Content-Type"); }
+	public String getContentEncoding() { return getHeader("Content-Encoding"); }
+	
+	public int getContentLength() {
+		String value = getHeader("Content-Length");
+		if (value == null) return -1;
+		try {
+			return Integer.parseInt(value.trim());
+		}
+		catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+	
+	/**
+	 * Return the response body, or the error body if the status code
+	 * indicates an error. May return null if there is no body.
+	 */
+	public InputStream getBody() throws IOException {
+		lock.lock();
+		try {
+			if (closed) throw new IllegalStateException("response is closed");
+			if (body == null) {
+				InputStream raw = openBody();
+				if (raw == null) return null;
+				body = new FilterInputStream(raw) {
+					public void close() throws IOException {
+						TransportResponse.this.close();
+					}
+				};
+			}
+			return body;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Release the response.
+	 * Any unread portion of the body is consumed or discarded
+	 * as appropriate for the transport.
+	 */
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			if (closed) return;
+			closed = true;
+			release(body != null);
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Return the raw body stream or null if there is no body.
+	 */
+	protected abstract InputStream openBody() throws IOException;
+	
+	/**
+	 * Release the connection.
+	 * @param opened true if {@link #openBody()} was called.
+	 */
+	protected abstract void release(boolean opened) throws IOException;
+	
+}
@@ -0,0 +1,82 @@
+package servicenow.common.soap;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.Map;
+
+import servicenow.common.soap.SessionConfiguration;
+import servicenow.common.soap.Transport;
+import servicenow.common.soap.TransportRequest;
+import servicenow.common.soap.TransportResponse;
+
+/**
+ * A {@link Transport} which opens a new HttpURLConnection for every request.
+ * Connection reuse is left to the JDK keep-alive cache.
+ * <p/>
+ * This transport is used if the property <b>transport=urlconnection</b>.
+ */
+public class URLConnectionTransport implements Transport {
+
+	public URLConnectionTransport(SessionConfiguration config) {		
+	}
+	
+	public TransportResponse execute(TransportRequest request) 
+			throws IOException {
+		HttpURLConnection connection = 
+			(HttpURLConnection) request.getURL().openConnection();
+		for (Map.Entry<String,String> header : request.getHeaders().entrySet()) {
+			connection.setRequestProperty(header.getKey(), header.getValue());
+		}
+		Integer timeout = request.getTimeout();
+		if (timeout != null) {
+			connection.setConnectTimeout(timeout);
+			connection.setReadTimeout(timeout);
+		}
+		byte[] body = request.getBody();
+		connection.setDoInput(true);
+		connection.setDoOutput(body != null);
+		connection.setRequestMethod(request.getMethod());
+		connection.connect();
+		if (body != null) {
+			OutputStream output = connection.getOutputStream();
+			output.write(body);
+			output.close();
+		}
+		int responseCode = connection.getResponseCode();
+		return new Response(connection, responseCode);
+	}
+	
+	static class Response extends TransportResponse {
+		
+		final HttpURLConnection connection;
+		InputStream stream = null;
+		
+		Response(HttpURLConnection connection, int responseCode) 
+				throws IOException {
+			super(responseCode, connection.getResponseMessage());
+			this.connection = connection;
+			// header 0 is the status line
+			String name;
+			for (int i = 1; (name = connection.getHeaderFieldKey(i)) != null; ++i) {
+				addHeader(name, connection.getHeaderField(i));
+			}
+		}
+
+		protected InputStream openBody() throws IOException {
+			if (statusCode >= HttpURLConnection.HTTP_BAD_REQUEST)
+				stream = connection.getErrorStream();
+			else
+				stream = connection.getInputStream();
+			return stream;
+		}
+
+		protected void release(boolean opened) throws IOException {
+			// Closing the stream returns the socket to the keep-alive cache
+			if (!opened) openBody();
+			if (stream != null) stream.close();
+		}
+		
+	}
+}
@@ -36,6 +36,7 @@ import org.junit.runners.Suite.SuiteClasses;
 	JunitStartSuite.class,
 	JunitSuiteStatusTest.class,
 	BatchInsertTest.class,
+	ShadowLoadTest.class,
 	ReservedWordsTest.class,
 	PrimaryKeyTest.class,
 	JunitStartRunning.class,
@@ -45,6 +46,11 @@ import org.junit.runners.Suite.SuiteClasses;
 	JunitSuiteLoad.class,
 	NextRunTest.class,	
 	SqlGeneratorTest.class,
+	FieldBinderTest.class,
+	BulkLoaderTest.class,
+	CommitPolicyTest.class,
+	KeyListStatementsTest.class,
+	MetricsTest.class,
 	PruneTest.class,
 	PollingTestBack.class,
 	PollingTestNow.class,
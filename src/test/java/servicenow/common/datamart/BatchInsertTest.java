@@ -2,11 +2,20 @@ package servicenow.common.datamart;
 
 import static org.junit.Assert.*;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 
 import org.slf4j.Logger;
 
+import servicenow.common.datamart.JobController;
+import servicenow.common.datamart.Metrics;
+import servicenow.common.datamart.ResourceManager;
+import servicenow.common.datamart.Status;
+import servicenow.common.datamart.SuiteController;
 import servicenow.common.datamart.SuiteModel;
+import servicenow.common.soap.DateTime;
 
 import org.junit.After;
 import org.junit.Before;
@@ -21,6 +30,23 @@ public class BatchInsertTest {
 		AllTests.initialize();
 	}
 
+	/**
+	 * Run a suite with a single job and return the metrics of the job.
+	 */
+	static Metrics runJob(String command) throws Exception {
+		SuiteModel suite = AllTests.newSuite(command);
+		SuiteController controller = suite.getController();
+		try {
+			DateTime start = controller.startRunning();
+			JobController job = new JobController(controller, suite.getJobs().get(0));
+			job.runJob(start, Status.COMPLETE);
+			return job.getMetrics();
+		}
+		finally {
+			controller.close();
+		}
+	}
+	
 	@Test
 	public void testLoadGroups() throws Exception {
 		String tname = "sys_user_group";
@@ -34,6 +60,176 @@ public class BatchInsertTest {
 		assertTrue(count > 50);
 	}
 
+	@Test
+	public void testUpdateInsert() throws Exception {
+		String tname = "sys_user_group";
+		log.info("testUpdateInsert");
+		DB.dropTable(tname);
+		SuiteModel first = AllTests.newSuite(
+			"load " + tname + " where name<M update-insert");
+		first.getController().runOnce();
+		int partial = DB.numRows(tname);
+		// second load updates the existing rows and inserts the rest
+		SuiteModel second = AllTests.newSuite(
+			"load " + tname + " update-insert");
+		second.getController().runOnce();
+		int count = DB.numRows(tname);
+		log.info("partial=" + partial + " count=" + count);
+		assertTrue(partial > 0);
+		assertTrue(count > partial);
+	}
+
+	@Test
+	public void testUpsert() throws Exception {
+		String tname = "sys_user_group";
+		log.info("testUpsert");
+		DB.dropTable(tname);
+		Metrics first = runJob("load " + tname + " where name<M upsert");
+		int partial = DB.numRows(tname);
+		assertTrue(partial > 0);
+		assertEquals(partial, first.recordsUpdated());
+		// the second load must overwrite the changed values
+		DB.sqlUpdate("update " + DB.tableName(tname) + " set name='junit upsert'");
+		Metrics second = runJob("load " + tname + " upsert");
+		int count = DB.numRows(tname);
+		log.info("partial=" + partial + " count=" + count);
+		assertTrue(count > partial);
+		// every upserted record is counted as an update
+		assertEquals(count, second.recordsUpdated());
+		assertEquals(0, second.recordsInserted());
+		assertEquals(0, DB.sqlCountTable(tname, "where name='junit upsert'"));
+	}
+
+	@Test
+	public void testCompareTimestamps() throws Exception {
+		String tname = "sys_user_group";
+		String command = "load " + tname + " compare-timestamps";
+		log.info("testCompareTimestamps");
+		DB.dropTable(tname);
+		runJob("load " + tname + " where name<M");
+		int partial = DB.numRows(tname);
+		assertTrue(partial > 0);
+		// existing records are unchanged and the rest are inserted
+		Metrics second = runJob(command);
+		int count = DB.numRows(tname);
+		log.info("partial=" + partial + " count=" + count);
+		assertTrue(count > partial);
+		assertEquals(partial, second.recordsUnchanged());
+		assertEquals(count - partial, second.recordsInserted());
+		assertEquals(0, second.recordsUpdated());
+		// a record which is older in the database is updated
+		Connection dbc = DB.getConnection();
+		PreparedStatement stmt = dbc.prepareStatement("update " + DB.tableName(tname) + 
+			" set sys_updated_on=? where name<'M'");
+		stmt.setTimestamp(1, new Timestamp(0));
+		int backdated = stmt.executeUpdate();
+		stmt.close();
+		dbc.commit();
+		assertTrue(backdated > 0);
+		Metrics third = runJob(command);
+		assertEquals(backdated, third.recordsUpdated());
+		assertEquals(count - backdated, third.recordsUnchanged());
+		assertEquals(0, third.recordsInserted());
+		// identical data
+		Metrics fourth = runJob(command);
+		assertEquals(count, fourth.recordsUnchanged());
+		assertEquals(0, fourth.recordsUpdated());
+		assertEquals(0, fourth.recordsInserted());
+		assertEquals(count, DB.numRows(tname));
+	}
+
+	@Test
+	public void testWriteConnections() throws Exception {
+		String tname = "sys_user_group";
+		String prop = "datamart." + tname + ".write_connections";
+		log.info("testWriteConnections");
+		DB.dropTable(tname);
+		AllTests.getProperties().setProperty(prop, "3");
+		try {
+			SuiteModel suite = AllTests.newSuite(
+				"load " + tname + " update-insert");
+			suite.getController().runOnce();
+		}
+		finally {
+			AllTests.getProperties().remove(prop);
+		}
+		int count = DB.numRows(tname);
+		log.info("count=" + count);
+		assertTrue(count > 50);
+	}
+
+	@Test
+	public void testWriteConnectionsInsertOnly() throws Exception {
+		String tname = "sys_user_group";
+		String prop = "datamart." + tname + ".write_connections";
+		log.info("testWriteConnectionsInsertOnly");
+		// write_connections is ignored for an insert-only load,
+		// which cannot be resumed after a partial commit
+		assertFalse(ParallelTableWriter.supports(LoadMethod.INSERT_ONLY));
+		assertFalse(ParallelTableWriter.supports(LoadMethod.COMPARE_TIMESTAMPS));
+		assertTrue(ParallelTableWriter.supports(LoadMethod.UPSERT));
+		DB.dropTable(tname);
+		AllTests.getProperties().setProperty(prop, "3");
+		try {
+			SuiteModel suite = AllTests.newSuite("load " + tname);
+			suite.getController().runOnce();
+		}
+		finally {
+			AllTests.getProperties().remove(prop);
+		}
+		int count = DB.numRows(tname);
+		log.info("count=" + count);
+		assertTrue(count > 50);
+	}
+
+	@Test
+	public void testPooledConnection() throws Exception {
+		String tname = "sys_user_group";
+		String prop = "datamart.pool_size";
+		log.info("testPooledConnection");
+		DB.dropTable(tname);
+		AllTests.getProperties().setProperty(prop, "1");
+		try {
+			// the second suite reuses the connection and the table writer
+			SuiteModel first = AllTests.newSuite(
+				"load " + tname + " where name<M update-insert");
+			first.getController().runOnce();
+			int partial = DB.numRows(tname);
+			SuiteModel second = AllTests.newSuite(
+				"load " + tname + " update-insert");
+			second.getController().runOnce();
+			int count = DB.numRows(tname);
+			log.info("partial=" + partial + " count=" + count);
+			assertTrue(partial > 0);
+			assertTrue(count > partial);
+		}
+		finally {
+			AllTests.getProperties().remove(prop);
+			ResourceManager.closeConnectionPools();
+		}
+	}
+
+	@Test
+	public void testParallelJobs() throws Exception {
+		String prop = "datamart.parallel_jobs";
+		log.info("testParallelJobs");
+		DB.dropTable("sys_user_group");
+		DB.dropTable("cmn_department");
+		AllTests.getProperties().setProperty(prop, "2");
+		try {
+			String[] jobs = {
+				"load sys_user_group order 1",
+				"load cmn_department order 1"};
+			SuiteModel suite = AllTests.newSuite(jobs);
+			suite.getController().runOnce();
+		}
+		finally {
+			AllTests.getProperties().remove(prop);
+		}
+		assertTrue(DB.numRows("sys_user_group") > 50);
+		assertTrue(DB.numRows("cmn_department") > 0);
+	}
+
 	@After
 	public void tearDownAfter() throws SQLException {
 		DB.rollback();
@@ -0,0 +1,43 @@
+package servicenow.common.datamart;
+
+import static org.junit.Assert.*;
+
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+import servicenow.common.datamart.BulkLoader.TextFormat;
+
+public class BulkLoaderTest {
+
+	static String text(TextFormat format, Object value) {
+		StringBuilder buf = new StringBuilder();
+		format.appendValue(buf, value);
+		return buf.toString();
+	}
+
+	@Test
+	public void testEscapes() {
+		TextFormat format = new TextFormat(TimeZone.getTimeZone("GMT"));
+		assertEquals("\\N", text(format, null));
+		assertEquals("abc", text(format, "abc"));
+		assertEquals("a\\tb\\nc\\rd\\\\e", text(format, "a\tb\nc\rd\\e"));
+		assertEquals("\u20ac", text(format, "\u20ac"));
+		assertEquals("1", text(format, Boolean.TRUE));
+		assertEquals("0", text(format, Boolean.FALSE));
+		assertEquals("42", text(format, Integer.valueOf(42)));
+		assertEquals("1.5", text(format, Double.valueOf(1.5)));
+	}
+
+	@Test
+	public void testTimestamps() {
+		// 2014-03-09 10:11:12 GMT
+		long millis = 1394359872000L;
+		TextFormat gmt = new TextFormat(TimeZone.getTimeZone("GMT"));
+		assertEquals("2014-03-09 10:11:12", text(gmt, new java.sql.Timestamp(millis)));
+		assertEquals("2014-03-09", text(gmt, new java.sql.Date(millis)));
+		TextFormat eastern = new TextFormat(TimeZone.getTimeZone("America/New_York"));
+		assertEquals("2014-03-09 06:11:12", text(eastern, new java.sql.Timestamp(millis)));
+	}
+
+}
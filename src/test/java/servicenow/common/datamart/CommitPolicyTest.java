@@ -0,0 +1,58 @@
+package servicenow.common.datamart;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import servicenow.common.datamart.CommitPolicy;
+import servicenow.common.datamart.Metrics;
+
+public class CommitPolicyTest {
+
+	@Test
+	public void testEveryChunk() {
+		CommitPolicy policy = new CommitPolicy(0, 0, 0);
+		policy.written(10, 0);
+		assertTrue(policy.isDue());
+	}
+
+	@Test
+	public void testRows() {
+		CommitPolicy policy = new CommitPolicy(250, 0, 0);
+		Metrics metrics = new Metrics();
+		policy.written(200, 0);
+		policy.pending().incrementInserts(200);
+		assertFalse(policy.isDue());
+		assertEquals(0, metrics.recordsInserted());
+		policy.written(200, 0);
+		policy.pending().incrementInserts(200);
+		assertTrue(policy.isDue());
+		assertEquals(400, policy.committed(metrics));
+		assertEquals(400, metrics.recordsInserted());
+		assertEquals(400, metrics.recordsPublished());
+		assertFalse(policy.hasPending());
+		assertEquals(0, policy.pending().recordsInserted());
+	}
+
+	@Test
+	public void testBytes() {
+		CommitPolicy policy = new CommitPolicy(0, 1, 0);
+		assertTrue(policy.measuresBytes());
+		policy.written(100, 1000000L);
+		assertFalse(policy.isDue());
+		policy.written(100, 100000L);
+		assertTrue(policy.isDue());
+	}
+
+	@Test
+	public void testRollback() {
+		CommitPolicy policy = new CommitPolicy(1000, 0, 0);
+		Metrics metrics = new Metrics();
+		policy.written(10, 0);
+		policy.pending().incrementUpdates(10);
+		policy.clear();
+		assertEquals(0, policy.committed(metrics));
+		assertEquals(0, metrics.recordsUpdated());
+	}
+
+}
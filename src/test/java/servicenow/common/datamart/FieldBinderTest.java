@@ -0,0 +1,77 @@
+package servicenow.common.datamart;
+
+import static org.junit.Assert.*;
+
+import java.sql.Types;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+
+import servicenow.common.datamart.FieldBinder;
+import servicenow.common.datamart.SqlFieldDefinition;
+import servicenow.common.soap.Key;
+
+public class FieldBinderTest {
+
+	static Logger logger = AllTests.getLogger(FieldBinderTest.class);
+	static Calendar gmt = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
+	static Key key = new Key("0123456789abcdef0123456789abcdef");
+
+	static FieldBinder binder(int sqltype, int size, String xsdType, String dialect) {
+		SqlFieldDefinition defn = new SqlFieldDefinition("col", sqltype, size, "col");
+		return FieldBinder.create(defn, xsdType, dialect, gmt, logger, false);
+	}
+
+	@Test
+	public void testUtf8Prefix() {
+		assertEquals(3, FieldBinder.utf8Prefix("abcdef", 3));
+		// e-acute is 2 bytes
+		assertEquals(2, FieldBinder.utf8Prefix("a\u00e9b", 3));
+		assertEquals(3, FieldBinder.utf8Prefix("a\u00e9b", 4));
+		// euro sign is 3 bytes
+		assertEquals(1, FieldBinder.utf8Prefix("\u20ac\u20ac", 5));
+		// a surrogate pair is 4 bytes and is not divided
+		String smile = "x\ud83d\ude00";
+		assertEquals(1, FieldBinder.utf8Prefix(smile, 4));
+		assertEquals(3, FieldBinder.utf8Prefix(smile, 5));
+	}
+
+	@Test
+	public void testVarchar() {
+		FieldBinder chars = binder(Types.VARCHAR, 4, "string", "mysql");
+		assertEquals("abcd", chars.convert(key, "abcdefg"));
+		assertEquals("\u20ac\u20ac", chars.convert(key, "\u20ac\u20ac"));
+		FieldBinder bytes = binder(Types.VARCHAR, 4, "string", "oracle2");
+		assertEquals("\u20ac", bytes.convert(key, "\u20ac\u20ac"));
+		assertEquals("abc", bytes.convert(key, "abc"));
+	}
+
+	@Test
+	public void testDuration() {
+		FieldBinder duration = binder(Types.INTEGER, 0, "string", null);
+		assertEquals(Integer.valueOf(97445), duration.convert(key, "1970-01-02 03:04:05"));
+		assertNull(duration.convert(key, "1969-12-31 23:59:59"));
+		assertEquals(Integer.valueOf(12), duration.convert(key, "12.7"));
+		FieldBinder number = binder(Types.DECIMAL, 0, "decimal", null);
+		assertEquals(Double.valueOf(1.5), number.convert(key, "1.5"));
+	}
+
+	@Test
+	public void testTimestamp() {
+		FieldBinder ts = binder(Types.TIMESTAMP, 0, "string", null);
+		java.sql.Timestamp value = (java.sql.Timestamp) ts.convert(key, "1970-01-01 00:01:00");
+		assertEquals(60000L, value.getTime());
+		assertNull(ts.convert(key, "not a date"));
+	}
+
+	@Test
+	public void testBoolean() {
+		FieldBinder bool = binder(Types.BIT, 0, "boolean", null);
+		assertEquals(Boolean.TRUE, bool.convert(key, "true"));
+		assertEquals(Boolean.FALSE, bool.convert(key, "0"));
+		assertNull(bool.convert(key, "maybe"));
+	}
+
+}
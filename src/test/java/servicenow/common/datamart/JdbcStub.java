@@ -0,0 +1,134 @@
+package servicenow.common.datamart;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A JDBC connection which needs no database, for testing the statements
+ * which contain an IN list of keys.
+ * The connection records each statement which is prepared.
+ * A query returns the sys_id and sys_updated_on of the bound keys
+ * which are in {@link #rows}. An update deletes the bound keys
+ * which are in {@link #rows} and returns the number deleted.
+ */
+class JdbcStub {
+
+	/**
+	 * A statement which has been prepared on the connection.
+	 */
+	static class StubStatement implements InvocationHandler {
+		final String sql;
+		final Map<Integer,String> binds = new TreeMap<Integer,String>();
+		final List<List<String>> executions = new ArrayList<List<String>>();
+		boolean closed = false;
+		private final JdbcStub connection;
+
+		StubStatement(JdbcStub connection, String sql) {
+			this.connection = connection;
+			this.sql = sql;
+		}
+
+		/**
+		 * The number of bind variables in the statement.
+		 */
+		int size() {
+			int count = 0;
+			for (int i = 0; i < sql.length(); ++i)
+				if (sql.charAt(i) == '?') count += 1;
+			return count;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			String name = method.getName();
+			if (closed && !name.equals("close") && !name.equals("isClosed"))
+				throw new IllegalStateException("statement is closed");
+			if (name.equals("setString")) {
+				binds.put((Integer) args[0], (String) args[1]);
+				return null;
+			}
+			if (name.equals("executeQuery")) {
+				List<String> keys = execute();
+				List<String> found = new ArrayList<String>();
+				for (String key : keys)
+					if (connection.rows.containsKey(key)) found.add(key);
+				return resultSet(found.iterator());
+			}
+			if (name.equals("executeUpdate")) {
+				int count = 0;
+				for (String key : execute())
+					if (connection.rows.remove(key) != null) count += 1;
+				return count;
+			}
+			if (name.equals("close")) {
+				closed = true;
+				return null;
+			}
+			if (name.equals("isClosed")) return closed;
+			throw new UnsupportedOperationException(name);
+		}
+
+		private List<String> execute() {
+			List<String> keys = new ArrayList<String>(binds.values());
+			if (keys.size() != size())
+				throw new IllegalStateException(keys.size() + " of " + size() + " bound");
+			executions.add(keys);
+			return keys;
+		}
+
+		private ResultSet resultSet(final Iterator<String> iter) {
+			return (ResultSet) Proxy.newProxyInstance(
+				ResultSet.class.getClassLoader(),
+				new Class<?>[] { ResultSet.class },
+				new InvocationHandler() {
+					String current = null;
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						String name = method.getName();
+						if (name.equals("next")) {
+							current = iter.hasNext() ? iter.next() : null;
+							return current != null;
+						}
+						if (name.equals("getString")) return current;
+						if (name.equals("getTimestamp")) return connection.rows.get(current);
+						if (name.equals("close")) return null;
+						throw new UnsupportedOperationException(name);
+					}
+				});
+		}
+	}
+
+	/**
+	 * The sys_id and sys_updated_on of each row in the table.
+	 */
+	final Map<String,Timestamp> rows = new HashMap<String,Timestamp>();
+	final List<StubStatement> statements = new ArrayList<StubStatement>();
+
+	Connection getConnection() {
+		return (Connection) Proxy.newProxyInstance(
+			Connection.class.getClassLoader(),
+			new Class<?>[] { Connection.class },
+			new InvocationHandler() {
+				public Object invoke(Object proxy, Method method, Object[] args) {
+					if (method.getName().equals("prepareStatement")) {
+						StubStatement stmt = new StubStatement(JdbcStub.this, (String) args[0]);
+						statements.add(stmt);
+						return Proxy.newProxyInstance(
+							PreparedStatement.class.getClassLoader(),
+							new Class<?>[] { PreparedStatement.class }, stmt);
+					}
+					throw new UnsupportedOperationException(method.getName());
+				}
+			});
+	}
+
+}
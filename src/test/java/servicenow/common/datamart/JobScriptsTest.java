@@ -3,12 +3,14 @@ package servicenow.common.datamart;
 import static org.junit.Assert.*;
 
 import java.sql.SQLException;
+import java.util.List;
 
 import org.slf4j.Logger;
 
 import servicenow.common.datamart.JobModel;
 import servicenow.common.datamart.LoadMethod;
 import servicenow.common.datamart.Status;
+import servicenow.common.datamart.SuiteController;
 import servicenow.common.datamart.SuiteModel;
 import servicenow.common.datamart.SuiteParseException;
 import servicenow.common.soap.DateTime;
@@ -131,6 +133,29 @@ public class JobScriptsTest {
 		assertEquals(Status.QUEUED, job.getStatus());
 	}
 	
+	@Test
+	public void testOrder() throws Exception {
+		String[] mjobs = {
+			"load cmn_department order-by name order 1",
+			"refresh cmn_location order 1",
+			"sql {update dual set x=1} order 1",
+			"load sys_user order 2",
+			"load sys_user_group order 2",
+			"load cmn_department"};
+		SuiteModel suite = AllTests.newSuite(mjobs);
+		assertEquals(Integer.valueOf(1), suite.getJobs().get(0).getOrder());
+		assertEquals("name", suite.getJobs().get(0).getSortField());
+		assertNull(suite.getJobs().get(5).getOrder());
+		List<List<JobModel>> groups = SuiteController.groupJobs(suite.getJobs(), true);
+		assertEquals(4, groups.size());
+		assertEquals(2, groups.get(0).size());
+		assertEquals(1, groups.get(1).size());
+		assertEquals(2, groups.get(2).size());
+		assertEquals(1, groups.get(3).size());
+		groups = SuiteController.groupJobs(suite.getJobs(), false);
+		assertEquals(6, groups.size());
+	}
+	
 	@AfterClass
 	public static void tearDownAfterClass() throws SQLException {
 		DB.rollback();
@@ -0,0 +1,192 @@
+package servicenow.common.datamart;
+
+import static org.junit.Assert.*;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+
+import servicenow.common.datamart.JdbcStub.StubStatement;
+import servicenow.common.datamart.KeyListStatements;
+import servicenow.common.datamart.Metrics;
+import servicenow.common.datamart.SqlGenerator;
+import servicenow.common.soap.DateTime;
+import servicenow.common.soap.Key;
+
+public class KeyListStatementsTest {
+
+	static Logger logger = AllTests.getLogger(KeyListStatementsTest.class);
+
+	JdbcStub jdbc;
+	SqlGenerator generator;
+	KeyListStatements statements;
+	int maxInList;
+
+	@Before
+	public void setUp() throws Exception {
+		jdbc = new JdbcStub();
+		generator = new SqlGenerator("", "default", "", null);
+		maxInList = generator.maxInList();
+		Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
+		statements = new KeyListStatements(
+			jdbc.getConnection(), generator, "sys_user_group", calendar, logger);
+	}
+
+	static List<Key> keys(int size) {
+		List<Key> result = new ArrayList<Key>(size);
+		for (int i = 0; i < size; ++i)
+			result.add(new Key(String.format("%032x", i)));
+		return result;
+	}
+
+	/**
+	 * Two full slices share one statement.
+	 * The final, smaller slice has a statement of its own which is closed.
+	 */
+	@Test
+	public void testGetTimestamps() throws Exception {
+		int remainder = 5;
+		List<Key> keys = keys(2 * maxInList + remainder);
+		// every third record exists in the table
+		for (int i = 0; i < keys.size(); i += 3)
+			jdbc.rows.put(keys.get(i).toString(), new Timestamp(1000L * i));
+		Map<Key,DateTime> result = statements.getTimestamps(keys);
+		assertEquals(jdbc.rows.size(), result.size());
+		for (int i = 0; i < keys.size(); ++i) {
+			Key key = keys.get(i);
+			if (i % 3 == 0)
+				assertEquals(1000L * i, result.get(key).getMillisec());
+			else
+				assertFalse(result.containsKey(key));
+		}
+		assertEquals(2, jdbc.statements.size());
+		StubStatement full = jdbc.statements.get(0);
+		StubStatement last = jdbc.statements.get(1);
+		assertTrue(full.sql.startsWith("select"));
+		assertEquals(maxInList, full.size());
+		assertEquals(2, full.executions.size());
+		assertEquals(keys.subList(0, maxInList).toString(),
+			full.executions.get(0).toString());
+		assertEquals(keys.subList(maxInList, 2 * maxInList).toString(),
+			full.executions.get(1).toString());
+		assertFalse(full.closed);
+		assertEquals(remainder, last.size());
+		assertEquals(1, last.executions.size());
+		assertEquals(keys.subList(2 * maxInList, keys.size()).toString(),
+			last.executions.get(0).toString());
+		assertTrue(last.closed);
+		// the statement for a full slice is reused by the next call
+		statements.getTimestamps(keys.subList(0, maxInList));
+		assertEquals(2, jdbc.statements.size());
+		assertEquals(3, full.executions.size());
+		statements.close();
+		assertTrue(full.closed);
+	}
+
+	/**
+	 * A list which is exactly one slice needs no second statement.
+	 */
+	@Test
+	public void testGetTimestampsBoundary() throws Exception {
+		statements.getTimestamps(keys(maxInList));
+		assertEquals(1, jdbc.statements.size());
+		assertEquals(maxInList, jdbc.statements.get(0).size());
+		statements.getTimestamps(keys(maxInList - 1));
+		assertEquals(2, jdbc.statements.size());
+		assertEquals(maxInList - 1, jdbc.statements.get(1).size());
+		assertTrue(statements.getTimestamps(new ArrayList<Key>()).isEmpty());
+		assertEquals(2, jdbc.statements.size());
+	}
+
+	/**
+	 * Metrics which record the count passed to each call of incrementDeletes.
+	 */
+	static class DeleteMetrics extends Metrics {
+		final List<Integer> increments = new ArrayList<Integer>();
+		@Override
+		void incrementDeletes(int count) {
+			increments.add(count);
+			super.incrementDeletes(count);
+		}
+	}
+
+	/**
+	 * The keys cross the maxinlist boundary so there are two statements:
+	 * the cached statement for a full slice and a statement for the final slice.
+	 * The metrics are updated once per statement with the rows deleted.
+	 */
+	@Test
+	public void testDeleteBatch() throws Exception {
+		int remainder = 7;
+		List<Key> keys = keys(maxInList + remainder);
+		// the first slice has 3 rows in the table and the final slice has 2
+		String[] existing = {
+			keys.get(0).toString(), 
+			keys.get(1).toString(), 
+			keys.get(maxInList - 1).toString(),
+			keys.get(maxInList).toString(),
+			keys.get(keys.size() - 1).toString()};
+		for (String key : existing) jdbc.rows.put(key, new Timestamp(0));
+		DeleteMetrics metrics = new DeleteMetrics();
+		int count = statements.deleteBatch(keys, metrics);
+		assertEquals(5, count);
+		assertTrue(jdbc.rows.isEmpty());
+		assertEquals(2, metrics.increments.size());
+		assertEquals(Integer.valueOf(3), metrics.increments.get(0));
+		assertEquals(Integer.valueOf(2), metrics.increments.get(1));
+		assertEquals(5, metrics.recordsDeleted());
+		assertEquals(2, jdbc.statements.size());
+		StubStatement full = jdbc.statements.get(0);
+		StubStatement last = jdbc.statements.get(1);
+		assertTrue(full.sql.startsWith("delete"));
+		assertEquals(maxInList, full.size());
+		assertEquals(1, full.executions.size());
+		assertEquals(keys.subList(0, maxInList).toString(),
+			full.executions.get(0).toString());
+		assertFalse(full.closed);
+		assertTrue(last.sql.startsWith("delete"));
+		assertEquals(remainder, last.size());
+		assertEquals(1, last.executions.size());
+		assertEquals(keys.subList(maxInList, keys.size()).toString(),
+			last.executions.get(0).toString());
+		assertTrue(last.closed);
+		// a second batch reuses the statement for a full slice, 
+		// and a slice with no rows is still counted
+		metrics.increments.clear();
+		assertEquals(0, statements.deleteBatch(keys.subList(0, maxInList), metrics));
+		assertEquals(2, jdbc.statements.size());
+		assertEquals(2, full.executions.size());
+		assertEquals(1, metrics.increments.size());
+		assertEquals(Integer.valueOf(0), metrics.increments.get(0));
+		statements.close();
+		assertTrue(full.closed);
+	}
+
+	/**
+	 * The timestamps and deletes templates have separate cached statements.
+	 */
+	@Test
+	public void testSeparateStatements() throws Exception {
+		List<Key> keys = keys(maxInList);
+		statements.getTimestamps(keys);
+		statements.deleteBatch(keys, new Metrics());
+		statements.getTimestamps(keys);
+		statements.deleteBatch(keys, new Metrics());
+		assertEquals(2, jdbc.statements.size());
+		assertTrue(jdbc.statements.get(0).sql.startsWith("select"));
+		assertTrue(jdbc.statements.get(1).sql.startsWith("delete"));
+		assertEquals(2, jdbc.statements.get(0).executions.size());
+		assertEquals(2, jdbc.statements.get(1).executions.size());
+		statements.close();
+		assertTrue(jdbc.statements.get(0).closed);
+		assertTrue(jdbc.statements.get(1).closed);
+	}
+
+}
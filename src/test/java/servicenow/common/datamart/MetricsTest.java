@@ -0,0 +1,64 @@
+package servicenow.common.datamart;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import servicenow.common.datamart.Metrics;
+import servicenow.common.soap.DaemonThreadFactory;
+
+public class MetricsTest {
+
+	@Test
+	public void testAddMetrics() {
+		Metrics metrics = new Metrics();
+		assertEquals(0, metrics.recordsPublished());
+		Metrics other = new Metrics();
+		other.incrementInserts(5);
+		other.incrementUpdates(3);
+		other.incrementPublished(8);
+		other.setExpected(100);
+		metrics.addMetrics(other).addMetrics(other);
+		assertEquals(10, metrics.recordsInserted());
+		assertEquals(6, metrics.recordsUpdated());
+		assertEquals(16, metrics.recordsPublished());
+		assertEquals(Integer.valueOf(100), metrics.recordsExpected());
+		metrics.clear();
+		assertEquals(0, metrics.recordsInserted());
+		assertNull(metrics.recordsExpected());
+	}
+
+	@Test
+	public void testConcurrentUpdates() throws Exception {
+		// uses virtual threads if the JVM supports them
+		DaemonThreadFactory.setVirtualThreads(true);
+		final Metrics metrics = new Metrics();
+		ExecutorService workers = Executors.newFixedThreadPool(8, 
+			new DaemonThreadFactory("metrics"));
+		for (int i = 0; i < 100; ++i) {
+			workers.submit(new Runnable() {
+				public void run() {
+					for (int j = 0; j < 100; ++j) {
+						metrics.incrementInserts();
+						metrics.incrementPublished(1);
+					}
+				}
+			});
+		}
+		workers.shutdown();
+		assertTrue(workers.awaitTermination(30, TimeUnit.SECONDS));
+		assertEquals(10000, metrics.recordsInserted());
+		assertEquals(10000, metrics.recordsPublished());
+	}
+
+	@After
+	public void tearDown() {
+		DaemonThreadFactory.setVirtualThreads(false);
+	}
+
+}
@@ -0,0 +1,76 @@
+package servicenow.common.datamart;
+
+import static org.junit.Assert.*;
+
+import org.slf4j.Logger;
+
+import servicenow.common.datamart.SuiteModel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ShadowLoadTest {
+
+	static Logger log = AllTests.getLogger(ShadowLoadTest.class);
+	static final String tname = "sys_user_group";
+	static final String prop = "datamart." + tname + ".shadow_load";
+	
+	@Before
+	public void setUpBefore() throws Exception {
+		AllTests.getProperties().setProperty(prop, "true");
+		AllTests.initialize();
+	}
+
+	@Test
+	public void testShadowLoad() throws Exception {
+		log.info("testShadowLoad");
+		DB.dropTable(tname);
+		SuiteModel first = AllTests.newSuite(
+			"load " + tname + " where name<M");
+		first.getController().runOnce();
+		int partial = DB.numRows(tname);
+		// the shadow load replaces the rows from the first load
+		SuiteModel second = AllTests.newSuite(
+			"load " + tname + " where name>=M truncate");
+		second.getController().runOnce();
+		int count = DB.numRows(tname);
+		log.info("partial=" + partial + " count=" + count);
+		assertTrue(partial > 0);
+		assertTrue(count > 0);
+		DatabaseWriter dbwriter = AllTests.getDBWriter();
+		assertFalse(dbwriter.tableExists(dbwriter.shadowTableName(tname)));
+		assertFalse(dbwriter.tableExists(tname + "_old"));
+		assertEquals(0, DB.sqlCount(
+			"select count(*) from " + DB.tableName(tname) + " where name<'M'"));
+	}
+
+	@Test
+	public void testShadowLoadTwice() throws Exception {
+		log.info("testShadowLoadTwice");
+		DB.dropTable(tname);
+		SuiteModel first = AllTests.newSuite("load " + tname);
+		first.getController().runOnce();
+		int count = DB.numRows(tname);
+		DatabaseWriter dbwriter = AllTests.getDBWriter();
+		// the primary key of each shadow table must not have the name
+		// of the primary key of the table which it replaces
+		for (int i = 0; i < 2; ++i) {
+			String pkName = dbwriter.primaryKeyName(tname);
+			log.info("pk=" + pkName + " shadow pk=" + dbwriter.shadowPrimaryKeyName(tname));
+			assertFalse(dbwriter.shadowPrimaryKeyName(tname).equalsIgnoreCase(pkName));
+			SuiteModel shadow = AllTests.newSuite("load " + tname + " truncate");
+			shadow.getController().runOnce();
+			assertEquals(count, DB.numRows(tname));
+			assertFalse(dbwriter.tableExists(dbwriter.shadowTableName(tname)));
+			assertFalse(dbwriter.tableExists(tname + "_old"));
+		}
+	}
+
+	@After
+	public void tearDownAfter() throws Exception {
+		AllTests.getProperties().remove(prop);
+		DB.rollback();
+	}
+		
+}
@@ -4,8 +4,14 @@ import static org.junit.Assert.*;
 
 import org.junit.*;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.DatabaseMetaData;
 import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import org.slf4j.Logger;
 
 import servicenow.common.datamart.DatabaseWriter;
@@ -87,6 +93,84 @@ public class SqlGeneratorTest {
 		assertTrue(createSql.toUpperCase().startsWith("CREATE TABLE"));
 	}
 	
+	/**
+	 * Metadata for a database which stores lower case identifiers,
+	 * used by the dialects whose namecase is "auto".
+	 */
+	static DatabaseMetaData lowerCaseMetaData() {
+		return (DatabaseMetaData) Proxy.newProxyInstance(
+			DatabaseMetaData.class.getClassLoader(),
+			new Class<?>[] { DatabaseMetaData.class },
+			new InvocationHandler() {
+				public Object invoke(Object proxy, Method method, Object[] args) {
+					if (method.getName().equals("storesLowerCaseIdentifiers")) return true;
+					if (method.getName().equals("storesUpperCaseIdentifiers")) return false;
+					throw new UnsupportedOperationException(method.getName());
+				}
+			});
+	}
+	
+	static int countBindVariables(String sql) {
+		int count = 0;
+		for (int i = 0; i < sql.length(); ++i)
+			if (sql.charAt(i) == '?') count += 1;
+		return count;
+	}
+	
+	/**
+	 * The upsert statement of each dialect is generated without a database.
+	 * There is one bind variable per column and sys_id is never updated.
+	 */
+	@Test
+	public void testUpsertDialects() throws Exception {
+		String[] dialects = {
+			"default", "oracle", "oracle2", "mysql", "mssql", "postgres", "h2", "sqlite"};
+		List<String> columns = Arrays.asList("sys_id", "name", "sys_updated_on");
+		for (String dialect : dialects) {
+			SqlGenerator generator = 
+				new SqlGenerator("", dialect, "", lowerCaseMetaData());
+			String sql = generator.getUpsert("sys_user_group", columns);
+			logger.info(dialect + "\n" + sql);
+			if (dialect.equals("default")) {
+				assertNull(sql);
+				continue;
+			}
+			assertNotNull(dialect, sql);
+			assertFalse(dialect, sql.contains("$"));
+			assertEquals(dialect, columns.size(), countBindVariables(sql));
+			String sysId = generator.sqlQuote("sys_id");
+			String name = generator.sqlQuote("name");
+			for (String column : columns)
+				assertTrue(dialect + " " + column, sql.contains(generator.sqlQuote(column)));
+			// each updated column is on a line of its own
+			assertFalse(dialect, sql.contains("\n" + sysId + "="));
+			String upper = sql.toUpperCase();
+			if (dialect.startsWith("oracle")) {
+				assertTrue(upper.startsWith("MERGE INTO SYS_USER_GROUP"));
+				assertTrue(sql.contains("? AS " + name));
+				assertTrue(sql.contains(name + "=S." + name));
+			}
+			else if (dialect.equals("mssql")) {
+				assertTrue(upper.startsWith("MERGE INTO SYS_USER_GROUP"));
+				assertTrue(sql.contains(name + "=S." + name));
+			}
+			else if (dialect.equals("mysql")) {
+				assertTrue(upper.contains("ON DUPLICATE KEY UPDATE"));
+				assertTrue(sql.contains(name + "=VALUES(" + name + ")"));
+			}
+			else if (dialect.equals("postgres")) {
+				assertTrue(upper.contains("ON CONFLICT (SYS_ID) DO UPDATE"));
+				assertTrue(sql.contains(name + "=excluded." + name));
+			}
+			else if (dialect.equals("h2")) {
+				assertTrue(upper.startsWith("MERGE INTO SYS_USER_GROUP"));
+			}
+			else if (dialect.equals("sqlite")) {
+				assertTrue(upper.startsWith("INSERT OR REPLACE INTO SYS_USER_GROUP"));
+			}
+		}
+	}
+	
 	@After
 	public void tearDown() throws SQLException {
 		DB.rollback();
@@ -31,8 +31,13 @@ import org.junit.runners.Suite.SuiteClasses;
 	ValidateTest.class,
 	InsertMultipleTest.class,
 	KeyListTest.class,
+	KeyListPackTest.class,
+	InsertResponseTest.class,
 	CompressionTest.class,
-	ThreadTest.class
+	ThreadTest.class,
+	TableAsyncTest.class,
+	SoapResponseStreamTest.class,
+	TransportTest.class
 })
 
 
@@ -0,0 +1,93 @@
+package servicenow.common.soap;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import servicenow.common.soap.DateTime;
+
+/**
+ * Compares {@link DateTime#parseMillis(String)} with the 
+ * ThreadLocal SimpleDateFormat which it replaced.
+ * <p/>
+ * This is not a unit test. Run it with the test classpath:
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * java -cp target/test-classes:target/classes:$(cat cp.txt) servicenow.common.soap.DateTimeBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DateTimeBenchmark {
+
+	static final String[] values = {
+		"2014-01-15 12:00:17",
+		"2016-02-29 23:59:59",
+		"1970-01-02 03:04:05",
+		"2023-11-05 08:30:00"
+	};
+
+	static final ThreadLocal<DateFormat> dateFormat = 
+		new ThreadLocal<DateFormat>() {
+			protected DateFormat initialValue() {
+				DateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+				df.setTimeZone(TimeZone.getTimeZone("GMT"));
+				return df;
+			}
+		};
+
+	int next = 0;
+
+	private String nextValue() {
+		next = (next + 1) & 3;
+		return values[next];
+	}
+
+	@Benchmark
+	public long simpleDateFormat() throws ParseException {
+		return dateFormat.get().parse(nextValue()).getTime();
+	}
+
+	@Benchmark
+	public long parseMillis() {
+		return DateTime.parseMillis(nextValue());
+	}
+
+	@Benchmark
+	public DateTime newDateTime() {
+		return new DateTime(nextValue());
+	}
+
+	@Benchmark
+	public String format() {
+		return DateTime.format(1400000000000L + next++ * 1000L);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+			.include(DateTimeBenchmark.class.getSimpleName())
+			.build();
+		new Runner(options).run();
+	}
+
+}
@@ -2,7 +2,11 @@ package servicenow.common.soap;
 
 import static org.junit.Assert.*;
 
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
 
 import org.junit.Test;
 import org.slf4j.Logger;
@@ -71,4 +75,58 @@ public class DateTimeTest {
 		logger.info("d2=" + d2.toDate().toString());
 		assertEquals(d1.toString(), d2.toDate().toString());
 	}
+
+	@Test
+	public void testParseMatchesDateFormat() throws Exception {
+		DateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+		df.setTimeZone(TimeZone.getTimeZone("GMT"));
+		Random random = new Random(12);
+		long range = 200L * 365 * 86400;
+		for (int i = 0; i < 10000; ++i) {
+			long seconds = (long) (random.nextDouble() * range) - range / 4;
+			long millis = seconds * 1000L;
+			String value = df.format(new Date(millis));
+			assertEquals(value, millis, DateTime.parseMillis(value));
+			assertEquals(value, DateTime.format(millis));
+			assertEquals(df.parse(value).getTime(), new DateTime(value).getMillisec());
+		}
+	}
+
+	@Test
+	public void testDateOnly() throws Exception {
+		DateTime d1 = new DateTime("2016-02-29");
+		DateTime d2 = new DateTime("2016-02-29 00:00:00");
+		assertEquals(d2.getMillisec(), d1.getMillisec());
+		assertEquals("2016-02-29", d1.toString());
+		assertEquals(0L, DateTime.parseMillis("1970-01-01"));
+	}
+
+	@Test
+	public void testRollover() throws Exception {
+		assertEquals(
+			DateTime.parseMillis("2014-03-02 00:00:00"),
+			DateTime.parseMillis("2014-02-30 00:00:00"));
+		assertEquals(
+			DateTime.parseMillis("2015-01-01 01:00:00"),
+			DateTime.parseMillis("2014-12-31 25:00:00"));
+		assertEquals(
+			DateTime.parseMillis("2013-12-01"),
+			DateTime.parseMillis("2014-00-01"));
+	}
+
+	@Test
+	public void testDuration() throws Exception {
+		DateTime d1 = new DateTime("1970-01-02 03:04:05");
+		assertEquals(97445, d1.getSeconds());
+	}
+
+	@Test (expected = InvalidDateTimeException.class)
+	public void testBadSeparator() {
+		DateTime.parseMillis("2014/01/15 12:00:00");
+	}
+
+	@Test (expected = InvalidDateTimeException.class)
+	public void testBadDigit() {
+		DateTime.parseMillis("2014-01-1x");
+	}
 }
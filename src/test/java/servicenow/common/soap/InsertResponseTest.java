@@ -0,0 +1,40 @@
+package servicenow.common.soap;
+
+import static org.junit.Assert.*;
+
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+import org.junit.Test;
+
+import servicenow.common.soap.InsertResponse;
+import servicenow.common.soap.Key;
+
+public class InsertResponseTest {
+
+	static final Namespace ns = 
+		Namespace.getNamespace("http://www.service-now.com/sys_user_group");
+
+	static InsertResponse response(String sysid) {
+		Element element = new Element("insertResponse", ns);
+		if (sysid != null) element.addContent(new Element("sys_id", ns).setText(sysid));
+		return new InsertResponse(element);
+	}
+
+	@Test
+	public void testSysId() {
+		String value = "0123456789abcdef0123456789abcdef";
+		assertEquals(new Key(value), response(value).getSysId());
+	}
+
+	/**
+	 * An empty sys_id must be reported as missing,
+	 * so that Table.insert throws "missing sys_id".
+	 */
+	@Test
+	public void testEmptySysId() {
+		assertNull(response(null).getSysId());
+		assertNull(response("").getSysId());
+		assertNull(response(" ").getSysId());
+	}
+
+}
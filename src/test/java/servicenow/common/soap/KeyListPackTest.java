@@ -0,0 +1,172 @@
+package servicenow.common.soap;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import servicenow.common.soap.Key;
+import servicenow.common.soap.KeyList;
+
+public class KeyListPackTest {
+
+	static String guid(Random random) {
+		return new UUID(random.nextLong(), random.nextLong())
+			.toString().replaceAll("-", "");
+	}
+
+	static KeyList randomKeys(int size, long seed) {
+		Random random = new Random(seed);
+		KeyList keys = new KeyList();
+		for (int i = 0; i < size; ++i)
+			keys.add(new Key(guid(random)));
+		return keys;
+	}
+
+	@Test
+	public void testRoundTrip() {
+		String g1 = "0123456789abcdef0123456789abcdef";
+		String g2 = "ffffffffffffffff0000000000000000";
+		String odd = "NOT-A-GUID";
+		KeyList keys = new KeyList(1);
+		keys.add(new Key(g1));
+		keys.add(new Key(odd));
+		keys.add(new Key(g2));
+		assertEquals(3, keys.size());
+		assertEquals(g1, keys.get(0).toString());
+		assertEquals(odd, keys.get(1).toString());
+		assertEquals(g2, keys.get(2).toString());
+		assertEquals(g1 + "," + odd + "," + g2, keys.toString());
+		assertEquals("sys_idIN" + odd + "," + g2, keys.filter(1, 3).toString());
+		assertEquals(1, keys.indexOf(new Key(odd)));
+		assertEquals(2, keys.indexOf(new Key(g2)));
+		assertFalse(keys.contains(new Key("00000000000000000000000000000000")));
+	}
+
+	@Test
+	public void testParseList() {
+		KeyList source = randomKeys(50, 1);
+		KeyList parsed = new KeyList();
+		String list = source.toString();
+		int start = 0;
+		while (start < list.length()) {
+			int end = list.indexOf(',', start);
+			if (end < 0) end = list.length();
+			parsed.add(list, start, end);
+			start = end + 1;
+		}
+		assertEquals(source, parsed);
+	}
+
+	@Test
+	public void testSortAndSearch() {
+		KeyList keys = randomKeys(5000, 2);
+		ArrayList<String> expected = new ArrayList<String>();
+		for (Key key : keys) expected.add(key.toString());
+		Collections.sort(expected);
+		keys.sort();
+		assertTrue(keys.isSorted());
+		for (int i = 0; i < keys.size(); ++i)
+			assertEquals(expected.get(i), keys.get(i).toString());
+		for (int i = 0; i < keys.size(); i += 37)
+			assertEquals(i, keys.binarySearch(new Key(expected.get(i))));
+		assertTrue(keys.binarySearch(new Key("not-a-guid")) < 0);
+	}
+
+	@Test
+	public void testSortMixed() {
+		KeyList keys = randomKeys(100, 3);
+		keys.add(new Key("zzz"));
+		keys.add(new Key("-1"));
+		keys.sort();
+		assertTrue(keys.isSorted());
+		assertEquals("-1", keys.get(0).toString());
+		assertEquals("zzz", keys.get(keys.size() - 1).toString());
+		assertEquals(keys.size() - 1, keys.binarySearch(new Key("zzz")));
+	}
+
+	@Test
+	public void testMinus() {
+		KeyList all = randomKeys(1000, 4);
+		KeyList some = new KeyList();
+		for (int i = 0; i < all.size(); i += 3) some.add(all.get(i));
+		KeyList diff = all.minus(some);
+		assertEquals(all.size() - some.size(), diff.size());
+		HashSet<Key> excluded = new HashSet<Key>(some);
+		for (Key key : diff) assertFalse(excluded.contains(key));
+	}
+
+	@Test
+	public void testUniqueCount() {
+		KeyList keys = randomKeys(200, 5);
+		assertEquals(200, keys.uniqueCount());
+		keys.addAll(randomKeys(10, 5));
+		assertEquals(210, keys.size());
+		assertEquals(200, keys.uniqueCount());
+	}
+
+	@Test
+	public void testKeyHash() {
+		Key k1 = new Key("0123456789abcdef0123456789abcdef");
+		Key k2 = new Key("0123456789abcdef0123456789abcdef");
+		assertEquals(k1, k2);
+		assertEquals(k1.hashCode(), k2.hashCode());
+		assertFalse(k1.equals(k1.toString()));
+	}
+
+	@Test
+	public void testRemove() {
+		KeyList keys = randomKeys(10, 6);
+		Key third = keys.get(3);
+		Key removed = keys.remove(2);
+		assertEquals(9, keys.size());
+		assertEquals(third, keys.get(2));
+		assertFalse(keys.contains(removed));
+	}
+
+	@Test
+	public void testSpill() throws Exception {
+		KeyList expected = randomKeys(1000, 7);
+		KeyList keys = new KeyList();
+		keys.segmentKeys = 64;
+		keys.setSpill(null, 100);
+		keys.addAll(randomKeys(50, 7));
+		assertFalse(keys.isSpilled());
+		for (int i = 50; i < expected.size(); ++i)
+			keys.add(expected.get(i));
+		assertTrue(keys.isSpilled());
+		assertEquals(expected, keys);
+		assertEquals(expected.filter(90, 130).toString(), keys.filter(90, 130).toString());
+		keys.sort();
+		assertTrue(keys.isSorted());
+		assertEquals(1000, keys.uniqueCount());
+		keys.close();
+		assertEquals(0, keys.size());
+	}
+
+	@Test
+	public void testCheckpoint() throws Exception {
+		File file = File.createTempFile("keylist", ".keys");
+		file.deleteOnExit();
+		KeyList keys = randomKeys(300, 8);
+		keys.segmentKeys = 64;
+		keys.setSpill(file, Integer.MAX_VALUE);
+		assertNull(KeyList.openCheckpoint(file, "query"));
+		assertTrue(keys.checkpoint("query"));
+		assertTrue(keys.isSpilled());
+		KeyList reopened = KeyList.openCheckpoint(file, "query");
+		assertNotNull(reopened);
+		assertEquals(keys, reopened);
+		assertNull(KeyList.openCheckpoint(file, "another query"));
+		keys.close();
+		reopened.close();
+		assertTrue(file.exists());
+		assertTrue(file.delete());
+	}
+}
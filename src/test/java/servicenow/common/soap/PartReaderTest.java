@@ -6,11 +6,13 @@ import org.junit.Before;
 import org.junit.Test;
 import org.slf4j.Logger;
 
+import servicenow.common.soap.PartitionQueue.Partition;
 import servicenow.common.soap.PartitionedTableReader;
 import servicenow.common.soap.QueryFilter;
 import servicenow.common.soap.RecordList;
 import servicenow.common.soap.Session;
 import servicenow.common.soap.Table;
+import servicenow.common.soap.TimeSliceTableReader;
 
 
 public class PartReaderTest {
@@ -56,4 +58,44 @@ public class PartReaderTest {
 		RecordList allRecs = reader.getAllRecords();
 		assertEquals(countAll, allRecs.size());		
 	}
+
+	@Test
+	public void testConcurrentPartitions() throws Exception {
+		Table server = session.table("cmdb_ci_server");
+		int countAll = server.getCount();
+		assertTrue(countAll > 100);
+		PartitionedTableReader reader = 
+			new PartitionedTableReader(server, "sys_class_name").setThreads(3);
+		try {
+			RecordList allRecs = reader.getAllRecords();
+			assertEquals(countAll, allRecs.size());
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void testTimeSlices() throws Exception {
+		Table server = session.table("cmdb_ci_server");
+		int countAll = server.getCount();
+		assertTrue(countAll > 100);
+		TimeSliceTableReader reader = new TimeSliceTableReader(server);
+		reader.setSliceSize(countAll / 5).setThreads(3);
+		try {
+			assertTrue(reader.getSlices().size() >= 5);
+			// the expected count of every slice is its own count
+			int total = 0;
+			for (Partition slice : reader.getSlices()) {
+				assertEquals(slice.name, server.getCount(slice.filter), slice.expectedCount);
+				total += slice.expectedCount;
+			}
+			assertEquals(countAll, total);
+			RecordList allRecs = reader.getAllRecords();
+			assertEquals(countAll, allRecs.size());
+		}
+		finally {
+			reader.close();
+		}
+	}
 }
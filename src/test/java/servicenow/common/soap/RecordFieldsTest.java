@@ -40,4 +40,17 @@ public class RecordFieldsTest {
 		}
 		assertEquals("GMT", fields.get("time_zone"));
 	}
+
+	@Test
+	public void testFieldIndex() throws Exception {
+		Session session = AllTests.getSession();
+		Record userRec = session.getUserProfile();
+		Map<String,String> fields = userRec.getAllFields();
+		for (String name : fields.keySet()) {
+			String value = fields.get(name);
+			if (value.length() == 0) value = null;
+			assertEquals(name, value, userRec.getField(name));
+		}
+		assertEquals(fields.get("sys_id"), userRec.getKey().toString());
+	}
 }
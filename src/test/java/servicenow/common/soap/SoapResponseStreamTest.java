@@ -0,0 +1,60 @@
+package servicenow.common.soap;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+import org.junit.Test;
+
+import servicenow.common.soap.SoapResponseStream;
+
+public class SoapResponseStreamTest {
+
+	static final String response =
+		"<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+		"<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\">" +
+		"<SOAP-ENV:Body>" +
+		"<getRecordsResponse xmlns=\"http://www.service-now.com/incident\">" +
+		"<getRecordsResult><number>INC0000001</number>" +
+		"<sys_id>46d44a23a9fe19810012d100cca80666</sys_id></getRecordsResult>\n" +
+		"<getRecordsResult><number>INC0000002</number>" +
+		"<sys_id>46e18c0fa9fe19810066a0083f76bd56</sys_id></getRecordsResult>\n" +
+		"</getRecordsResponse>" +
+		"</SOAP-ENV:Body>" +
+		"</SOAP-ENV:Envelope>";
+	
+	InputStream input(String text) {
+		return new ByteArrayInputStream(text.getBytes());
+	}
+	
+	@Test
+	public void testStreamRecords() throws IOException {
+		SoapResponseStream stream = 
+			new SoapResponseStream(null, input(response), "getRecordsResponse");
+		Element first = stream.next();
+		Element second = stream.next();
+		assertNull(stream.next());
+		assertNull(stream.next());
+		stream.close();
+		Namespace ns = first.getNamespace();
+		assertEquals("http://www.service-now.com/incident", ns.getURI());
+		assertEquals("INC0000001", first.getChildText("number", ns));
+		assertEquals("46e18c0fa9fe19810066a0083f76bd56", second.getChildText("sys_id", ns));
+	}
+
+	@Test
+	public void testEmptyResponse() throws IOException {
+		String empty = 
+			"<env:Envelope xmlns:env=\"http://schemas.xmlsoap.org/soap/envelope/\">" +
+			"<env:Body><getRecordsResponse/></env:Body></env:Envelope>";
+		SoapResponseStream stream = 
+			new SoapResponseStream(null, input(empty), "getRecordsResponse");
+		assertNull(stream.next());
+		stream.close();
+	}
+	
+}
@@ -0,0 +1,145 @@
+package servicenow.common.soap;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+
+import servicenow.common.soap.Key;
+import servicenow.common.soap.KeyList;
+import servicenow.common.soap.Parameters;
+import servicenow.common.soap.Record;
+import servicenow.common.soap.RecordList;
+import servicenow.common.soap.Session;
+import servicenow.common.soap.Table;
+
+public class TableAsyncTest {
+
+	static Logger logger = AllTests.junitLogger(TableAsyncTest.class);
+	static Session session;
+
+	@BeforeClass
+	public static void initialize() throws Exception {
+		session = AllTests.getSession();
+	}
+
+	static Set<Key> keySet(RecordList recs) {
+		Set<Key> result = new HashSet<Key>();
+		for (Record rec : recs) result.add(rec.getKey());
+		return result;
+	}
+
+	@Test
+	public void testKeysAsync() throws Exception {
+		Table table = session.table("sys_user_group");
+		Parameters params = new Parameters();
+		KeyList expected = table.getKeys(params);
+		KeyList keys = table.getKeysAsync(params).get();
+		assertEquals(expected.size(), keys.size());
+		assertEquals(new HashSet<Key>(expected), new HashSet<Key>(keys));
+	}
+
+	@Test
+	public void testRecordsAsyncParameters() throws Exception {
+		Table table = session.table("sys_user_group");
+		Parameters params = new Parameters();
+		Set<Key> expected = keySet(table.getRecords(params));
+		RecordList recs = table.getRecordsAsync(params).get();
+		assertEquals(expected, keySet(recs));
+	}
+
+	/**
+	 * Each future returns the records for its own slice of the keys,
+	 * whatever order the calls complete in.
+	 */
+	@Test
+	public void testRecordsAsyncOrder() throws Exception {
+		Table table = session.table("sys_user_group");
+		KeyList keys = table.getKeys();
+		assertTrue(keys.size() > 20);
+		int slice = 5;
+		List<Future<RecordList>> futures = new ArrayList<Future<RecordList>>();
+		for (int from = 0; from < 20; from += slice)
+			futures.add(table.getRecordsAsync(keys, from, from + slice));
+		for (int i = 0; i < futures.size(); ++i) {
+			RecordList recs = futures.get(i).get();
+			Set<Key> expected =
+				new HashSet<Key>(keys.subList(i * slice, (i + 1) * slice));
+			assertEquals(slice, recs.size());
+			assertEquals(expected, keySet(recs));
+		}
+	}
+
+	@Test
+	public void testRecordsAsyncException() throws Exception {
+		Table table = session.table("sys_user_group");
+		KeyList keys = table.getKeys();
+		Future<RecordList> future =
+			table.getRecordsAsync(keys, 0, keys.size() + 1);
+		try {
+			future.get();
+			fail("expected ExecutionException");
+		}
+		catch (ExecutionException e) {
+			logger.info(e.getCause().toString());
+			assertTrue(e.getCause() instanceof IndexOutOfBoundsException);
+		}
+		// the executor is still usable
+		assertEquals(keys.size(), table.getKeysAsync(new Parameters()).get().size());
+	}
+
+	/**
+	 * A call which is cancelled while it is queued is never run.
+	 */
+	@Test
+	public void testCancel() throws Exception {
+		Table table = session.table("sys_user_group");
+		ThreadPoolExecutor executor = (ThreadPoolExecutor) session.getAsyncExecutor();
+		int threads = executor.getMaximumPoolSize();
+		// occupy every thread of the executor
+		final CountDownLatch started = new CountDownLatch(threads);
+		final CountDownLatch release = new CountDownLatch(1);
+		List<Future<Void>> blockers = new ArrayList<Future<Void>>();
+		for (int i = 0; i < threads; ++i) {
+			blockers.add(executor.submit(new Callable<Void>() {
+				public Void call() throws InterruptedException {
+					started.countDown();
+					release.await();
+					return null;
+				}
+			}));
+		}
+		try {
+			started.await();
+			Future<KeyList> future = table.getKeysAsync(new Parameters());
+			assertTrue(future.cancel(true));
+			assertTrue(future.isCancelled());
+			assertTrue(future.isDone());
+			try {
+				future.get();
+				fail("expected CancellationException");
+			}
+			catch (CancellationException e) {
+				// expected
+			}
+		}
+		finally {
+			release.countDown();
+		}
+		for (Future<Void> blocker : blockers) blocker.get();
+		assertTrue(table.getKeysAsync(new Parameters()).get().size() > 0);
+	}
+
+}
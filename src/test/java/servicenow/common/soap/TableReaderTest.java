@@ -7,6 +7,9 @@ import org.slf4j.Logger;
 
 import servicenow.common.soap.DateTime;
 import servicenow.common.soap.KeyList;
+import servicenow.common.soap.KeysetTableReader;
+import servicenow.common.soap.ParallelTableReader;
+import servicenow.common.soap.PrefetchTableReader;
 import servicenow.common.soap.Record;
 import servicenow.common.soap.RecordList;
 import servicenow.common.soap.Session;
@@ -49,6 +52,75 @@ public class TableReaderTest {
 		assertEquals(keys.size(), recs.size());
 	}
 	
+	@Test
+	public void testParallelReader() throws Exception {
+		final String tablename = "cmn_department";
+		Table tbl = session.table(tablename);
+		tbl.setChunkSize(5);
+		KeyList keys = tbl.getKeys();
+		ParallelTableReader reader = tbl.parallelReader(null, 3);
+		RecordList recs = reader.getAllRecords();
+		assertEquals(keys.size(), recs.size());
+		assertEquals(keys.size(), reader.getFirstRowIndex());
+		assertFalse(reader.hasNext());
+	}
+
+	@Test
+	public void testParallelReaderOrdered() throws Exception {
+		final String tablename = "cmn_department";
+		Table tbl = session.table(tablename);
+		tbl.setChunkSize(5);
+		KeyList keys = tbl.getKeys();
+		ParallelTableReader reader = tbl.parallelReader(null, 3);
+		int count = 0;
+		try {
+			while (reader.hasNext()) {
+				count += reader.nextChunk().size();
+				// finished chunks must not be held by a completion queue
+				assertEquals(0, reader.completedSize());
+			}
+		}
+		finally {
+			reader.close();
+		}
+		assertEquals(keys.size(), count);
+	}
+
+	@Test
+	public void testPrefetchReader() throws Exception {
+		final String tablename = "cmn_department";
+		Table tbl = session.table(tablename);
+		tbl.setChunkSize(5);
+		KeyList keys = tbl.getKeys();
+		PrefetchTableReader reader = new PrefetchTableReader(tbl.reader(), 2);
+		try {
+			RecordList recs = reader.getAllRecords();
+			assertEquals(keys.size(), recs.size());
+			assertFalse(reader.hasNext());
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void testKeysetReader() throws Exception {
+		final String tablename = "cmn_department";
+		Table tbl = session.table(tablename);
+		tbl.setChunkSize(5);
+		KeyList keys = tbl.getKeys();
+		KeysetTableReader reader = tbl.keysetReader();
+		RecordList first = reader.nextChunk();
+		assertEquals(5, first.size());
+		// resume from the last record of the first chunk
+		KeysetTableReader resumed = tbl.keysetReader()
+			.setStartAfter(reader.getLastCreated(), reader.getLastKey());
+		RecordList rest = resumed.getAllRecords();
+		assertEquals(keys.size(), first.size() + rest.size());
+		for (Record rec : rest)
+			assertFalse(rec.getKey().equals(reader.getLastKey()));
+	}
+
 	@Test
 	public void testSortAscending() throws Exception {
 		Table table = session.table("sys_user_group");
@@ -0,0 +1,149 @@
+package servicenow.common.soap;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import servicenow.common.soap.PooledTransport;
+import servicenow.common.soap.SessionConfiguration;
+import servicenow.common.soap.SessionMetrics;
+import servicenow.common.soap.TransportRequest;
+import servicenow.common.soap.TransportResponse;
+
+public class TransportTest {
+
+	static HttpServer server;
+	static URL url;
+	
+	@BeforeClass
+	public static void startServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				byte[] body = "<ok/>".getBytes();
+				exchange.getResponseHeaders().add("Set-Cookie", "JSESSIONID=abc123; Path=/");
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream output = exchange.getResponseBody();
+				output.write(body);
+				output.close();
+			}
+		});
+		server.start();
+		url = new URL("http://localhost:" + server.getAddress().getPort() + "/incident.do?SOAP");
+	}
+	
+	@AfterClass
+	public static void stopServer() {
+		server.stop(0);
+	}
+	
+	@Test
+	public void testConnectionReuse() throws IOException {
+		PooledTransport transport = new PooledTransport(new SessionConfiguration());
+		SessionMetrics metrics = new SessionMetrics();
+		for (int i = 0; i < 3; ++i) {
+			TransportRequest request = new TransportRequest("POST", url);
+			request.setBody("<request/>".getBytes());
+			TransportResponse response = transport.execute(request);
+			assertEquals(200, response.getStatusCode());
+			assertEquals("<ok/>", HttpUtil.readFully(response));
+			metrics.incrementConnection(
+				response.getConnectionId(), response.isConnectionReused());
+		}
+		assertEquals(1, metrics.connectionsOpened());
+		assertEquals(2, metrics.connectionsReused());
+	}
+	
+	@Test
+	public void testSharedPools() {
+		SessionConfiguration config = new SessionConfiguration();
+		PooledTransport t1 = PooledTransport.getInstance(config, "https://a/", "admin", "pw");
+		assertSame(t1, PooledTransport.getInstance(config, "https://a/", "admin", "pw"));
+		assertNotSame(t1, PooledTransport.getInstance(config, "https://b/", "admin", "pw"));
+		assertNotSame(t1, PooledTransport.getInstance(config, "https://a/", "other", "pw"));
+		SessionConfiguration bigger = new SessionConfiguration();
+		bigger.setProperty("max_connections", "16");
+		assertNotSame(t1, PooledTransport.getInstance(bigger, "https://a/", "admin", "pw"));
+	}
+	
+	@Test
+	public void testPoolKey() {
+		SessionConfiguration config = new SessionConfiguration();
+		String key = PooledTransport.poolKey(config, "https://a/", "admin", "s3cr3t-pw");
+		assertFalse(key.contains("s3cr3t-pw"));
+		assertTrue(key.startsWith("https://a/\nadmin\n"));
+		assertEquals(key, PooledTransport.poolKey(config, "https://a/", "admin", "s3cr3t-pw"));
+		assertFalse(key.equals(
+			PooledTransport.poolKey(config, "https://a/", "admin", "other-pw")));
+	}
+	
+	@Test
+	public void testCloseAll() throws IOException {
+		SessionConfiguration config = new SessionConfiguration();
+		String address = url.toString();
+		PooledTransport t1 = PooledTransport.getInstance(config, address, "admin", "pw");
+		TransportResponse response = t1.execute(new TransportRequest("GET", url));
+		assertEquals("<ok/>", HttpUtil.readFully(response));
+		PooledTransport.closeAll();
+		try {
+			t1.execute(new TransportRequest("GET", url));
+			fail("expected pool to be closed");
+		}
+		catch (IllegalStateException e) {
+			// expected
+		}
+		// a new pool is created after closeAll
+		PooledTransport t2 = PooledTransport.getInstance(config, address, "admin", "pw");
+		assertNotSame(t1, t2);
+		assertEquals("<ok/>", HttpUtil.readFully(t2.execute(new TransportRequest("GET", url))));
+	}
+	
+	@Test
+	public void testConnectionRequestTimeout() throws IOException {
+		SessionConfiguration config = new SessionConfiguration();
+		config.setProperty("max_connections", "1");
+		config.setProperty("connection_request_timeout", "1");
+		PooledTransport transport = new PooledTransport(config);
+		// hold the only connection by leaving the body unread
+		TransportResponse first = transport.execute(new TransportRequest("GET", url));
+		first.getBody();
+		try {
+			long start = System.currentTimeMillis();
+			try {
+				transport.execute(new TransportRequest("GET", url));
+				fail("expected timeout");
+			}
+			catch (IOException e) {
+				long elapsed = System.currentTimeMillis() - start;
+				assertTrue("elapsed=" + elapsed, elapsed < 10000);
+			}
+		}
+		finally {
+			first.close();
+		}
+		// the connection is available again
+		TransportResponse second = transport.execute(new TransportRequest("GET", url));
+		assertEquals("<ok/>", HttpUtil.readFully(second));
+	}
+	
+	@Test
+	public void testResponseCookies() throws IOException {
+		URLConnectionTransport transport = new URLConnectionTransport(new SessionConfiguration());
+		TransportResponse response = transport.execute(new TransportRequest("GET", url));
+		response.close();
+		CookieJar jar = new CookieJar();
+		jar.addResponseCookies(response, false);
+		assertEquals("abc123", jar.getCookie("JSESSIONID"));
+	}
+}